@@ -0,0 +1,73 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import com.example.distributedkeyvalue.model.commands.CommandCodec;
+import com.example.distributedkeyvalue.model.commands.DeleteCommand;
+import com.example.distributedkeyvalue.model.commands.GetCommand;
+import com.example.distributedkeyvalue.model.commands.PutCommand;
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Encoding builds the bytes written to the Raft log; decoding runs once per applied entry
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandCodecBenchmark {
+    private static final String KEY = "user:1234567";
+    private static final String VALUE = "{\"name\":\"alice\",\"visits\":42,\"plan\":\"premium\"}";
+
+    private ByteString put;
+    private ByteString get;
+    private ByteString delete;
+
+    @Setup
+    public void setUp() {
+        put = new PutCommand(KEY, VALUE).getContent();
+        get = new GetCommand(KEY).getContent();
+        delete = new DeleteCommand(KEY).getContent();
+    }
+
+    @Benchmark
+    public ByteString encodePut() {
+        return new PutCommand(KEY, VALUE).getContent();
+    }
+
+    @Benchmark
+    public ByteString encodeGet() {
+        return new GetCommand(KEY).getContent();
+    }
+
+    @Benchmark
+    public ByteString encodeDelete() {
+        return new DeleteCommand(KEY).getContent();
+    }
+
+    @Benchmark
+    public Message decodePut() {
+        return CommandCodec.decode(put);
+    }
+
+    @Benchmark
+    public Message decodeGet() {
+        return CommandCodec.decode(get);
+    }
+
+    @Benchmark
+    public Message decodeDelete() {
+        return CommandCodec.decode(delete);
+    }
+}
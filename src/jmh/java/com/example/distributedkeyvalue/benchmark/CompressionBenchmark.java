@@ -0,0 +1,109 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import com.example.distributedkeyvalue.model.KeyValueStateMachine;
+import com.example.distributedkeyvalue.model.ValueCompression;
+import com.example.distributedkeyvalue.model.VersionedValue;
+import com.example.distributedkeyvalue.model.commands.GetCommand;
+import com.example.distributedkeyvalue.model.commands.PutCommand;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.proto.RaftProtos.RaftPeerRole;
+import org.apache.ratis.proto.RaftProtos.StateMachineLogEntryProto;
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.statemachine.TransactionContext;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// What compression costs per value: encoding the PUT on the proposer, applying it, and the GET
+// that expands it. Log, store and heap bytes are in the CompressionMemoryBenchmark test.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    private static final int KEYS = 256;
+
+    @Param({"2048", "8192", "20480", "51200"})
+    public int valueSize;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    private KeyValueStateMachine stateMachine;
+    private String[] values;
+    private ByteString[] puts;
+    private Message[] gets;
+    private long index;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(valueSize);
+        stateMachine = new KeyValueStateMachine();
+        values = new String[KEYS];
+        puts = new ByteString[KEYS];
+        gets = new Message[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            values[i] = JsonDocuments.generate(random, valueSize);
+            puts[i] = put(i).getContent();
+            gets[i] = new GetCommand("doc:" + i);
+            apply(puts[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        stateMachine.close();
+    }
+
+    @Benchmark
+    public ByteString encodePut() {
+        return put(next++ & (KEYS - 1)).getContent();
+    }
+
+    @Benchmark
+    public Message applyPut() {
+        return apply(puts[next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public Message queryGet() {
+        return stateMachine.query(gets[next++ & (KEYS - 1)]).join();
+    }
+
+    private PutCommand put(int i) {
+        byte[] compressedValue = compressed ? ValueCompression.compress(values[i]) : null;
+        return compressedValue != null
+                ? new PutCommand("doc:" + i, compressedValue, 0, VersionedValue.ANY)
+                : new PutCommand("doc:" + i, values[i]);
+    }
+
+    private Message apply(ByteString command) {
+        LogEntryProto entry = LogEntryProto.newBuilder()
+                .setTerm(1)
+                .setIndex(index++)
+                .setStateMachineLogEntry(StateMachineLogEntryProto.newBuilder().setLogData(command))
+                .build();
+        TransactionContext trx = TransactionContext.newBuilder()
+                .setServerRole(RaftPeerRole.FOLLOWER)
+                .setStateMachine(stateMachine)
+                .setLogEntry(entry)
+                .build();
+        return stateMachine.applyTransaction(trx).join();
+    }
+}
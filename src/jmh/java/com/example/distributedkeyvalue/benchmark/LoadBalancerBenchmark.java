@@ -0,0 +1,71 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import com.example.distributedkeyvalue.loadBalancer.HealthController;
+import com.example.distributedkeyvalue.loadBalancer.LoadBalancer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Target selection for every routed request, with three replicas per shard
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBalancerBenchmark {
+    @Param({"30", "300"})
+    public int nodes;
+
+    private LoadBalancer loadBalancer;
+    private String[] shardIds;
+    private PrintStream console;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // Routing logs to stdout; drop it so the console stays readable, the formatting is still measured
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        loadBalancer = new LoadBalancer();
+        HealthController health = new HealthController(loadBalancer);
+        shardIds = new String[nodes / 3];
+        for (int s = 0; s < shardIds.length; s++) {
+            shardIds[s] = "shard" + s;
+            for (int n = 1; n <= 3; n++) {
+                String url = "http://shard" + s + "-node" + n + ":8080";
+                health.handleHeartbeat(Map.of("nodeId", url, "status", "healthy", "leaderOf", n == 1 ? shardIds[s] : ""));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public String readTarget() {
+        return loadBalancer.getShardAwareNode(shardIds[next++ % shardIds.length], false);
+    }
+
+    @Benchmark
+    public String writeTarget() {
+        return loadBalancer.getShardAwareNode(shardIds[next++ % shardIds.length], true);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import com.example.distributedkeyvalue.config.RaftConfig;
+import org.apache.ratis.protocol.RaftGroup;
+import org.apache.ratis.protocol.RaftPeer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Group construction done whenever a Raft client for a shard is built
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RaftGroupBenchmark {
+    private List<RaftPeer> peers;
+    private PrintStream console;
+
+    @Setup
+    public void setUp() {
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        peers = List.of(
+                RaftPeer.newBuilder().setId("node1").setAddress("shard1-node1:9870").build(),
+                RaftPeer.newBuilder().setId("node2").setAddress("shard1-node2:9870").build(),
+                RaftPeer.newBuilder().setId("node3").setAddress("shard1-node3:9870").build());
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public RaftGroup getRaftGroup() {
+        return RaftConfig.getRaftGroup("shard1", peers);
+    }
+}
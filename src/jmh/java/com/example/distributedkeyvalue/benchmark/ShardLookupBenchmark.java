@@ -0,0 +1,58 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import com.example.distributedkeyvalue.controller.ShardManagerController;
+import com.example.distributedkeyvalue.model.ShardInfo;
+import com.example.distributedkeyvalue.model.ShardRegistrationRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Ring lookup behind GET /shard-manager/shard/{key}
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardLookupBenchmark {
+    private static final int KEYS = 1 << 12;
+
+    @Param({"8", "64"})
+    public int shards;
+
+    private ShardManagerController controller;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        controller = new ShardManagerController(128);
+        for (int s = 0; s < shards; s++) {
+            List<String> nodes = List.of("shard" + s + "-node1:shard" + s + "-node1:9870",
+                    "shard" + s + "-node2:shard" + s + "-node2:9870",
+                    "shard" + s + "-node3:shard" + s + "-node3:9870");
+            controller.registerShard(new ShardRegistrationRequest("shard" + s, List.of(), nodes));
+        }
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "user:" + i;
+        }
+    }
+
+    @Benchmark
+    public ResponseEntity<ShardInfo> getShardForKey() {
+        return controller.getShardForKey(keys[next++ & (KEYS - 1)]);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import com.example.distributedkeyvalue.model.KeyValueStateMachine;
+import com.example.distributedkeyvalue.model.commands.GetCommand;
+import com.example.distributedkeyvalue.model.commands.PutCommand;
+import com.example.distributedkeyvalue.model.store.KeyValueStore;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.proto.RaftProtos.RaftPeerRole;
+import org.apache.ratis.proto.RaftProtos.StateMachineLogEntryProto;
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.statemachine.TransactionContext;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The apply and query paths as Ratis drives them, without the network or the log
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateMachineBenchmark {
+    private static final int KEYS = 1 << 16;
+
+    @Param({"heap", "offheap"})
+    public String engine;
+
+    private KeyValueStateMachine stateMachine;
+    private ByteString[] puts;
+    private Message[] gets;
+    private long index;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        stateMachine = new KeyValueStateMachine(KeyValueStore.create(engine));
+        puts = new ByteString[KEYS];
+        gets = new Message[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            puts[i] = new PutCommand("user:" + i, "value-" + i).getContent();
+            gets[i] = new GetCommand("user:" + i);
+        }
+        for (ByteString put : puts) {
+            apply(put);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        stateMachine.close();
+    }
+
+    @Benchmark
+    public Message applyPut() {
+        return apply(puts[next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public Message queryGet() {
+        return stateMachine.query(gets[next++ & (KEYS - 1)]).join();
+    }
+
+    private Message apply(ByteString command) {
+        // Applied indexes must keep increasing, as they would coming from the log
+        LogEntryProto entry = LogEntryProto.newBuilder()
+                .setTerm(1)
+                .setIndex(index++)
+                .setStateMachineLogEntry(StateMachineLogEntryProto.newBuilder().setLogData(command))
+                .build();
+        TransactionContext trx = TransactionContext.newBuilder()
+                .setServerRole(RaftPeerRole.FOLLOWER)
+                .setStateMachine(stateMachine)
+                .setLogEntry(entry)
+                .build();
+        return stateMachine.applyTransaction(trx).join();
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.distributedkeyvalue.client;
+
+import com.example.distributedkeyvalue.config.RaftConfig;
+import com.example.distributedkeyvalue.model.BatchOperation;
+import com.example.distributedkeyvalue.model.BatchResult;
+import com.example.distributedkeyvalue.model.NotAnIntegerException;
+import com.example.distributedkeyvalue.model.ReadConsistency;
+import com.example.distributedkeyvalue.model.ShardAssignment;
+import com.example.distributedkeyvalue.model.ShardInfo;
+import com.example.distributedkeyvalue.model.ShardMap;
+import com.example.distributedkeyvalue.model.VersionMismatchException;
+import com.example.distributedkeyvalue.model.VersionedValue;
+import com.example.distributedkeyvalue.model.WriteResult;
+import com.example.distributedkeyvalue.model.commands.AppendCommand;
+import com.example.distributedkeyvalue.model.commands.BatchCommand;
+import com.example.distributedkeyvalue.model.commands.CommandCodec;
+import com.example.distributedkeyvalue.model.commands.DeleteCommand;
+import com.example.distributedkeyvalue.model.commands.GetCommand;
+import com.example.distributedkeyvalue.model.commands.IncrementCommand;
+import com.example.distributedkeyvalue.model.commands.MultiGetCommand;
+import com.example.distributedkeyvalue.model.commands.PutCommand;
+import org.apache.ratis.client.RaftClient;
+import org.apache.ratis.conf.Parameters;
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.grpc.GrpcFactory;
+import org.apache.ratis.protocol.ClientId;
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.protocol.RaftClientReply;
+import org.apache.ratis.protocol.RaftPeer;
+import org.apache.ratis.protocol.RaftPeerId;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Talks to the shards' Raft groups directly, skipping the load balancer and the node's REST
+ * layer. The ring is fetched from the shard manager and re-fetched in the background, the way
+ * nodes keep their ShardMapCache; each shard gets one RaftClient, which finds the leader itself.
+ *
+ * Shards are reached at the Raft addresses the nodes registered, so the caller must be able to
+ * resolve and connect to them (e.g. run inside the cluster network).
+ */
+public class KeyValueClient implements AutoCloseable {
+    private static final long REFRESH_INTERVAL_MS = 5000;
+
+    private final Supplier<ShardMap> ringSource;
+    private final RaftProperties raftProperties;
+    private final GrpcFactory grpcFactory = new GrpcFactory(new Parameters());
+    private final Map<String, ShardClient> clients = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+    private volatile ShardMap shardMap;
+
+    // Rebuilt when the ring lists different nodes for the shard
+    private record ShardClient(List<String> nodes, RaftClient raftClient) { }
+
+    public static KeyValueClient connect(String shardManagerUrl) {
+        WebClient webClient = WebClient.create(shardManagerUrl);
+        return new KeyValueClient(() -> webClient.get()
+                .uri("/shard-manager/shard-map")
+                .retrieve()
+                .bodyToMono(ShardMap.class)
+                .block(Duration.ofSeconds(2)), RaftConfig.newClientProperties());
+    }
+
+    public KeyValueClient(Supplier<ShardMap> ringSource, RaftProperties raftProperties) {
+        this.ringSource = ringSource;
+        this.raftProperties = raftProperties;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kv-client-ring-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                System.err.println("Shard map refresh failed: " + e.getMessage());
+            }
+        }, REFRESH_INTERVAL_MS, REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public ShardMap refresh() {
+        ShardMap map = ringSource.get();
+        if (map != null && (shardMap == null || map.epoch() >= shardMap.epoch())) {
+            shardMap = map;
+        }
+        return shardMap;
+    }
+
+    // Returns the key's new version
+    public CompletableFuture<Long> put(String key, String value) {
+        return write(key, new PutCommand(key, value), VersionedValue.ANY);
+    }
+
+    // The key is removed by its shard once the TTL has passed, measured from this call
+    public CompletableFuture<Long> put(String key, String value, Duration ttl) {
+        return write(key, new PutCommand(key, value, System.currentTimeMillis() + ttl.toMillis()), VersionedValue.ANY);
+    }
+
+    /**
+     * Writes the key only if it is still at expectedVersion (VersionedValue.ABSENT: only if it
+     * does not exist), checked atomically by the shard. Fails with VersionMismatchException
+     * otherwise; its current version says what to re-read.
+     */
+    public CompletableFuture<Long> compareAndSet(String key, long expectedVersion, String value) {
+        return write(key, new PutCommand(key, value, 0, expectedVersion, System.currentTimeMillis()), expectedVersion);
+    }
+
+    public CompletableFuture<Void> compareAndDelete(String key, long expectedVersion) {
+        return write(key, new DeleteCommand(key, expectedVersion, System.currentTimeMillis()), expectedVersion).thenApply(version -> null);
+    }
+
+    private CompletableFuture<Long> write(String key, Message command, long expectedVersion) {
+        return onShard(key, (info, raftClient) -> raftClient.async().send(command).thenApply(reply -> {
+            check(reply, "Write", info);
+            WriteResult result = CommandCodec.decodeWriteResult(reply.getMessage().getContent());
+            if (!result.applied()) {
+                throw new VersionMismatchException(key, expectedVersion, result.version());
+            }
+            return result.version();
+        }));
+    }
+
+    /**
+     * Adds delta (negative to decrement) to the key's integer value in one Raft commit and
+     * returns the new value; a missing key counts as 0. Fails with NotAnIntegerException if the
+     * value is not a 64-bit integer or the result would overflow. The RaftClient retries with
+     * the same call id, so the shard's retry cache keeps a retried increment from applying twice.
+     */
+    public CompletableFuture<Long> increment(String key, long delta) {
+        return update(key, new IncrementCommand(key, delta, System.currentTimeMillis())).thenApply(value -> {
+            if (value == null) {
+                throw new NotAnIntegerException(key);
+            }
+            return Long.parseLong(value.value());
+        });
+    }
+
+    // Returns the whole new value
+    public CompletableFuture<String> append(String key, String value) {
+        return update(key, new AppendCommand(key, value, System.currentTimeMillis())).thenApply(VersionedValue::value);
+    }
+
+    private CompletableFuture<VersionedValue> update(String key, Message command) {
+        return onShard(key, (info, raftClient) -> raftClient.async().send(command).thenApply(reply -> {
+            check(reply, "Write", info);
+            return CommandCodec.decodeVersionedValue(reply.getMessage().getContent());
+        }));
+    }
+
+    public CompletableFuture<String> get(String key) {
+        return get(key, ReadConsistency.LINEARIZABLE);
+    }
+
+    // Returns null for a missing key. There is no local state machine here, so LEASE reads
+    // are confirmed by the leader like LINEARIZABLE ones
+    public CompletableFuture<String> get(String key, ReadConsistency consistency) {
+        return onShard(key, (info, raftClient) -> {
+            GetCommand command = new GetCommand(key);
+            CompletableFuture<RaftClientReply> reply = consistency == ReadConsistency.STALE
+                    ? raftClient.async().sendStaleRead(command, 0, anyReplica(info))
+                    : raftClient.async().sendReadOnly(command);
+            return reply.thenApply(r -> {
+                check(r, "Read", info);
+                String value = r.getMessage().getContent().toStringUtf8();
+                return value.isEmpty() ? null : value;
+            });
+        });
+    }
+
+    // Returns null for a missing key
+    public CompletableFuture<VersionedValue> getVersioned(String key) {
+        return onShard(key, (info, raftClient) -> raftClient.async().sendReadOnly(new GetCommand(key, true))
+                .thenApply(reply -> {
+                    check(reply, "Read", info);
+                    return CommandCodec.decodeVersionedValue(reply.getMessage().getContent());
+                }));
+    }
+
+    public CompletableFuture<Void> delete(String key) {
+        return onShard(key, (info, raftClient) -> raftClient.async().send(new DeleteCommand(key))
+                .thenAccept(reply -> check(reply, "Delete", info)));
+    }
+
+    // One BatchCommand per shard, all in flight at once; atomic per shard only
+    public CompletableFuture<List<BatchResult>> batch(List<BatchOperation> operations) {
+        List<Message> commands = new ArrayList<>(operations.size());
+        List<String> keys = new ArrayList<>(operations.size());
+        try {
+            for (BatchOperation operation : operations) {
+                commands.add(toCommand(operation));
+                keys.add(operation.key());
+            }
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return onShards(keys, (assignment, positions) -> {
+            List<Message> shardCommands = new ArrayList<>(positions.size());
+            for (int position : positions) {
+                shardCommands.add(commands.get(position));
+            }
+            return client(assignment.shard()).async().send(new BatchCommand(shardCommands)).thenApply(reply -> {
+                check(reply, "Batch write", assignment.shard());
+                return CommandCodec.decodeStrings(reply.getMessage().getContent());
+            });
+        }, (position, status) -> new BatchResult(keys.get(position), status));
+    }
+
+    // Missing keys are left out of the result, which keeps the request order
+    public CompletableFuture<Map<String, String>> multiGet(List<String> keys) {
+        return onShards(keys, (assignment, positions) -> {
+            List<String> shardKeys = new ArrayList<>(positions.size());
+            for (int position : positions) {
+                shardKeys.add(keys.get(position));
+            }
+            return client(assignment.shard()).async().sendReadOnly(new MultiGetCommand(shardKeys)).thenApply(reply -> {
+                check(reply, "Read", assignment.shard());
+                return CommandCodec.decodeNullableStrings(reply.getMessage().getContent());
+            });
+        }, (position, value) -> value).thenApply(values -> {
+            Map<String, String> result = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                if (values.get(i) != null) {
+                    result.put(keys.get(i), values.get(i));
+                }
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        refresher.shutdownNow();
+        for (ShardClient client : clients.values()) {
+            client.raftClient().close();
+        }
+        clients.clear();
+    }
+
+    @FunctionalInterface
+    private interface ShardCall<T> {
+        CompletableFuture<T> send(ShardInfo info, RaftClient raftClient);
+    }
+
+    @FunctionalInterface
+    private interface ShardBatchCall<R> {
+        // One reply entry per position, in the same order
+        CompletableFuture<List<R>> send(ShardAssignment assignment, List<Integer> positions);
+    }
+
+    @FunctionalInterface
+    private interface ResultMapper<R, T> {
+        T map(int position, R reply);
+    }
+
+    private <T> CompletableFuture<T> onShard(String key, ShardCall<T> call) {
+        try {
+            ShardInfo info = ring().shardFor(key);
+            return call.send(info, client(info));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Splits the keys by shard, sends one request per shard and puts the replies back in key order
+    private <R, T> CompletableFuture<List<T>> onShards(List<String> keys, ShardBatchCall<R> call, ResultMapper<R, T> mapper) {
+        List<ShardAssignment> assignments;
+        try {
+            assignments = ring().assign(keys.stream().distinct().collect(Collectors.toList()));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Map<String, ShardAssignment> assignmentByKey = new HashMap<>();
+        for (ShardAssignment assignment : assignments) {
+            assignment.keys().forEach(key -> assignmentByKey.put(key, assignment));
+        }
+        Map<ShardAssignment, List<Integer>> positionsByShard = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            positionsByShard.computeIfAbsent(assignmentByKey.get(keys.get(i)), shard -> new ArrayList<>()).add(i);
+        }
+
+        Object[] results = new Object[keys.size()];
+        List<CompletableFuture<Void>> replies = new ArrayList<>(positionsByShard.size());
+        positionsByShard.forEach((assignment, positions) -> {
+            CompletableFuture<List<R>> reply;
+            try {
+                reply = call.send(assignment, positions);
+            } catch (Exception e) {
+                reply = CompletableFuture.failedFuture(e);
+            }
+            replies.add(reply.thenAccept(values -> {
+                for (int i = 0; i < positions.size(); i++) {
+                    int position = positions.get(i);
+                    results[position] = mapper.map(position, values.get(i));
+                }
+            }));
+        });
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture[0])).thenApply(done -> {
+            @SuppressWarnings("unchecked")
+            List<T> ordered = (List<T>) Arrays.asList(results);
+            return ordered;
+        });
+    }
+
+    private ShardMap ring() {
+        ShardMap map = shardMap;
+        if (map == null || !map.hasShards()) {
+            map = refresh();
+        }
+        if (map == null || !map.hasShards()) {
+            throw new IllegalStateException("No shards are registered with the shard manager");
+        }
+        return map;
+    }
+
+    private RaftClient client(ShardInfo info) {
+        return clients.compute(info.shardId(), (shardId, existing) -> {
+            if (existing != null && existing.nodes().equals(info.nodes())) {
+                return existing;
+            }
+            if (existing != null) {
+                closeQuietly(existing.raftClient());
+            }
+            ClientId clientId = ClientId.randomId();
+            RaftClient raftClient = RaftClient.newBuilder()
+                    .setProperties(raftProperties)
+                    .setClientRpc(grpcFactory.newRaftClientRpc(clientId, raftProperties))
+                    .setRaftGroup(RaftConfig.getRaftGroup(shardId, toPeers(info.nodes())))
+                    .setClientId(clientId)
+                    .build();
+            return new ShardClient(info.nodes(), raftClient);
+        }).raftClient();
+    }
+
+    private static void closeQuietly(RaftClient raftClient) {
+        try {
+            raftClient.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close Raft client: " + e.getMessage());
+        }
+    }
+
+    private static void check(RaftClientReply reply, String operation, ShardInfo info) {
+        if (!reply.isSuccess()) {
+            throw new RuntimeException(operation + " failed on shard " + info.shardId(), reply.getException());
+        }
+    }
+
+    private static Message toCommand(BatchOperation operation) {
+        switch (operation.type()) {
+            case "PUT":
+                return new PutCommand(operation.key(), operation.value());
+            case "DELETE":
+                return new DeleteCommand(operation.key());
+            default:
+                throw new IllegalArgumentException("Unsupported batch operation: " + operation.type());
+        }
+    }
+
+    private static RaftPeerId anyReplica(ShardInfo info) {
+        String node = info.nodes().get(ThreadLocalRandom.current().nextInt(info.nodes().size()));
+        return RaftPeerId.valueOf(node.split(":", 3)[0]);
+    }
+
+    private static List<RaftPeer> toPeers(List<String> nodes) {
+        return nodes.stream()
+                .map(addr -> {
+                    String[] parts = addr.split(":", 3);
+                    return RaftPeer.newBuilder()
+                            .setId(parts[0])
+                            .setAddress(parts[1] + ":" + parts[2])
+                            .build();
+                })
+                .collect(Collectors.toList());
+    }
+}
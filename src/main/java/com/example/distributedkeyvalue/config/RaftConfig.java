@@ -1,8 +1,12 @@
 package com.example.distributedkeyvalue.config;
 
 import com.example.distributedkeyvalue.model.KeyValueStateMachine;
+import com.example.distributedkeyvalue.model.store.KeyValueStore;
 import org.apache.ratis.conf.RaftProperties;
 import org.apache.ratis.grpc.GrpcConfigKeys;
+import org.apache.ratis.protocol.ClientId;
+import org.apache.ratis.protocol.GroupManagementRequest;
+import org.apache.ratis.protocol.RaftClientReply;
 import org.apache.ratis.protocol.RaftGroup;
 import org.apache.ratis.protocol.RaftGroupId;
 import org.apache.ratis.protocol.RaftPeer;
@@ -10,33 +14,66 @@ import org.apache.ratis.protocol.RaftPeerId;
 import org.apache.ratis.server.RaftServer;
 import org.apache.ratis.server.RaftServerConfigKeys;
 import org.apache.ratis.util.NetUtils;
+import org.apache.ratis.util.SizeInBytes;
 import org.apache.ratis.util.TimeDuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class RaftConfig {
+    private static final Logger log = LoggerFactory.getLogger(RaftConfig.class);
     private static final String RAFT_GROUP_ID = "kv-store-raft-group";
+    private static final long ELECTION_TIMEOUT_MIN_MS = 5000;
+    // A follower only starts an election after ELECTION_TIMEOUT_MIN_MS without hearing from the
+    // leader, so a leader acked by a majority within this window is still the only leader.
+    // The margin covers the round trip (acks are timed on receipt) and clock rate drift.
+    public static final long LEADER_LEASE_MS = ELECTION_TIMEOUT_MIN_MS * 4 / 5;
 
     // In RaftConfig.java
     public static RaftGroup getRaftGroup(String shardId, List<RaftPeer> peers) {
         // Use shardId to create unique group ID
         UUID clusterId = UUID.nameUUIDFromBytes(shardId.getBytes(StandardCharsets.UTF_8));
-        System.out.println("Raft group ID: " + clusterId + " for shard: " + shardId);
+        log.debug("Raft group ID: {} for shard: {}", clusterId, shardId);
         return RaftGroup.valueOf(RaftGroupId.valueOf(clusterId), peers);
     }
 
     public static RaftServer.Builder newRaftServer(String shardId, String nodeId, List<String> peerAddresses, File storageDir) {
+        return newRaftServer(shardId, nodeId, peerAddresses, storageDir, "heap");
+    }
+
+    public static RaftServer.Builder newRaftServer(String shardId, String nodeId, List<String> peerAddresses, File storageDir,
+                                                   String storeEngine) {
+        return newRaftServer(List.of(shardId), nodeId, peerAddresses, storageDir, storeEngine);
+    }
+
+    /**
+     * A server for the first of shardIds; once it is started, {@link #addGroups} adds the rest.
+     * Every shard's group has the same peers and shares the server's port, threads and storage
+     * root, but gets its own state machine, store and directory under storageDir.
+     */
+    public static RaftServer.Builder newRaftServer(List<String> shardIds, String nodeId, List<String> peerAddresses,
+                                                   File storageDir, String storeEngine) {
+        return newRaftServer(shardIds, nodeId, peerAddresses, storageDir, storeEngine, KeyValueStateMachine.Settings.DEFAULTS);
+    }
+
+    public static RaftServer.Builder newRaftServer(List<String> shardIds, String nodeId, List<String> peerAddresses,
+                                                   File storageDir, String storeEngine,
+                                                   KeyValueStateMachine.Settings settings) {
         final RaftProperties props = new RaftProperties();
 
         // Set longer timeouts for Docker environments
-        RaftServerConfigKeys.Rpc.setTimeoutMin(props, TimeDuration.valueOf(5000, TimeUnit.MILLISECONDS));
+        RaftServerConfigKeys.Rpc.setTimeoutMin(props, TimeDuration.valueOf(ELECTION_TIMEOUT_MIN_MS, TimeUnit.MILLISECONDS));
         RaftServerConfigKeys.Rpc.setTimeoutMax(props, TimeDuration.valueOf(15000, TimeUnit.MILLISECONDS));
         RaftServerConfigKeys.LeaderElection.setLeaderStepDownWaitTime(props, TimeDuration.valueOf(30, TimeUnit.SECONDS));
 
@@ -44,31 +81,22 @@ public class RaftConfig {
         RaftServerConfigKeys.Snapshot.setAutoTriggerEnabled(props, true);
         RaftServerConfigKeys.Snapshot.setAutoTriggerThreshold(props, 500);
         RaftServerConfigKeys.Snapshot.setCreationGap(props, 50);
+        // Only the newest snapshots are needed for restart and follower catch-up
+        RaftServerConfigKeys.Snapshot.setRetentionFileNum(props, 2);
 
         props.set("ratis.server.leader.heartbeat.interval", "2000");
 
+        // sendReadOnly confirms leadership (ReadIndex) instead of trusting a possibly deposed leader;
+        // lease and stale reads skip that round trip explicitly
+        RaftServerConfigKeys.Read.setOption(props, RaftServerConfigKeys.Read.Option.LINEARIZABLE);
+
 
 
         RaftServerConfigKeys.Rpc.setRequestTimeout(props, TimeDuration.valueOf(60, TimeUnit.SECONDS));
 
 
 
-        // Parse peers into id, host, port
-        List<RaftPeer> peers = peerAddresses.stream()
-                .map(addr -> {
-                    String[] parts = addr.split(":", 3);
-                    if (parts.length != 3) {
-                        throw new IllegalArgumentException("Invalid peer format: " + addr);
-                    }
-                    String id = parts[0];
-                    String host = parts[1];
-                    int port = Integer.parseInt(parts[2]);
-                    return RaftPeer.newBuilder()
-                            .setId(id)
-                            .setAddress(host + ":" + port)
-                            .build();
-                })
-                .collect(Collectors.toList());
+        List<RaftPeer> peers = parsePeers(peerAddresses);
 
         // Set the bind address to 0.0.0.0
         GrpcConfigKeys.Server.setHost(props, "0.0.0.0");
@@ -85,12 +113,69 @@ public class RaftConfig {
         return RaftServer.newBuilder()
                 .setServerId(RaftPeerId.valueOf(nodeId))
                 .setProperties(props)
-                .setGroup(getRaftGroup(shardId, peers))
-                .setStateMachine(new KeyValueStateMachine());
+                .setGroup(getRaftGroup(shardIds.get(0), peers))
+                .setStateMachineRegistry(groupId -> new KeyValueStateMachine(
+                        shardFor(groupId, shardIds), nodeId, KeyValueStore.create(storeEngine), settings));
+    }
+
+    // Adds the groups of the shards the started server does not host yet; on a restart the
+    // groups found in its storage directory are already back
+    public static void addGroups(RaftServer server, List<String> shardIds, List<String> peerAddresses) throws IOException {
+        final Set<RaftGroupId> hosted = new HashSet<>();
+        server.getGroupIds().forEach(hosted::add);
+        final List<RaftPeer> peers = parsePeers(peerAddresses);
+        for (String shardId : shardIds) {
+            if (hosted.contains(getRaftGroupId(shardId))) {
+                continue;
+            }
+            RaftClientReply reply = server.groupManagement(GroupManagementRequest.newAdd(
+                    ClientId.randomId(), server.getId(), 0, getRaftGroup(shardId, peers)));
+            if (!reply.isSuccess()) {
+                throw new IOException("Failed to add the group of shard " + shardId, reply.getException());
+            }
+        }
+    }
+
+    private static String shardFor(RaftGroupId groupId, List<String> shardIds) {
+        for (String shardId : shardIds) {
+            if (getRaftGroupId(shardId).equals(groupId)) {
+                return shardId;
+            }
+        }
+        // A group left in storage by a shard no longer configured: its data is kept and replicated
+        System.err.println("No configured shard for Raft group " + groupId + " found in storage");
+        return groupId.getUuid().toString();
+    }
+
+    // Peers as id:host:port
+    private static List<RaftPeer> parsePeers(List<String> peerAddresses) {
+        return peerAddresses.stream()
+                .map(addr -> {
+                    String[] parts = addr.split(":", 3);
+                    if (parts.length != 3) {
+                        throw new IllegalArgumentException("Invalid peer format: " + addr);
+                    }
+                    String id = parts[0];
+                    String host = parts[1];
+                    int port = Integer.parseInt(parts[2]);
+                    return RaftPeer.newBuilder()
+                            .setId(id)
+                            .setAddress(host + ":" + port)
+                            .build();
+                })
+                .collect(Collectors.toList());
+    }
+
+    // Client side settings shared by KeyValueService and KeyValueClient
+    public static RaftProperties newClientProperties() {
+        final RaftProperties properties = new RaftProperties();
+        GrpcConfigKeys.setMessageSizeMax(properties, SizeInBytes.valueOf("64MB"));
+        GrpcConfigKeys.setFlowControlWindow(properties, SizeInBytes.valueOf("4MB"));
+        return properties;
     }
 
     public static RaftGroupId getRaftGroupId(String shardId) {
-        UUID clusterId = UUID.nameUUIDFromBytes(shardId.getBytes());
+        UUID clusterId = UUID.nameUUIDFromBytes(shardId.getBytes(StandardCharsets.UTF_8));
         return RaftGroupId.valueOf(clusterId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,27 @@
+package com.example.distributedkeyvalue.config;
+
+import com.example.distributedkeyvalue.service.ReadCache;
+import org.apache.ratis.server.RaftServer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+// Hot-key cache for stale reads; on a node it also follows the local state machines' writes
+@Configuration
+public class ReadCacheConfig {
+
+    @Bean
+    public ReadCache readCache(@Value("${kv.cache.max-bytes:67108864}") long maxBytes,
+                               @Value("${kv.cache.max-staleness-ms:1000}") long maxStalenessMs,
+                               ObjectProvider<RaftServer> raftServer) {
+        ReadCache cache = new ReadCache("kv.reads", maxBytes, Duration.ofMillis(maxStalenessMs));
+        RaftServer server = raftServer.getIfAvailable();  // Only present on nodes
+        if (server != null) {
+            cache.watch(server);
+        }
+        return cache;
+    }
+}
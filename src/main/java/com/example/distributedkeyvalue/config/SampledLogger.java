@@ -0,0 +1,28 @@
+package com.example.distributedkeyvalue.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Debug logging for lines written on every request: only one call in {@code kv.log.sample-every}
+ * (default 100) is logged, and the message is not even built unless debug is on for the class.
+ */
+public final class SampledLogger {
+    private static final int SAMPLE_EVERY = Math.max(1, Integer.getInteger("kv.log.sample-every", 100));
+
+    private final Logger logger;
+    private final AtomicLong calls = new AtomicLong();
+
+    public SampledLogger(Class<?> owner) {
+        this.logger = LoggerFactory.getLogger(owner);
+    }
+
+    public void debug(Supplier<String> message) {
+        if (logger.isDebugEnabled() && calls.getAndIncrement() % SAMPLE_EVERY == 0) {
+            logger.debug(message.get());
+        }
+    }
+}
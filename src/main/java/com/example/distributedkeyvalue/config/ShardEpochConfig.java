@@ -0,0 +1,53 @@
+package com.example.distributedkeyvalue.config;
+
+import com.example.distributedkeyvalue.service.ShardMapCache;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// Compares the shard-map epoch the load balancer routed with against the node's own copy
+@Configuration
+@Profile("node")
+public class ShardEpochConfig implements WebMvcConfigurer {
+    private final ShardMapCache shardMapCache;
+
+    public ShardEpochConfig(ShardMapCache shardMapCache) {
+        this.shardMapCache = shardMapCache;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+                String header = request.getHeader(ShardMapCache.EPOCH_HEADER);
+                if (header == null) {
+                    return true;
+                }
+                long requestEpoch;
+                try {
+                    requestEpoch = Long.parseLong(header);
+                } catch (NumberFormatException e) {
+                    response.setStatus(HttpStatus.BAD_REQUEST.value());
+                    response.getWriter().write("Malformed shard map epoch " + header);
+                    return false;
+                }
+                long localEpoch = shardMapCache.epoch();
+                if (requestEpoch < localEpoch) {
+                    // The caller routed with an outdated ring and may have picked the wrong shard
+                    response.setStatus(HttpStatus.CONFLICT.value());
+                    response.setHeader(ShardMapCache.EPOCH_HEADER, Long.toString(localEpoch));
+                    response.getWriter().write("Stale shard map epoch " + requestEpoch + ", current is " + localEpoch);
+                    return false;
+                }
+                shardMapCache.refreshIfOlderThan(requestEpoch);
+                return true;
+            }
+        }).addPathPatterns("/internal/**");
+    }
+}
@@ -1,16 +1,35 @@
 package com.example.distributedkeyvalue.controller;
 
 import com.example.distributedkeyvalue.config.RaftConfig;
+import com.example.distributedkeyvalue.model.BatchOperation;
+import com.example.distributedkeyvalue.model.BatchResult;
+import com.example.distributedkeyvalue.model.ReadConsistency;
+import com.example.distributedkeyvalue.model.ScanPage;
+import com.example.distributedkeyvalue.model.VersionedValue;
+import com.example.distributedkeyvalue.model.commands.ScanCommand;
 import com.example.distributedkeyvalue.service.KeyValueService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @RequiredArgsConstructor
 @RestController
@@ -19,19 +38,135 @@ import java.util.UUID;
 public class KeyValueController {
     private final KeyValueService keyValueService;
 
+    // Handlers return futures so the servlet thread is released while Raft commits.
+    // Versions travel as ETags: If-Match makes a write conditional on the version, and
+    // If-None-Match: * makes a PUT create-only; a failed condition answers 412.
+    // A body of up to one chunk is read whole and written as one entry; a larger one is
+    // streamed into the log chunk by chunk and never held in memory as a whole.
     @PutMapping("/{key}")
-    public void putKeyValue(@PathVariable String key,@RequestBody String value) throws Exception {
-        keyValueService.put(key, value);
+    public CompletableFuture<ResponseEntity<Void>> putKeyValue(@PathVariable String key, HttpServletRequest request,
+                                                               @RequestParam(required = false) Long ttl,
+                                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws IOException {
+        if (ttl != null && ttl <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "ttl must be a positive number of seconds");
+        }
+        long expectedVersion = expectedVersion(ifMatch, ifNoneMatch);
+        Duration expiry = ttl != null ? Duration.ofSeconds(ttl) : null;
+        InputStream body = request.getInputStream();
+        byte[] head = body.readNBytes(keyValueService.getChunkBytes() + 1);
+        CompletableFuture<Long> write = head.length <= keyValueService.getChunkBytes()
+                ? keyValueService.put(key, new String(head, StandardCharsets.UTF_8), expiry, expectedVersion)
+                : keyValueService.putStream(key, new SequenceInputStream(new ByteArrayInputStream(head), body), expiry,
+                        expectedVersion);
+        return write.thenApply(version -> ResponseEntity.ok().eTag(Long.toString(version)).build());
     }
 
     @GetMapping("/{key}")
-    public String getKeyValue(@PathVariable String key) throws Exception {
-        return keyValueService.get(key);
+    public CompletableFuture<ResponseEntity<String>> getKeyValue(@PathVariable String key,
+                                                                 @RequestParam(defaultValue = "linearizable") String consistency) {
+        try {
+            // A missing key is still an empty 200, just without an ETag
+            return keyValueService.getVersioned(key, ReadConsistency.fromParam(consistency))
+                    .thenApply(value -> value == null
+                            ? ResponseEntity.ok("")
+                            : ResponseEntity.ok().eTag(Long.toString(value.version())).body(value.value()));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
     }
 
     @DeleteMapping("/{key}")
-    public void deleteKeyValue(@PathVariable String key) throws Exception {
-        keyValueService.delete(key);
+    public CompletableFuture<Void> deleteKeyValue(@PathVariable String key,
+                                                  @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return keyValueService.delete(key, expectedVersion(ifMatch, null));
+    }
+
+    // Counters and appends are applied by the state machine in one Raft commit; the reply is the
+    // key's new value, with its version as the ETag
+    @PostMapping("/{key}/incr")
+    public CompletableFuture<ResponseEntity<String>> increment(@PathVariable String key,
+                                                              @RequestParam(defaultValue = "1") long delta) {
+        return keyValueService.increment(key, delta).thenApply(KeyValueController::withETag);
+    }
+
+    @PostMapping("/{key}/decr")
+    public CompletableFuture<ResponseEntity<String>> decrement(@PathVariable String key,
+                                                              @RequestParam(defaultValue = "1") long delta) {
+        if (delta == Long.MIN_VALUE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "delta is out of range");
+        }
+        return keyValueService.increment(key, -delta).thenApply(KeyValueController::withETag);
+    }
+
+    @PostMapping("/{key}/append")
+    public CompletableFuture<ResponseEntity<String>> append(@PathVariable String key, @RequestBody String value) {
+        return keyValueService.append(key, value).thenApply(KeyValueController::withETag);
+    }
+
+    private static ResponseEntity<String> withETag(VersionedValue value) {
+        return ResponseEntity.ok().eTag(Long.toString(value.version())).body(value.value());
+    }
+
+    private static long expectedVersion(String ifMatch, String ifNoneMatch) {
+        if (ifNoneMatch != null) {
+            if (ifMatch != null || !ifNoneMatch.trim().equals("*")) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Only If-None-Match: * is supported, without If-Match");
+            }
+            return VersionedValue.ABSENT;
+        }
+        if (ifMatch == null) {
+            return VersionedValue.ANY;
+        }
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            tag = tag.substring(1, tag.length() - 1);
+        }
+        try {
+            long version = Long.parseLong(tag);
+            if (version > 0) {
+                return version;
+            }
+        } catch (NumberFormatException e) {
+            // Falls through to the error below
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "If-Match must be a single version ETag, got " + ifMatch);
+    }
+
+    @PostMapping("/batch")
+    public CompletableFuture<List<BatchResult>> batch(@RequestBody List<BatchOperation> operations) {
+        try {
+            BatchOperation.validate(operations);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        return keyValueService.batch(operations);
+    }
+
+    @PostMapping("/mget")
+    public CompletableFuture<Map<String, String>> multiGet(@RequestBody List<String> keys) {
+        return keyValueService.multiGet(keys);
+    }
+
+    // One page of a prefix or range scan; the load balancer names the shard and merges the pages
+    // of all shards, without a shard this node merges them itself
+    @GetMapping
+    public CompletableFuture<ScanPage> scan(@RequestParam(required = false) String shard,
+                                           @RequestParam(required = false) String prefix,
+                                           @RequestParam(required = false) String start,
+                                           @RequestParam(required = false) String end,
+                                           @RequestParam(required = false) String token,
+                                           @RequestParam(defaultValue = "100") int limit,
+                                           @RequestParam(defaultValue = "linearizable") String consistency) {
+        try {
+            return keyValueService.scan(shard, ScanCommand.of(prefix, start, end, token, limit),
+                    ReadConsistency.fromParam(consistency));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
     }
 
     @Scheduled(fixedRate = 10000)
@@ -1,7 +1,10 @@
 package com.example.distributedkeyvalue.controller;
 
 import com.example.distributedkeyvalue.config.RaftConfig;
+import com.example.distributedkeyvalue.model.KeyValueStateMachine;
 import org.apache.ratis.protocol.RaftGroupId;
+import org.apache.ratis.protocol.RaftGroupMemberId;
+import org.apache.ratis.protocol.RaftPeerId;
 import org.apache.ratis.server.RaftServer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,16 +12,26 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.reactive.function.client.WebClient;
 
 import java.io.IOException;
+import java.util.Map;
+
 @Profile("node")
 @RestController
 public class LeaderController {
     private final RaftServer raftServer;
+    private final WebClient webClient = WebClient.create();
+
+    @Value("${RAFT_NODE_ID:default-node}")
+    private String nodeId;
 
     @Autowired(required = false)  // Makes dependency optional
     public LeaderController(RaftServer raftServer) {
         this.raftServer = raftServer;
+        if (raftServer != null) {
+            registerLeaderChangeListeners();
+        }
     }
 
     @GetMapping("/leader/{shardId}")
@@ -33,4 +46,30 @@ public class LeaderController {
             return "ERROR";
         }
     }
-}
\ No newline at end of file
+
+    // Push leadership to the load balancer as soon as this node wins an election in one of its shards,
+    // so it does not have to probe every node before each write
+    private void registerLeaderChangeListeners() {
+        for (RaftGroupId groupId : raftServer.getGroupIds()) {
+            try {
+                KeyValueStateMachine stateMachine = (KeyValueStateMachine) raftServer.getDivision(groupId).getStateMachine();
+                String shardId = stateMachine.getShardId();
+                stateMachine.setLeaderChangeListener((memberId, newLeaderId) -> onLeaderChanged(shardId, memberId, newLeaderId));
+            } catch (IOException e) {
+                System.err.println("Failed to watch leader changes for group " + groupId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void onLeaderChanged(String shardId, RaftGroupMemberId memberId, RaftPeerId newLeaderId) {
+        if (!memberId.getPeerId().equals(newLeaderId)) {
+            return; // The new leader reports itself
+        }
+        webClient.post()
+                .uri("http://load-balancer:8080/api/v1/health/leader")
+                .bodyValue(Map.of("shardId", shardId, "nodeId", "http://" + nodeId + ":8080"))
+                .retrieve()
+                .bodyToMono(Void.class)
+                .subscribe(ok -> { }, e -> System.err.println("Failed to report leadership: " + e.getMessage()));
+    }
+}
@@ -1,47 +1,119 @@
 package com.example.distributedkeyvalue.controller;
 
+import com.example.distributedkeyvalue.model.ShardAssignment;
 import com.example.distributedkeyvalue.model.ShardInfo;
+import com.example.distributedkeyvalue.model.ShardMap;
 import com.example.distributedkeyvalue.model.ShardRegistrationRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
-
-import static java.util.Objects.hash;
 
 // ShardManagerController.java
 @Profile("manager")
 @RestController
 @RequestMapping("/shard-manager")
 public class ShardManagerController {
-    private final TreeMap<Long, String> shardRing = new TreeMap<>(); // Consistent hashing ring
-    private final Map<String, List<String>> shardToNodes = new ConcurrentHashMap<>(); // Shard ID → Raft nodes
+    // Immutable consistent hashing ring. Readers use whatever snapshot is current;
+    // registrations build a new one and swap it in (copy-on-write).
+    private volatile ShardMap shardMap;
+    // The ring survives a restart here, so its epoch never goes back: caches only move forward
+    // and would otherwise keep their old ring for good. Null keeps it in memory only.
+    private final Path mapFile;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public ShardManagerController(int virtualNodes) {
+        this(virtualNodes, null);
+    }
+
+    @Autowired
+    public ShardManagerController(@Value("${shard.ring.virtual-nodes:128}") int virtualNodes,
+                                  @Value("${shard.map.file:shard-manager/shard-map.json}") Path mapFile) {
+        this.mapFile = mapFile;
+        try {
+            this.shardMap = mapFile != null && Files.exists(mapFile)
+                    ? mapper.readValue(mapFile.toFile(), ShardMap.class)
+                    : ShardMap.empty(virtualNodes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the shard map from " + mapFile, e);
+        }
+    }
 
     @GetMapping("/shard/{key}")
     public ResponseEntity<ShardInfo> getShardForKey(@PathVariable String key) {
-        if (shardRing.isEmpty()) {
+        ShardMap map = shardMap;
+        if (!map.hasShards()) {
             return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
                     .body(new ShardInfo("NO_SHARDS", List.of()));
         }
+        return ResponseEntity.ok(map.shardFor(key));
+    }
 
-        long hash = hash(key); // e.g., SHA-256
-        Map.Entry<Long, String> entry = shardRing.ceilingEntry(hash);
-        String shardId = entry != null ? entry.getValue() : shardRing.firstEntry().getValue();
-        List<String> nodes = shardToNodes.get(shardId);
-        return ResponseEntity.ok(new ShardInfo(shardId, nodes));
+    // Resolves many keys in one call and groups them by owning shard
+    @PostMapping("/shards/lookup")
+    public ResponseEntity<List<ShardAssignment>> getShardsForKeys(@RequestBody List<String> keys) {
+        ShardMap map = shardMap;
+        if (!map.hasShards()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(List.of());
+        }
+        return ResponseEntity.ok(map.assign(keys));
     }
 
+    // Full ring, so the load balancer and nodes can resolve keys without calling us
+    @GetMapping("/shard-map")
+    public ShardMap getShardMap() {
+        return shardMap;
+    }
+
+    @GetMapping("/shard-map/epoch")
+    public long getShardMapEpoch() {
+        return shardMap.epoch();
+    }
 
+    // Synchronized so concurrent registrations cannot lose each other's copy
     @PostMapping("/register-shard")
-    public void registerShard(@RequestBody ShardRegistrationRequest request) {
-        shardToNodes.put(request.shardId(), request.raftNodes());
-        for (String node : request.raftNodes()) {
-            long hash = hash(node + request.shardId()); // Virtual node
-            shardRing.put(hash, request.shardId());
+    public synchronized void registerShard(@RequestBody ShardRegistrationRequest request) {
+        ShardMap current = shardMap;
+        // Every replica of a shard registers on startup; only real changes bump the epoch
+        if (!request.raftNodes().equals(current.shardToNodes().get(request.shardId()))) {
+            ShardMap next = current.withShard(request.shardId(), request.raftNodes());
+            save(next);
+            shardMap = next;
+        }
+    }
+
+    // Written to a temporary file, synced and renamed over the old one, so a crash leaves either
+    private void save(ShardMap map) {
+        if (mapFile == null) {
+            return;
+        }
+        try {
+            Path directory = mapFile.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, mapFile.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.wrap(mapper.writeValueAsBytes(map)));
+                    channel.force(true);
+                }
+                Files.move(temp, mapFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save the shard map to " + mapFile, e);
         }
     }
 }
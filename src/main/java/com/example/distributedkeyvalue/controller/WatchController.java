@@ -0,0 +1,40 @@
+package com.example.distributedkeyvalue.controller;
+
+import com.example.distributedkeyvalue.model.WatchEvent;
+import com.example.distributedkeyvalue.service.WatchService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+
+// Server-sent events of the changes this node's replica applies; the event id is the Raft index.
+// from is inclusive; a reconnect's Last-Event-ID wins over it and resumes strictly after that id
+@RequiredArgsConstructor
+@RestController
+@Profile("node")
+@RequestMapping("/internal/api/v1/watch")
+public class WatchController {
+    private final WatchService watchService;
+
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<WatchEvent>> watch(@RequestParam(required = false) String shard,
+                                                   @RequestParam(required = false) String key,
+                                                   @RequestParam(required = false) String prefix,
+                                                   @RequestParam(required = false) Long from,
+                                                   @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        try {
+            Long fromIndex = lastEventId != null && !lastEventId.isBlank() ? Long.parseLong(lastEventId.trim()) + 1 : from;
+            return watchService.watch(shard, key, prefix, fromIndex);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+}
@@ -1,9 +1,9 @@
 package com.example.distributedkeyvalue.initializer;
 
 import com.example.distributedkeyvalue.config.RaftConfig;
+import com.example.distributedkeyvalue.model.KeyValueStateMachine;
 import com.example.distributedkeyvalue.model.ShardRegistrationRequest;
 import org.apache.ratis.server.RaftServer;
-import org.apache.tomcat.util.http.fileupload.FileUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
@@ -17,12 +17,7 @@ import org.springframework.web.client.RestTemplate;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -38,8 +33,21 @@ public class RaftInitializer {
     @Value("${RAFT_PEERS:default-node:localhost:9870}")
     private String peers;
 
-    @Value("${SHARD_ID:default-shard}")
-    private String shardId;
+    // Shards this node replicates, one Raft group each; SHARD_ID alone still works for one
+    @Value("${SHARD_IDS:${SHARD_ID:default-shard}}")
+    private List<String> shardIds;
+
+    @Value("${kv.store.engine:heap}")
+    private String storeEngine;
+
+    @Value("${kv.compression.threshold:4096}")
+    private int compressionThreshold;
+
+    @Value("${kv.watch.buffer:16384}")
+    private int watchBuffer;
+
+    @Value("${kv.upload.timeout-ms:600000}")
+    private long uploadTimeoutMs;
 
     @Autowired
     private RestTemplate restTemplate;
@@ -50,9 +58,12 @@ public class RaftInitializer {
         // Only initialize Raft server here
         List<String> peerAddresses = Arrays.asList(peers.split(","));
         File storageDir = new File("raft-storage/" + nodeId);
-        raftServer = RaftConfig.newRaftServer(shardId, nodeId, peerAddresses, storageDir).build();
+        KeyValueStateMachine.Settings settings = new KeyValueStateMachine.Settings(compressionThreshold, watchBuffer, uploadTimeoutMs);
+        raftServer = RaftConfig.newRaftServer(shardIds, nodeId, peerAddresses, storageDir, storeEngine, settings).build();
         raftServer.start();
-        System.out.println("Raft server started on node " + nodeId);
+        // Before the bean is handed out, so everything that iterates the groups sees all of them
+        RaftConfig.addGroups(raftServer, shardIds, peerAddresses);
+        System.out.println("Raft server started on node " + nodeId + " for shards " + shardIds);
     }
 
     @Bean
@@ -71,11 +82,14 @@ public class RaftInitializer {
                             })
                             .collect(Collectors.toList());
 
-                    ShardRegistrationRequest request = new ShardRegistrationRequest(shardId, restNodes, raftNodes);
-                    try {
-                        restTemplate.postForEntity("http://shard-manager:8080/shard-manager/register-shard", request, Void.class);
-                    } catch (ResourceAccessException e) {
-                        System.err.println("Warning: Failed to register with shard manager - " + e.getMessage());
+                    // Each group is a shard of its own on the ring
+                    for (String shardId : shardIds) {
+                        ShardRegistrationRequest request = new ShardRegistrationRequest(shardId, restNodes, raftNodes);
+                        try {
+                            restTemplate.postForEntity("http://shard-manager:8080/shard-manager/register-shard", request, Void.class);
+                        } catch (ResourceAccessException e) {
+                            System.err.println("Warning: Failed to register shard " + shardId + " with shard manager - " + e.getMessage());
+                        }
                     }
                     break;
                 } catch (Exception e) {
@@ -93,25 +107,12 @@ public class RaftInitializer {
 
     @PreDestroy
     public void destroy() throws Exception {
+        // The Raft log, snapshots and store files are kept so the node resumes from disk on restart
         if (raftServer != null) {
             raftServer.close();
-            cleanStorageDirectory();
         }
     }
 
-    private void cleanStorageDirectory() throws IOException {
-        Path path = Paths.get("raft-storage", nodeId);
-        Files.walk(path)
-                .sorted(Comparator.reverseOrder())
-                .forEach(p -> {
-                    try {
-                        Files.deleteIfExists(p);
-                    } catch (IOException e) {
-                        System.err.println("Failed to delete: " + p);
-                    }
-                });
-    }
-
     @Bean
     public RaftServer raftServer() {
         return raftServer;
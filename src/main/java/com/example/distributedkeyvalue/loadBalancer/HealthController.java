@@ -4,7 +4,9 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
@@ -25,18 +27,40 @@ public class HealthController {
         String status = payload.get("status");
         boolean isHealthy = "healthy".equals(status);
 
+        String shards = payload.get("shards");
         loadBalancer.nodes.compute(nodeId, (k, existingStatus) -> {
-            if (existingStatus == null) {
+            LoadBalancer.NodeStatus nodeStatus = existingStatus;
+            if (nodeStatus == null) {
                 // New node: Initialize with status from payload
-                return new LoadBalancer.NodeStatus(isHealthy, new AtomicInteger(0));
+                nodeStatus = new LoadBalancer.NodeStatus(isHealthy, new AtomicInteger(0));
             } else {
                 // Existing node: Update health and heartbeat
-                existingStatus.healthy = isHealthy;
-                existingStatus.lastHeartbeat = System.currentTimeMillis();
-                return existingStatus;
+                nodeStatus.healthy = isHealthy;
+                nodeStatus.lastHeartbeat = System.currentTimeMillis();
             }
+            if (shards != null) {
+                nodeStatus.shards = splitShards(shards);
+            }
+            return nodeStatus;
         });
 
+        // Every shard the node leads, comma separated; empty when it leads none
+        String leaderOf = payload.get("leaderOf");
+        if (leaderOf != null) {
+            loadBalancer.updateLeadership(nodeId, splitShards(leaderOf));
+        }
+
+        return ResponseEntity.ok().build();
+    }
+
+    private static Set<String> splitShards(String shards) {
+        return shards.isEmpty() ? Set.of() : Set.copyOf(Arrays.asList(shards.split(",")));
+    }
+
+    // Pushed by a node as soon as it becomes leader of one of its shards
+    @PostMapping("/leader")
+    public ResponseEntity<Void> handleLeaderChange(@RequestBody Map<String, String> payload) {
+        loadBalancer.updateLeader(payload.get("shardId"), payload.get("nodeId"));
         return ResponseEntity.ok().build();
     }
 }
\ No newline at end of file
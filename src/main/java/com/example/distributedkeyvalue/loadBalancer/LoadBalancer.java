@@ -1,5 +1,10 @@
 package com.example.distributedkeyvalue.loadBalancer;
 
+import com.example.distributedkeyvalue.config.SampledLogger;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import lombok.Data;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
@@ -9,21 +14,40 @@ import javax.annotation.PreDestroy;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @Data
 @Component
 public class LoadBalancer {
+    private static final SampledLogger sampledLog = new SampledLogger(LoadBalancer.class);
+
     public final Map<String, NodeStatus> nodes = new ConcurrentHashMap<>();
+    // Shard ID → leader node URL, filled by leadership pushes/heartbeats and lazily by probes
+    private final Map<String, String> leaders = new ConcurrentHashMap<>();
     private final ScheduledExecutorService healthCheckExecutor = Executors.newScheduledThreadPool(1);
 
     private final RestTemplate restTemplate = new RestTemplate();
 
+    private final Timer readSelection = selectionTimer("read");
+    private final Timer writeSelection = selectionTimer("write");
+    // One gauge per known node, re-registered as nodes come and go
+    private final MultiGauge inFlight = MultiGauge.builder("kv.lb.inflight")
+            .description("Requests currently forwarded to a node")
+            .register(Metrics.globalRegistry);
+
     @PostConstruct
     public void init() {
         initializeNodes();
         scheduleStaleNodeCleanup();
     } 
 
+    private static Timer selectionTimer(String op) {
+        return Timer.builder("kv.lb.node.selection")
+                .description("Time to pick the node a request is forwarded to")
+                .tag("op", op)
+                .register(Metrics.globalRegistry);
+    }
+
     private void initializeNodes() {
     }
 
@@ -32,6 +56,8 @@ public class LoadBalancer {
         volatile boolean healthy;
         final AtomicInteger activeConnections;
         volatile long lastHeartbeat;
+        // Shards the node replicates, from its heartbeats; empty until one reports them
+        volatile Set<String> shards = Set.of();
 
         NodeStatus(boolean healthy, AtomicInteger activeConnections) {
             this.healthy = healthy;
@@ -42,33 +68,81 @@ public class LoadBalancer {
 
 
     public String getShardAwareNode(String shardId, boolean isWrite) {
+        final long start = System.nanoTime();
+        try {
+            return selectNode(shardId, isWrite);
+        } finally {
+            (isWrite ? writeSelection : readSelection).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private String selectNode(String shardId, boolean isWrite) {
+        if (isWrite) {
+            String leader = leaders.get(shardId);
+            NodeStatus status = leader != null ? nodes.get(leader) : null;
+            if (status != null && status.healthy) {
+                return leader;
+            }
+            return probeLeader(shardId);
+        }
+
+        sampledLog.debug(() -> "Routing READ for shard " + shardId);
         return nodes.entrySet().stream()
+                .filter(entry -> entry.getValue().healthy &&
+                        servesShard(entry.getKey(), entry.getValue(), shardId)) // Reads can go to any node
+                .min(Comparator.comparingInt(entry -> entry.getValue().activeConnections.get()))
+                .map(Map.Entry::getKey)
+                .orElseThrow(() -> new RuntimeException("No healthy nodes available"));
+    }
+
+    // Slow path when the leader table has no usable entry: ask every node of the shard
+    private String probeLeader(String shardId) {
+        sampledLog.debug(() -> "Probing leader for shard " + shardId);
+        String leader = nodes.entrySet().stream()
+                .filter(entry -> entry.getValue().healthy &&
+                        servesShard(entry.getKey(), entry.getValue(), shardId))
                 .filter(entry -> {
-                    if (!entry.getValue().healthy ||
-                            !extractShardIdFromUrl(entry.getKey()).equals(shardId)) {
-                        return false;
-                    }
-                    if (isWrite) {
-                        // Call LeaderController to check leadership
-                        String leaderStatus = restTemplate.getForObject(
-                                entry.getKey() + "/leader/" + shardId,
-                                String.class
-                        );
-                        System.out.println("Routing " + "WRITE"
-                                + " for shard " + shardId);
-                        return "LEADER".equals(leaderStatus);
-                    }
-
-                    System.out.println("Routing " + "READ"
-                            + " for shard " + shardId);
-                    return true; // Reads can go to any node
+                    // Call LeaderController to check leadership
+                    String leaderStatus = restTemplate.getForObject(
+                            entry.getKey() + "/leader/" + shardId,
+                            String.class
+                    );
+                    return "LEADER".equals(leaderStatus);
                 })
                 .min(Comparator.comparingInt(entry -> entry.getValue().activeConnections.get()))
                 .map(Map.Entry::getKey)
                 .orElseThrow(() -> new RuntimeException("No healthy nodes available"));
+        leaders.put(shardId, leader);
+        return leader;
+    }
+
+    public void updateLeader(String shardId, String nodeUrl) {
+        leaders.put(shardId, nodeUrl);
     }
 
+    // From a heartbeat: the node leads ledShards and no other shard
+    public void updateLeadership(String nodeUrl, Set<String> ledShards) {
+        ledShards.forEach(shardId -> leaders.put(shardId, nodeUrl));
+        leaders.entrySet().removeIf(entry -> entry.getValue().equals(nodeUrl) && !ledShards.contains(entry.getKey()));
+    }
 
+    // Called when a write through the cached leader fails, so the next one re-probes
+    public void invalidateLeader(String shardId, String nodeUrl) {
+        leaders.remove(shardId, nodeUrl);
+    }
+
+    public boolean servesShard(String nodeUrl, String shardId) {
+        return servesShard(nodeUrl, nodeUrl == null ? null : nodes.get(nodeUrl), shardId);
+    }
+
+    // A node hosting several shards lists them in its heartbeats; one that does not yet is
+    // taken to serve the single shard its host name starts with
+    private boolean servesShard(String nodeUrl, NodeStatus status, String shardId) {
+        if (status != null && !status.shards.isEmpty()) {
+            return status.shards.contains(shardId);
+        }
+        return extractShardIdFromUrl(nodeUrl).equals(shardId);
+    }
 
     public String extractShardIdFromUrl(String nodeUrl) {
         // Example: Extract "shard1" from "http://shard1-node1:8080"
@@ -103,12 +177,22 @@ public class LoadBalancer {
         nodes.entrySet().removeIf(entry ->
                 (now - entry.getValue().lastHeartbeat) > 30_000 // 30s → from 15s
         );
+        leaders.values().removeIf(node -> !nodes.containsKey(node));
     }
+
+    private void publishInFlightGauges() {
+        inFlight.register(nodes.entrySet().stream()
+                .map(entry -> MultiGauge.Row.of(Tags.of("node", entry.getKey()),
+                        entry.getValue().activeConnections, AtomicInteger::get))
+                .collect(Collectors.toList()), true);
+    }
+
     private void scheduleStaleNodeCleanup() {
         healthCheckExecutor.scheduleAtFixedRate(
                 this::removeStaleNodes,
                 15, 15, TimeUnit.SECONDS // Adjust interval as needed
         );
+        healthCheckExecutor.scheduleAtFixedRate(this::publishInFlightGauges, 5, 5, TimeUnit.SECONDS);
     }
 
     @PreDestroy
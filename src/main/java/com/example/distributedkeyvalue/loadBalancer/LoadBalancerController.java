@@ -1,143 +1,552 @@
 package com.example.distributedkeyvalue.loadBalancer;
 
+import com.example.distributedkeyvalue.config.SampledLogger;
+import com.example.distributedkeyvalue.model.BatchOperation;
+import com.example.distributedkeyvalue.model.BatchResult;
+import com.example.distributedkeyvalue.model.ReadConsistency;
+import com.example.distributedkeyvalue.model.ScanPage;
+import com.example.distributedkeyvalue.model.ShardAssignment;
 import com.example.distributedkeyvalue.model.ShardInfo;
+import com.example.distributedkeyvalue.model.VersionedValue;
+import com.example.distributedkeyvalue.model.commands.ScanCommand;
+import com.example.distributedkeyvalue.service.ReadCache;
+import com.example.distributedkeyvalue.service.ShardMapCache;
+import jakarta.servlet.http.HttpServletRequest;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.apache.hc.core5.util.TimeValue;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.StreamingHttpOutputMessage;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 
 @RestController
 @Profile("loadbalancer")
 @RequestMapping("/api/v1/keys")
 public class LoadBalancerController {
+    private static final SampledLogger sampledLog = new SampledLogger(LoadBalancerController.class);
+
     private final LoadBalancer loadBalancer;
     private final WebClient webClient;
     private final RestTemplate restTemplate;
+    private final ShardMapCache shardMapCache;
+    // Answers stale reads of hot keys without a hop to a node; fed by every reply that carries an ETag
+    private final ReadCache readCache;
+    // Same setting as the nodes', so a body the nodes would chunk is streamed through
+    @Value("${kv.stream.chunk-bytes:1048576}")
+    private int chunkBytes;
 
-    public LoadBalancerController(LoadBalancer loadBalancer, RestTemplate restTemplate) {
+    public LoadBalancerController(LoadBalancer loadBalancer, RestTemplate restTemplate, ShardMapCache shardMapCache,
+                                  ReadCache readCache) {
         this.loadBalancer = loadBalancer;
         this.webClient = WebClient.create();
         this.restTemplate = restTemplate;
+        this.shardMapCache = shardMapCache;
+        this.readCache = readCache;
     }
 
     @PutMapping("/{key}")
-    public ResponseEntity<Void> putKey(@PathVariable String key, @RequestBody String value) {
-        return processRequest(key, targetNode -> {
-            restTemplate.put(
+    public ResponseEntity<Void> putKey(@PathVariable String key, HttpServletRequest request,
+                                       @RequestParam(required = false) Long ttl,
+                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                       @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws IOException {
+        // Bodies larger than the nodes' chunk size are passed through without being held here
+        InputStream body = request.getInputStream();
+        byte[] head = body.readNBytes(chunkBytes + 1);
+        if (head.length > chunkBytes) {
+            return putStream(key, new SequenceInputStream(new ByteArrayInputStream(head), body),
+                    request.getContentLengthLong(), ttl, ifMatch, ifNoneMatch);
+        }
+        String value = new String(head, StandardCharsets.UTF_8);
+        // TTL in seconds; the node stamps the deadline when it proposes the write
+        return processRequest(key, true, targetNode -> {
+            HttpHeaders headers = epochHeaders();
+            copyIfPresent(headers, HttpHeaders.IF_MATCH, ifMatch);
+            copyIfPresent(headers, HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+            ResponseEntity<Void> response = restTemplate.exchange(
+                    targetNode + "/internal/api/v1/keys/" + key + (ttl != null ? "?ttl=" + ttl : ""),
+                    HttpMethod.PUT,
+                    new HttpEntity<>(value, headers),
+                    Void.class
+            );
+            // The ETag carries the key's new version
+            offer(key, value, response.getHeaders().getETag());
+            return ResponseEntity.ok().eTag(response.getHeaders().getETag()).build();
+        });
+    }
+
+    // The body can only be sent once, so unlike other writes this is not routed again after a
+    // shard epoch 409; the map is refreshed and the client told to retry
+    private ResponseEntity<Void> putStream(String key, InputStream body, long contentLength, Long ttl,
+                                           String ifMatch, String ifNoneMatch) {
+        try {
+            return routeRequest(key, true, true, targetNode -> {
+                String eTag = restTemplate.execute(
+                        targetNode + "/internal/api/v1/keys/" + key + (ttl != null ? "?ttl=" + ttl : ""),
+                        HttpMethod.PUT,
+                        request -> {
+                            HttpHeaders headers = request.getHeaders();
+                            headers.addAll(epochHeaders());
+                            copyIfPresent(headers, HttpHeaders.IF_MATCH, ifMatch);
+                            copyIfPresent(headers, HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+                            headers.setContentType(MediaType.TEXT_PLAIN);
+                            if (contentLength >= 0) {
+                                headers.setContentLength(contentLength);
+                            }
+                            // Written straight to the connection; getBody() would buffer all of it
+                            ((StreamingHttpOutputMessage) request).setBody(body::transferTo);
+                        },
+                        response -> response.getHeaders().getETag());
+                readCache.invalidate(key);
+                return ResponseEntity.ok().eTag(eTag).build();
+            });
+        } catch (HttpClientErrorException.Conflict e) {
+            try {
+                shardMapCache.refresh();
+            } catch (Exception refreshError) {
+                // Still worth a retry; the next request refreshes again
+            }
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shard map is changing, retry later", e);
+        }
+    }
+
+    @GetMapping("/{key}")
+    public ResponseEntity<String> getKey(@PathVariable String key,
+                                         @RequestParam(defaultValue = "linearizable") String consistency) {
+        ReadConsistency level;
+        try {
+            level = ReadConsistency.fromParam(consistency);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        if (level == ReadConsistency.STALE) {
+            VersionedValue cached = readCache.get(key);
+            if (cached != null) {
+                return ResponseEntity.ok().eTag(Long.toString(cached.version())).body(cached.value());
+            }
+        }
+        // Stale reads spread over every replica; the others are answered by the leader
+        return processRequest(key, false, level.needsLeader(), targetNode -> {
+            ResponseEntity<String> response = restTemplate.exchange(
+                    targetNode + "/internal/api/v1/keys/" + key + "?consistency=" + level.name().toLowerCase(Locale.ROOT),
+                    HttpMethod.GET,
+                    new HttpEntity<>(epochHeaders()),
+                    String.class
+            );
+            offer(key, response.getBody(), response.getHeaders().getETag());
+            return ResponseEntity.ok().eTag(response.getHeaders().getETag()).body(response.getBody());
+        });
+    }
+
+    @PostMapping("/{key}/incr")
+    public ResponseEntity<String> increment(@PathVariable String key, @RequestParam(defaultValue = "1") long delta) {
+        return update(key, "incr?delta=" + delta, null);
+    }
+
+    @PostMapping("/{key}/decr")
+    public ResponseEntity<String> decrement(@PathVariable String key, @RequestParam(defaultValue = "1") long delta) {
+        return update(key, "decr?delta=" + delta, null);
+    }
+
+    @PostMapping("/{key}/append")
+    public ResponseEntity<String> append(@PathVariable String key, @RequestBody String value) {
+        return update(key, "append", value);
+    }
+
+    // POSTs, which the HTTP client never retries on its own: repeating an increment or append that
+    // did commit would apply it twice. Only a shard epoch 409, answered before anything is applied,
+    // is routed again.
+    private ResponseEntity<String> update(String key, String operation, String body) {
+        return processRequest(key, true, targetNode -> {
+            ResponseEntity<String> response = restTemplate.exchange(
+                    targetNode + "/internal/api/v1/keys/" + key + "/" + operation,
+                    HttpMethod.POST,
+                    new HttpEntity<>(body, epochHeaders()),
+                    String.class
+            );
+            offer(key, response.getBody(), response.getHeaders().getETag());
+            return ResponseEntity.ok().eTag(response.getHeaders().getETag()).body(response.getBody());
+        });
+    }
+
+    public boolean isNodeInShard(String nodeUrl, String expectedShardId) {
+        return loadBalancer.servesShard(nodeUrl, expectedShardId);
+    }
+
+
+    @DeleteMapping("/{key}")
+    public ResponseEntity<Void> deleteKey(@PathVariable String key,
+                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return processRequest(key, true, targetNode -> {
+            HttpHeaders headers = epochHeaders();
+            copyIfPresent(headers, HttpHeaders.IF_MATCH, ifMatch);
+            restTemplate.exchange(
                     targetNode + "/internal/api/v1/keys/" + key,
-                    value
+                    HttpMethod.DELETE,
+                    new HttpEntity<>(headers),
+                    Void.class
             );
+            readCache.invalidate(key);
             return ResponseEntity.ok().build();
         });
     }
 
-    @GetMapping("/{key}")
-    public String getKey(@PathVariable String key) {
-        // Retrieve the shard info from the shard manager
-        ShardInfo shardInfo;
+    @PostMapping("/batch")
+    public List<BatchResult> batch(@RequestBody List<BatchOperation> operations) {
         try {
-            shardInfo = webClient.get()
-                    .uri("http://shard-manager:8080/shard-manager/shard/{key}", key)
-                    .retrieve()
-                    .bodyToMono(ShardInfo.class)
-                    .block(Duration.ofSeconds(2));
-            System.out.println("[LB] GET shardinfo lwla: " + shardInfo.shardId());
+            BatchOperation.validate(operations);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
+        BatchResult[] results = new BatchResult[operations.size()];
+        List<Integer> conflicted = routeBatch(operations,
+                IntStream.range(0, operations.size()).boxed().collect(Collectors.toList()), results);
+        if (!conflicted.isEmpty()) {
+            // Only the shards that answered 409 applied nothing; the others have committed and
+            // must not see their operations again
+            try {
+                shardMapCache.refresh();
+            } catch (Exception refreshError) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shard manager is unavailable", refreshError);
+            }
+            if (!routeBatch(operations, conflicted, results).isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shard map is changing, retry later");
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    // Sends the operations at the given positions, fills in their results and returns the
+    // positions whose shard answered 409 (shard map out of date)
+    private List<Integer> routeBatch(List<BatchOperation> operations, List<Integer> pending, BatchResult[] results) {
+        List<String> keys = pending.stream()
+                .map(position -> operations.get(position).key())
+                .distinct()
+                .collect(Collectors.toList());
+        Map<String, String> shardByKey = new HashMap<>();
+        for (ShardAssignment assignment : lookupShards(keys)) {
+            assignment.keys().forEach(key -> shardByKey.put(key, assignment.shard().shardId()));
+        }
+
+        // Group by shard, remembering each operation's position in the request
+        Map<String, List<Integer>> positionsByShard = new LinkedHashMap<>();
+        for (int position : pending) {
+            positionsByShard.computeIfAbsent(shardByKey.get(operations.get(position).key()), id -> new ArrayList<>())
+                    .add(position);
+        }
+
+        // One request per shard leader, all shards in parallel
+        List<Integer> conflicted = Collections.synchronizedList(new ArrayList<>());
+        try {
+            Flux.fromIterable(positionsByShard.entrySet())
+                    .flatMap(group -> {
+                        List<Integer> positions = group.getValue();
+                        List<BatchOperation> shardOperations = positions.stream()
+                                .map(operations::get)
+                                .collect(Collectors.toList());
+                        String targetNode = loadBalancer.getShardAwareNode(group.getKey(), true);
+                        loadBalancer.incrementConnections(targetNode);
+                        return webClient.post()
+                                .uri(targetNode + "/internal/api/v1/keys/batch")
+                                .headers(headers -> headers.addAll(epochHeaders()))
+                                .bodyValue(shardOperations)
+                                .retrieve()
+                                .bodyToMono(BatchResult[].class)
+                                .onErrorResume(WebClientResponseException.Conflict.class, e -> {
+                                    conflicted.addAll(positions);
+                                    return Mono.empty();
+                                })
+                                .doOnError(e -> {
+                                    if (!rejectedByNode(e)) {
+                                        loadBalancer.invalidateLeader(group.getKey(), targetNode);
+                                    }
+                                })
+                                .doOnNext(shardResults -> {
+                                    for (int i = 0; i < positions.size(); i++) {
+                                        results[positions.get(i)] = shardResults[i];
+                                        readCache.invalidate(operations.get(positions.get(i)).key());
+                                    }
+                                })
+                                .doFinally(signal -> loadBalancer.decrementConnections(targetNode));
+                    })
+                    .then()
+                    .block(Duration.ofSeconds(60));
+        } catch (ResponseStatusException e) {
+            throw e;
         } catch (Exception e) {
-            throw new ResponseStatusException(
-                    HttpStatus.SERVICE_UNAVAILABLE, "Shard manager is unavailable", e);
+            throw scatterFailure(e, "Batch write failed");
         }
-        System.out.println("[LB] GET shardinfo ttanya: " + shardInfo.shardId());
+        return conflicted;
+    }
 
-        // Ensure shardInfo is not null.
-        assert shardInfo != null;
+    @PostMapping("/mget")
+    public Map<String, String> multiGet(@RequestBody List<String> keys) {
+        return withShardMapRetry(() -> routeMultiGet(keys));
+    }
 
-        // Retrieve the target node using getShardAwareNode with false as the second parameter.
-        String targetNode = loadBalancer.getShardAwareNode(shardInfo.shardId(), false);
-        // Critical validation
-        System.out.println("[LB] Target node wst getkey: " + targetNode);
-        if (!isNodeInShard(targetNode, shardInfo.shardId())) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
-                    "Routing error: Node " + targetNode + " doesn't belong to shard " + shardInfo.shardId());
+    private Map<String, String> routeMultiGet(List<String> keys) {
+        List<ShardAssignment> assignments = lookupShards(keys.stream().distinct().collect(Collectors.toList()));
+
+        // Scatter one read per shard to any healthy replica, then gather
+        Map<String, String> found = new ConcurrentHashMap<>();
+        try {
+            Flux.fromIterable(assignments)
+                    .flatMap(assignment -> {
+                        String targetNode = loadBalancer.getShardAwareNode(assignment.shard().shardId(), false);
+                        loadBalancer.incrementConnections(targetNode);
+                        return webClient.post()
+                                .uri(targetNode + "/internal/api/v1/keys/mget")
+                                .headers(headers -> headers.addAll(epochHeaders()))
+                                .bodyValue(assignment.keys())
+                                .retrieve()
+                                .bodyToMono(new ParameterizedTypeReference<Map<String, String>>() { })
+                                .doOnNext(found::putAll)
+                                .doFinally(signal -> loadBalancer.decrementConnections(targetNode));
+                    })
+                    .then()
+                    .block(Duration.ofSeconds(10));
+        } catch (ResponseStatusException | WebClientResponseException.Conflict e) {
+            throw e;
+        } catch (Exception e) {
+            throw scatterFailure(e, "Multi-get failed");
         }
-        System.out.println("[LB] 3la slamtna, target node dyal getkey dwwzat test: " + targetNode);
 
-        // Increment the connection count for the chosen node.
-        loadBalancer.incrementConnections(targetNode);
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String key : keys) {
+            String value = found.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
 
+    /**
+     * One page of a prefix ({@code prefix}) or range ({@code start}, {@code end}) scan across
+     * all shards. Every shard returns its first {@code limit} keys of the range and the pages
+     * are merged here; the returned token resumes after the last key of the merged page.
+     */
+    @GetMapping
+    public ScanPage scan(@RequestParam(required = false) String prefix,
+                         @RequestParam(required = false) String start,
+                         @RequestParam(required = false) String end,
+                         @RequestParam(required = false) String token,
+                         @RequestParam(defaultValue = "100") int limit,
+                         @RequestParam(defaultValue = "linearizable") String consistency) {
+        ReadConsistency level;
         try {
-            System.out.println("[LB] GET for shard " + shardInfo.shardId()
-                    + " routed to " + targetNode +"(hadi dyal try f getkey)");
-            // Call the GET API on the target node and return the result.
-            return restTemplate.getForObject(
-                    targetNode + "/internal/api/v1/keys/" + key,
-                    String.class
-            );
+            level = ReadConsistency.fromParam(consistency);
+            ScanCommand.of(prefix, start, end, token, limit); // Rejects bad requests before fanning out
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
+        // The nodes resolve the range themselves, so the parameters are passed through as given
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("prefix", prefix);
+        params.put("start", start);
+        params.put("end", end);
+        params.put("token", token);
+        params.put("limit", Integer.toString(limit));
+        params.put("consistency", level.name().toLowerCase(Locale.ROOT));
+        return withShardMapRetry(() -> routeScan(params, limit, level));
+    }
+
+    private ScanPage routeScan(Map<String, String> params, int limit, ReadConsistency level) {
+        List<ShardInfo> shards;
+        try {
+            shards = shardMapCache.shards();
         } catch (Exception e) {
-            throw new ResponseStatusException(
-                    HttpStatus.INTERNAL_SERVER_ERROR, "Error processing request on node: " + targetNode, e);
-        } finally {
-            // Always decrement the connection count.
-            System.out.println("[LB] Target node (hadi dyal finally f getkey): " + targetNode);
-            loadBalancer.decrementConnections(targetNode);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shard manager is unavailable", e);
         }
+
+        // Scatter one page request per shard, then merge the sorted pages
+        List<ScanPage> pages = Collections.synchronizedList(new ArrayList<>());
+        try {
+            Flux.fromIterable(shards)
+                    .flatMap(shard -> {
+                        String targetNode = loadBalancer.getShardAwareNode(shard.shardId(), level.needsLeader());
+                        loadBalancer.incrementConnections(targetNode);
+                        return webClient.get()
+                                .uri(scanUri(targetNode, shard.shardId(), params))
+                                .headers(headers -> headers.addAll(epochHeaders()))
+                                .retrieve()
+                                .bodyToMono(ScanPage.class)
+                                .doOnNext(pages::add)
+                                .doFinally(signal -> loadBalancer.decrementConnections(targetNode));
+                    })
+                    .then()
+                    .block(Duration.ofSeconds(10));
+        } catch (ResponseStatusException | WebClientResponseException.Conflict e) {
+            throw e;
+        } catch (Exception e) {
+            throw scatterFailure(e, "Scan failed");
+        }
+        return ScanPage.merge(pages, limit);
     }
-    public boolean isNodeInShard(String nodeUrl, String expectedShardId) {
-        String actualShardId = loadBalancer.extractShardIdFromUrl(nodeUrl);
-        return actualShardId.equals(expectedShardId);
+
+    // As in routeRequest, a node that turned the request down itself (bad input, a failed
+    // condition) is passed on with its status; anything else is a failure here
+    private static ResponseStatusException scatterFailure(Exception e, String message) {
+        if (rejectedByNode(e)) {
+            WebClientResponseException rejection = (WebClientResponseException) e;
+            String node = rejection.getRequest() != null ? " " + rejection.getRequest().getURI().getAuthority() : "";
+            return new ResponseStatusException(rejection.getStatusCode(), "Rejected by node" + node, e);
+        }
+        return new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, message, e);
     }
 
+    private static boolean rejectedByNode(Throwable e) {
+        return e instanceof WebClientResponseException response && response.getStatusCode().is4xxClientError();
+    }
 
-    @DeleteMapping("/{key}")
-    public ResponseEntity<Void> deleteKey(@PathVariable String key) {
-        return processRequest(key, targetNode -> {
-            restTemplate.delete(targetNode + "/internal/api/v1/keys/" + key);
-            return ResponseEntity.ok().build();
+    private static URI scanUri(String targetNode, String shardId, Map<String, String> params) {
+        StringBuilder uri = new StringBuilder(targetNode).append("/internal/api/v1/keys?shard=")
+                .append(URLEncoder.encode(shardId, StandardCharsets.UTF_8));
+        params.forEach((name, value) -> {
+            if (value != null) {
+                uri.append('&').append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+            }
         });
+        return URI.create(uri.toString());
+    }
+
+    private List<ShardAssignment> lookupShards(List<String> keys) {
+        try {
+            return shardMapCache.assign(keys);
+        } catch (Exception e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shard manager is unavailable", e);
+        }
+    }
+
+    private <T> T processRequest(String key, boolean isWrite, RequestProcessor<T> processor) {
+        return processRequest(key, isWrite, isWrite, processor);
+    }
+
+    private <T> T processRequest(String key, boolean isWrite, boolean toLeader, RequestProcessor<T> processor) {
+        return withShardMapRetry(() -> routeRequest(key, isWrite, toLeader, processor));
     }
 
-    private <T> T processRequest(String key, RequestProcessor<T> processor) {
+    private <T> T routeRequest(String key, boolean isWrite, boolean toLeader, RequestProcessor<T> processor) {
+        // Resolved in-process from the cached ring, no shard-manager round trip
         ShardInfo shardInfo;
         try {
-            shardInfo = webClient.get()
-                    .uri("http://shard-manager:8080/shard-manager/shard/{key}", key)
-                    .retrieve()
-                    .bodyToMono(ShardInfo.class)
-                    .block(Duration.ofSeconds(2));
+            shardInfo = shardMapCache.resolve(key);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shard manager is unavailable", e);
         }
 
-        assert shardInfo != null;
-        String targetNode = loadBalancer.getShardAwareNode(shardInfo.shardId(), true);
+        String targetNode = loadBalancer.getShardAwareNode(shardInfo.shardId(), toLeader);
+        // Critical validation
+        if (!isNodeInShard(targetNode, shardInfo.shardId())) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Routing error: Node " + targetNode + " doesn't belong to shard " + shardInfo.shardId());
+        }
         loadBalancer.incrementConnections(targetNode); // Moved inside try block
 
         try {
             return processor.process(targetNode);
+        } catch (HttpClientErrorException.Conflict e) {
+            throw e;
+        } catch (HttpClientErrorException e) {
+            // The node turned the request down itself (a failed If-Match, a value that is not a
+            // counter, bad input); the leader is fine, so pass the status on
+            throw new ResponseStatusException(e.getStatusCode(), "Rejected by node " + targetNode, e);
         } catch (Exception e) {
+            if (toLeader) {
+                loadBalancer.invalidateLeader(shardInfo.shardId(), targetNode);
+            }
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error processing request on node: " + targetNode, e);
         } finally {
-            System.out.println("[LB] Target node dyal put w delete: " + targetNode);
+            sampledLog.debug(() -> "[LB] " + (isWrite ? "WRITE" : "READ") + " for shard " + shardInfo.shardId()
+                    + " routed to " + targetNode);
             loadBalancer.decrementConnections(targetNode);
         }
     }
 
+    // A node answers 409 when our shard map is older than its own: refresh and route once more
+    private <T> T withShardMapRetry(Supplier<T> request) {
+        try {
+            return request.get();
+        } catch (HttpClientErrorException.Conflict | WebClientResponseException.Conflict e) {
+            try {
+                shardMapCache.refresh();
+            } catch (Exception refreshError) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shard manager is unavailable", refreshError);
+            }
+        }
+        try {
+            return request.get();
+        } catch (HttpClientErrorException.Conflict | WebClientResponseException.Conflict e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shard map is changing, retry later", e);
+        }
+    }
+
+    // Only replies for existing keys carry an ETag; a missing key is not cached
+    private void offer(String key, String value, String eTag) {
+        if (eTag == null) {
+            return;
+        }
+        String version = eTag.startsWith("\"") ? eTag.substring(1, eTag.length() - 1) : eTag;
+        readCache.offer(key, new VersionedValue(value != null ? value : "", Long.parseLong(version)));
+    }
+
+    private static void copyIfPresent(HttpHeaders headers, String name, String value) {
+        if (value != null) {
+            headers.set(name, value);
+        }
+    }
+
+    private HttpHeaders epochHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(ShardMapCache.EPOCH_HEADER, Long.toString(shardMapCache.epoch()));
+        return headers;
+    }
+
 
     @FunctionalInterface
     private interface RequestProcessor<T> {
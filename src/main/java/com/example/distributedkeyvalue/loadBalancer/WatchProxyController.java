@@ -0,0 +1,149 @@
+package com.example.distributedkeyvalue.loadBalancer;
+
+import com.example.distributedkeyvalue.model.ShardInfo;
+import com.example.distributedkeyvalue.model.WatchEvent;
+import com.example.distributedkeyvalue.service.ShardMapCache;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Watches keys through any replica of their shard. Raft indexes are per shard, so positions are
+ * comma-separated {@code shard:index} lists; a plain number applies to every shard. The event
+ * id is the position of the whole watch: for every shard seen so far, the last index whose
+ * changes were all delivered. A prefix watch spans all shards and ends as soon as any of them
+ * asks for a resync. Streams also end at the MVC async request timeout; an EventSource sends
+ * the last id back as Last-Event-ID, which wins over {@code from} and resumes strictly after
+ * it. {@code from} itself is inclusive: to resume by hand, pass the last id's indexes + 1.
+ */
+@RestController
+@Profile("loadbalancer")
+@RequestMapping("/api/v1/watch")
+public class WatchProxyController {
+    private static final ParameterizedTypeReference<ServerSentEvent<WatchEvent>> EVENT_TYPE =
+            new ParameterizedTypeReference<>() { };
+
+    private final LoadBalancer loadBalancer;
+    private final ShardMapCache shardMapCache;
+    private final WebClient webClient = WebClient.create();
+
+    public WatchProxyController(LoadBalancer loadBalancer, ShardMapCache shardMapCache) {
+        this.loadBalancer = loadBalancer;
+        this.shardMapCache = shardMapCache;
+    }
+
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<WatchEvent>> watch(@RequestParam(required = false) String key,
+                                                   @RequestParam(required = false) String prefix,
+                                                   @RequestParam(required = false) String from,
+                                                   @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        if (key != null && prefix != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Watch either a key or a prefix, not both");
+        }
+        boolean resuming = lastEventId != null && !lastEventId.isBlank();
+        Map<String, Long> delivered = parsePositions(resuming ? lastEventId : null);
+        Map<String, Long> fromIndexes = new HashMap<>();
+        if (resuming) {
+            delivered.forEach((shard, index) -> fromIndexes.put(shard, index + 1));
+        } else {
+            fromIndexes.putAll(parsePositions(from));
+        }
+        List<ShardInfo> shards;
+        try {
+            shards = key != null ? List.of(shardMapCache.resolve(key)) : shardMapCache.shards();
+        } catch (Exception e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shard manager is unavailable", e);
+        }
+
+        // A plain number resumes every shard, but only named shards go into the ids
+        Long everyShard = delivered.remove(null);
+        if (everyShard != null) {
+            shards.forEach(shard -> delivered.putIfAbsent(shard.shardId(), everyShard));
+        }
+        return Flux.merge(shards.stream()
+                        .map(shard -> watchShard(shard.shardId(), key, prefix,
+                                fromIndexes.getOrDefault(shard.shardId(), fromIndexes.get(null))))
+                        .toList())
+                .takeUntil(event -> event.data() != null && event.data().isResync())
+                .filter(event -> event.data() != null)
+                .map(event -> {
+                    WatchEvent data = event.data();
+                    ServerSentEvent.Builder<WatchEvent> sse = ServerSentEvent.builder(data).event(data.type());
+                    // The node sets an id once an entry's changes are all sent; merged events
+                    // arrive one at a time, so the map needs no locking
+                    if (event.id() != null) {
+                        delivered.put(data.shard(), Long.parseLong(event.id()));
+                        sse.id(delivered.entrySet().stream()
+                                .map(position -> position.getKey() + ":" + position.getValue())
+                                .collect(Collectors.joining(",")));
+                    }
+                    return sse.build();
+                });
+    }
+
+    private Flux<ServerSentEvent<WatchEvent>> watchShard(String shardId, String key, String prefix, Long fromIndex) {
+        return Flux.defer(() -> {
+            String targetNode = loadBalancer.getShardAwareNode(shardId, false);
+            loadBalancer.incrementConnections(targetNode);
+            return webClient.get()
+                    .uri(watchUri(targetNode, shardId, key, prefix, fromIndex))
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .retrieve()
+                    .bodyToFlux(EVENT_TYPE)
+                    .doFinally(signal -> loadBalancer.decrementConnections(targetNode));
+        });
+    }
+
+    private static URI watchUri(String targetNode, String shardId, String key, String prefix, Long fromIndex) {
+        StringBuilder uri = new StringBuilder(targetNode).append("/internal/api/v1/watch?shard=")
+                .append(URLEncoder.encode(shardId, StandardCharsets.UTF_8));
+        if (key != null) {
+            uri.append("&key=").append(URLEncoder.encode(key, StandardCharsets.UTF_8));
+        }
+        if (prefix != null) {
+            uri.append("&prefix=").append(URLEncoder.encode(prefix, StandardCharsets.UTF_8));
+        }
+        if (fromIndex != null) {
+            uri.append("&from=").append(fromIndex);
+        }
+        return URI.create(uri.toString());
+    }
+
+    // "shard1:42,shard2:17", or a plain index for every shard, stored under the null key
+    private static Map<String, Long> parsePositions(String positions) {
+        Map<String, Long> indexes = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        if (positions == null || positions.isBlank()) {
+            return indexes;
+        }
+        try {
+            for (String part : positions.split(",")) {
+                int colon = part.lastIndexOf(':');
+                indexes.put(colon < 0 ? null : part.substring(0, colon).trim(),
+                        Long.parseLong(part.substring(colon + 1).trim()));
+            }
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid watch position: " + positions);
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.distributedkeyvalue.model;
+
+import java.util.List;
+
+public record BatchOperation(
+        String type,  // "PUT" or "DELETE"
+        String key,
+        String value  // Ignored for DELETE
+) {
+    // Throws IllegalArgumentException for the first operation that could not be applied, so a
+    // bad request is turned down before any shard sees part of it
+    public static void validate(List<BatchOperation> operations) {
+        if (operations == null) {
+            throw new IllegalArgumentException("Batch body must be a list of operations");
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            BatchOperation operation = operations.get(i);
+            if (operation == null || operation.key() == null) {
+                throw new IllegalArgumentException("Batch operation " + i + " has no key");
+            }
+            if ("PUT".equals(operation.type())) {
+                if (operation.value() == null) {
+                    throw new IllegalArgumentException("Batch operation " + i + " is a PUT without a value");
+                }
+            } else if (!"DELETE".equals(operation.type())) {
+                throw new IllegalArgumentException("Unsupported batch operation " + i + ": " + operation.type());
+            }
+        }
+    }
+}
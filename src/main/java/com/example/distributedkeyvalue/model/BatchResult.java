@@ -0,0 +1,3 @@
+package com.example.distributedkeyvalue.model;
+
+public record BatchResult(String key, String status) { }
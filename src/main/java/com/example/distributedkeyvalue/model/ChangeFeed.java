@@ -0,0 +1,178 @@
+package com.example.distributedkeyvalue.model;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The most recent mutations applied by a state machine, kept in a fixed ring of
+ * {@code kv.watch.buffer} entries (application.yml) for watchers to read at their own pace.
+ * Only the apply thread writes; readers never block it and it never waits for them. A reader
+ * that falls a whole ring behind loses its place and is told to resync instead of the ring
+ * growing for it.
+ */
+public final class ChangeFeed {
+    static final int DEFAULT_CAPACITY = 16384;
+
+    // A key set at index to the value stored as {@code stored}, or deleted when that is null. The
+    // ring shares the store's string, so it costs no copy, and a compressed value is only
+    // expanded by a reader that asks for it
+    public record Change(String key, String stored, long index) {
+        public String value() {
+            return stored != null ? StoredValue.decode(stored).value() : null;
+        }
+    }
+
+    private final Change[] ring;
+    private final int mask;
+    // Sequence number of the next change; slot seq & mask holds change seq
+    private volatile long published;
+    // Changes at or below this index may be missing: overwritten, or from before a reset
+    private volatile long floorIndex;
+    // Bumped on reset, which invalidates every open cursor
+    private volatile long epoch;
+    // Every change up to this index is published; a reader never sees an entry half-published
+    private volatile long completeIndex;
+    private long signalled;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    public ChangeFeed() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ChangeFeed(int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Change[size];
+        this.mask = size - 1;
+    }
+
+    // Apply thread only
+    void publish(String key, String stored, long index) {
+        final long seq = published;
+        final Change evicted = ring[(int) (seq & mask)];
+        if (evicted != null && evicted.index() > floorIndex) {
+            floorIndex = evicted.index();
+        }
+        ring[(int) (seq & mask)] = new Change(key, stored, index);
+        published = seq + 1;
+    }
+
+    // Apply thread only, after each entry. Wakes the readers once per entry rather than once
+    // per change, and only when the entry changed something.
+    void applied(long index) {
+        completeIndex = index;
+        if (signalled != published) {
+            signalled = published;
+            signal();
+        }
+    }
+
+    private void signal() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Forgets the buffered changes, after the state was replaced wholesale (snapshot install,
+     * restart), and makes every open cursor resync. Changes after index are kept from here on.
+     */
+    void reset(long index) {
+        floorIndex = index;
+        completeIndex = index;
+        epoch++;
+        signal();
+    }
+
+    // Listeners run on the apply thread and must only hand work off
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    // Where a reader that lost its place resumes from after re-reading: nothing above it was missed
+    public long completeIndex() {
+        return completeIndex;
+    }
+
+    /**
+     * A cursor at the first change with an index of at least {@code fromIndex}, or at the next
+     * change when fromIndex is null. The cursor starts out lapped when changes from fromIndex
+     * on are no longer buffered.
+     */
+    public Cursor cursor(Long fromIndex) {
+        final long currentEpoch = epoch;
+        final long end = published;
+        if (fromIndex == null) {
+            return new Cursor(end, currentEpoch, false);
+        }
+        if (fromIndex <= floorIndex) {
+            return new Cursor(end, currentEpoch, true);
+        }
+        // The ring is ordered by index; skip the slot the writer may be overwriting next
+        long low = Math.max(0, end - ring.length + 1);
+        long high = end;
+        while (low < high) {
+            final long mid = (low + high) >>> 1;
+            if (ring[(int) (mid & mask)].index() < fromIndex) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return new Cursor(low, currentEpoch, false);
+    }
+
+    public final class Cursor {
+        private long position;
+        private final long cursorEpoch;
+        private boolean lapped;
+
+        private Cursor(long position, long cursorEpoch, boolean lapped) {
+            this.position = position;
+            this.cursorEpoch = cursorEpoch;
+            this.lapped = lapped;
+        }
+
+        // The next change, or null when caught up or lapped
+        public Change next() {
+            if (lapped || cursorEpoch != epoch) {
+                lapped = true;
+                return null;
+            }
+            if (position >= published) {
+                return null;
+            }
+            final Change change = ring[(int) (position & mask)];
+            // Checked after the read: the writer starts overwriting this slot when it publishes
+            // sequence position + capacity, so anything from there on may have torn the read
+            if (published >= position + ring.length || cursorEpoch != epoch) {
+                lapped = true;
+                return null;
+            }
+            position++;
+            return change;
+        }
+
+        /**
+         * Whether {@code change}, just returned by next(), is the last change of its entry: the
+         * one after it belongs to a later entry, or nothing follows yet and the entry is complete.
+         * False when that cannot be told yet.
+         */
+        public boolean endsEntry(Change change) {
+            // Read first: every change of an entry is published before the entry counts as complete
+            final long complete = completeIndex;
+            if (position < published) {
+                final long nextIndex = ring[(int) (position & mask)].index();
+                return published < position + ring.length && nextIndex != change.index();
+            }
+            return complete >= change.index();
+        }
+
+        public boolean isLapped() {
+            return lapped;
+        }
+    }
+}
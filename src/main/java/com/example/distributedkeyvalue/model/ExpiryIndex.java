@@ -0,0 +1,77 @@
+package com.example.distributedkeyvalue.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Deadlines of the keys that have a TTL, bucketed by second so finding what is due only
+ * touches the buckets that are due rather than every key. Changed only by the apply thread;
+ * the expiry proposer reads it concurrently.
+ */
+final class ExpiryIndex {
+    private static final long BUCKET_MILLIS = 1000;
+
+    private final Map<String, Long> deadlines = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Set<String>> buckets = new ConcurrentSkipListMap<>();
+
+    // A deadline of 0 or less removes the key's TTL
+    void set(String key, long expireAt) {
+        final Long previous = expireAt > 0 ? deadlines.put(key, expireAt) : deadlines.remove(key);
+        if (previous != null) {
+            if (previous == expireAt) {
+                return;
+            }
+            final Set<String> bucket = buckets.get(bucket(previous));
+            bucket.remove(key);
+            if (bucket.isEmpty()) {
+                buckets.remove(bucket(previous));
+            }
+        }
+        if (expireAt > 0) {
+            buckets.computeIfAbsent(bucket(expireAt), b -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+    }
+
+    void remove(String key) {
+        set(key, 0);
+    }
+
+    // 0 when the key has no TTL
+    long deadline(String key) {
+        return deadlines.getOrDefault(key, 0L);
+    }
+
+    // Up to max keys whose deadline has passed at now
+    List<String> due(long now, int max) {
+        final List<String> due = new ArrayList<>();
+        for (Set<String> bucket : buckets.headMap(bucket(now), true).values()) {
+            for (String key : bucket) {
+                final long deadline = deadline(key);
+                if (deadline > 0 && deadline <= now) {
+                    due.add(key);
+                    if (due.size() == max) {
+                        return due;
+                    }
+                }
+            }
+        }
+        return due;
+    }
+
+    int size() {
+        return deadlines.size();
+    }
+
+    void clear() {
+        deadlines.clear();
+        buckets.clear();
+    }
+
+    private static long bucket(long expireAt) {
+        return expireAt / BUCKET_MILLIS;
+    }
+}
@@ -1,27 +1,296 @@
 package com.example.distributedkeyvalue.model;
 
+import com.example.distributedkeyvalue.model.commands.AppendCommand;
+import com.example.distributedkeyvalue.model.commands.BatchCommand;
+import com.example.distributedkeyvalue.model.commands.CommandCodec;
+import com.example.distributedkeyvalue.model.commands.CommitUploadCommand;
+import com.example.distributedkeyvalue.model.commands.DeleteCommand;
+import com.example.distributedkeyvalue.model.commands.ExpireCommand;
+import com.example.distributedkeyvalue.model.commands.GetCommand;
+import com.example.distributedkeyvalue.model.commands.IncrementCommand;
+import com.example.distributedkeyvalue.model.commands.MultiGetCommand;
+import com.example.distributedkeyvalue.model.commands.PutCommand;
+import com.example.distributedkeyvalue.model.commands.ScanCommand;
+import com.example.distributedkeyvalue.model.commands.UploadChunkCommand;
+import com.example.distributedkeyvalue.model.store.HeapKeyValueStore;
+import com.example.distributedkeyvalue.model.store.KeyValueStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.ratis.io.MD5Hash;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.protocol.ClientId;
 import org.apache.ratis.protocol.Message;
+import org.apache.ratis.protocol.RaftClientRequest;
 import org.apache.ratis.protocol.RaftGroupId;
+import org.apache.ratis.protocol.RaftGroupMemberId;
+import org.apache.ratis.protocol.RaftPeerId;
 import org.apache.ratis.server.RaftServer;
+import org.apache.ratis.server.protocol.TermIndex;
+import org.apache.ratis.server.raftlog.RaftLog;
+import org.apache.ratis.server.storage.FileInfo;
 import org.apache.ratis.server.storage.RaftStorage;
+import org.apache.ratis.statemachine.SnapshotInfo;
 import org.apache.ratis.statemachine.StateMachineStorage;
 import org.apache.ratis.statemachine.TransactionContext;
 import org.apache.ratis.statemachine.impl.BaseStateMachine;
+import org.apache.ratis.statemachine.impl.FileListSnapshotInfo;
 import org.apache.ratis.statemachine.impl.SimpleStateMachineStorage;
+import org.apache.ratis.statemachine.impl.SingleFileSnapshotInfo;
 import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.apache.ratis.util.FileUtils;
+import org.apache.ratis.util.MD5FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class KeyValueStateMachine extends BaseStateMachine {
-    private final Map<String, String> store = new ConcurrentHashMap<>();
+    // Snapshot file header: "KVSS" followed by a format version byte. Version 2 added the
+    // pending uploads, ahead of the keys so they can be restored without reading the keys.
+    // Version 3, written for durable stores, lists the store's files instead of the keys; they
+    // are hard-linked into a directory next to the snapshot and shipped along with it.
+    private static final int SNAPSHOT_MAGIC = 0x4B565353;
+    private static final byte SNAPSHOT_VERSION = 2;
+    private static final byte LINKED_SNAPSHOT_VERSION = 3;
+    private static final String SNAPSHOT_TEMP_SUFFIX = ".tmp";
+    private static final String LINKED_FILES_SUFFIX = ".kv-data";
+    private static final long EXPIRY_INTERVAL_MS = 1000;
+    private static final int EXPIRY_BATCH = 1000;
+
+    /**
+     * Node settings from application.yml ({@code kv.compression.threshold}, {@code kv.watch.buffer},
+     * {@code kv.upload.timeout-ms}). The upload timeout decides which entry drops an upload, so
+     * every replica of a shard needs the same one.
+     */
+    public record Settings(int compressionThreshold, int watchBuffer, long uploadTimeoutMs) {
+        public static final Settings DEFAULTS = new Settings(ValueCompression.DEFAULT_THRESHOLD,
+                ChangeFeed.DEFAULT_CAPACITY, UploadStaging.DEFAULT_TIMEOUT_MS);
+    }
+
+    private final String shardId;
+    private final KeyValueStore store;
+    private final Settings settings;
     private final SimpleStateMachineStorage storage = new SimpleStateMachineStorage();
+    private File stateMachineDir;
+    // The latest snapshot together with the store files it links, if the store is durable
+    private volatile FileListSnapshotInfo linkedSnapshot;
+    // Entries up to this index were already in the store's files when it was opened
+    private long recoveredIndex = RaftLog.INVALID_LOG_INDEX;
+    private volatile BiConsumer<RaftGroupMemberId, RaftPeerId> leaderChangeListener;
+    // Told about every key an applied entry changes, after the store holds the new state
+    private volatile Consumer<String> writeListener;
+    // Recent mutations for watchers, published from the apply loop
+    private final ChangeFeed changes;
+    // Stale reads waiting for the applied index to reach their minIndex. BaseStateMachine keeps
+    // its own map for this, but in Ratis 2.5.0 only completes it when the index did not move.
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> appliedWaiters = new ConcurrentSkipListMap<>();
+    // Keys with a TTL. Their deadline is also kept in the stored value, so snapshots and durable
+    // stores carry it and the index is rebuilt from the store after a restart or snapshot install.
+    private final ExpiryIndex expiry = new ExpiryIndex();
+    // Values being uploaded in chunks, until their commit entry
+    private final UploadStaging uploads;
+    // On the leader, proposes ExpireCommands for keys past their deadline, one batch in flight at a time
+    private ScheduledExecutorService expiryProposer;
+    private final AtomicBoolean expiryInFlight = new AtomicBoolean();
+    private final ClientId expiryClientId = ClientId.randomId();
+    private final AtomicLong expiryCallIds = new AtomicLong();
+    // Registered in the global registry, which Spring Boot links to the Prometheus endpoint
+    private final Timer applyTimer;
+    private final Counter expiredCounter;
+    private final List<Meter> meters = new ArrayList<>();
+
+    public KeyValueStateMachine() {
+        this(new HeapKeyValueStore());
+    }
+
+    public KeyValueStateMachine(KeyValueStore store) {
+        this("default-shard", "default-node", store);
+    }
+
+    public KeyValueStateMachine(String shardId, String nodeId, KeyValueStore store) {
+        this(shardId, nodeId, store, Settings.DEFAULTS);
+    }
+
+    public KeyValueStateMachine(String shardId, String nodeId, KeyValueStore store, Settings settings) {
+        this.shardId = shardId;
+        this.store = store;
+        this.settings = settings;
+        this.changes = new ChangeFeed(settings.watchBuffer());
+        this.uploads = new UploadStaging(settings.uploadTimeoutMs());
+        // Tagged by node as well, so replicas running in one JVM (tests, benchmarks) do not collide
+        final Tags tags = Tags.of("shard", shardId, "node", nodeId);
+        this.applyTimer = Timer.builder("kv.raft.apply")
+                .description("Time to apply a committed log entry to the store")
+                .tags(tags)
+                .register(Metrics.globalRegistry);
+        meters.add(applyTimer);
+        meters.add(Gauge.builder("kv.store.entries", store, KeyValueStore::size)
+                .description("Live keys in the store")
+                .tags(tags)
+                .register(Metrics.globalRegistry));
+        meters.add(Gauge.builder("kv.store.bytes", store, KeyValueStore::dataBytes)
+                .description("Bytes held by live keys and values")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(Metrics.globalRegistry));
+        meters.add(Gauge.builder("kv.store.expiring", expiry, ExpiryIndex::size)
+                .description("Live keys that have a TTL")
+                .tags(tags)
+                .register(Metrics.globalRegistry));
+        meters.add(Gauge.builder("kv.store.uploads", uploads, UploadStaging::size)
+                .description("Chunked uploads waiting for their commit")
+                .tags(tags)
+                .register(Metrics.globalRegistry));
+        this.expiredCounter = Counter.builder("kv.store.expired")
+                .description("Keys removed because their TTL ran out")
+                .tags(tags)
+                .register(Metrics.globalRegistry);
+        meters.add(expiredCounter);
+    }
 
     @Override
     public void initialize(RaftServer raftServer, RaftGroupId raftGroupId, RaftStorage raftStorage) throws IOException {
         super.initialize(raftServer, raftGroupId, raftStorage);
         storage.init(raftStorage);
+        stateMachineDir = raftStorage.getStorageDir().getStateMachineDir();
+        deleteTempSnapshots(stateMachineDir);
+        deleteUnlinkedFiles(stateMachineDir);
+        // Kept outside the state machine dir, which is replaced when a snapshot is installed
+        store.open(new File(raftStorage.getStorageDir().getRoot(), "kv-data"));
+        recoveredIndex = store.appliedIndex();
+        openUploads(new File(raftStorage.getStorageDir().getRoot(), "kv-uploads"));
+        loadSnapshot(storage.getLatestSnapshot());
+        rebuildExpiryIndex();
+        // Nothing before this point is in the feed
+        changes.reset(Math.max(appliedIndex(), recoveredIndex));
+
+        expiryProposer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "kv-expiry-" + raftGroupId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiryProposer.scheduleWithFixedDelay(() -> proposeExpirations(raftServer),
+                EXPIRY_INTERVAL_MS, EXPIRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void reinitialize() throws IOException {
+        // Called after a follower installed a snapshot sent by the leader.
+        // The storage only caches snapshots taken locally, so rescan the directory.
+        loadSnapshot(findLatestSnapshot());
+        rebuildExpiryIndex();
+        // The entries the snapshot skipped never went through the feed, so watchers must resync
+        changes.reset(appliedIndex());
+    }
+
+    // Package-private so tests can stage uploads without a RaftStorage
+    void openUploads(File directory) throws IOException {
+        uploads.open(directory);
+    }
+
+    // A full pass, but only on startup and snapshot install; expiring keys never scans
+    private void rebuildExpiryIndex() {
+        expiry.clear();
+        store.forEach((key, value) -> {
+            if (StoredValue.hasHeader(value)) {
+                expiry.set(key, StoredValue.decode(value).expireAt());
+            }
+        });
+    }
+
+    private void proposeExpirations(RaftServer raftServer) {
+        if (!expiryInFlight.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final RaftServer.Division division = raftServer.getDivision(getGroupId());
+            final long now = System.currentTimeMillis();
+            final List<String> due = division.getInfo().isLeader() && division.getInfo().isLeaderReady()
+                    ? expiry.due(now, EXPIRY_BATCH)
+                    : List.of();
+            if (due.isEmpty()) {
+                expiryInFlight.set(false);
+                return;
+            }
+            final RaftClientRequest request = RaftClientRequest.newBuilder()
+                    .setClientId(expiryClientId)
+                    .setServerId(division.getId())
+                    .setGroupId(getGroupId())
+                    .setCallId(expiryCallIds.incrementAndGet())
+                    .setMessage(new ExpireCommand(now, due))
+                    .setType(RaftClientRequest.writeRequestType())
+                    .build();
+            raftServer.submitClientRequestAsync(request).whenComplete((reply, error) -> {
+                expiryInFlight.set(false);
+                // A full batch means more may be due, so keep draining instead of waiting a tick
+                if (error == null && reply.isSuccess() && due.size() == EXPIRY_BATCH && !expiryProposer.isShutdown()) {
+                    expiryProposer.execute(() -> proposeExpirations(raftServer));
+                }
+            });
+        } catch (Exception e) {
+            expiryInFlight.set(false);
+            System.err.println("Failed to propose expirations for " + getGroupId() + ": " + e.getMessage());
+        }
+    }
+
+    public String getShardId() {
+        return shardId;
+    }
+
+    public void setLeaderChangeListener(BiConsumer<RaftGroupMemberId, RaftPeerId> listener) {
+        this.leaderChangeListener = listener;
+    }
+
+    public void setWriteListener(Consumer<String> listener) {
+        this.writeListener = listener;
+    }
+
+    public ChangeFeed getChangeFeed() {
+        return changes;
+    }
+
+    // Stored null: the key was removed
+    private void written(String key, String stored, long index) {
+        changes.publish(key, stored, index);
+        final Consumer<String> listener = writeListener;
+        if (listener != null) {
+            listener.accept(key);
+        }
+    }
+
+    @Override
+    public void notifyLeaderChanged(RaftGroupMemberId groupMemberId, RaftPeerId newLeaderId) {
+        final BiConsumer<RaftGroupMemberId, RaftPeerId> listener = leaderChangeListener;
+        if (listener != null) {
+            listener.accept(groupMemberId, newLeaderId);
+        }
     }
 
     @Override
@@ -29,55 +298,569 @@ public class KeyValueStateMachine extends BaseStateMachine {
         return storage;
     }
 
+    @Override
+    public SnapshotInfo getLatestSnapshot() {
+        final SingleFileSnapshotInfo latest = storage.getLatestSnapshot();
+        final FileListSnapshotInfo linked = linkedSnapshot;
+        // A follower installing a linked snapshot needs the store files as well
+        return linked != null && latest != null && linked.getIndex() == latest.getIndex() ? linked : latest;
+    }
+
+    @Override
+    public long takeSnapshot() throws IOException {
+        // Runs on the state machine updater thread, so no apply can interleave with the dump
+        final TermIndex last = getLastAppliedTermIndex();
+        if (last == null || last.getIndex() < 0) {
+            return RaftLog.INVALID_LOG_INDEX;
+        }
+        final File snapshotFile = storage.getSnapshotFile(last.getTerm(), last.getIndex());
+        if (store.durable()) {
+            return takeLinkedSnapshot(snapshotFile, last);
+        }
+        writeAtomically(snapshotFile, out -> {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeByte(SNAPSHOT_VERSION);
+            uploads.writeTo(out);
+            out.writeInt(store.size());
+            try {
+                store.forEach((key, value) -> {
+                    try {
+                        writeBytes(out, key.getBytes(StandardCharsets.UTF_8));
+                        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        });
+        // The log is purged up to the snapshot, so a durable store must not lag behind it
+        store.checkpoint(last.getIndex());
+
+        final MD5Hash md5 = MD5FileUtil.computeAndSaveMd5ForFile(snapshotFile);
+        storage.updateLatestSnapshot(new SingleFileSnapshotInfo(new FileInfo(snapshotFile.toPath(), md5), last));
+        return last.getIndex();
+    }
+
+    /**
+     * A durable store already holds every key on disk, so instead of copying them the snapshot
+     * forces the store out, hard-links its files and records their names after the uploads.
+     * The snapshot costs a sync and a few links rather than a pass over the dataset.
+     */
+    private long takeLinkedSnapshot(File snapshotFile, TermIndex last) throws IOException {
+        store.checkpoint(last.getIndex());
+        final File linkDir = linkedFilesDir(snapshotFile);
+        if (linkDir.exists()) {
+            FileUtils.deleteFully(linkDir);
+        }
+        final List<String> names = store.linkFiles(linkDir);
+        try (FileChannel directory = FileChannel.open(linkDir.toPath(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+        writeAtomically(snapshotFile, out -> {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeByte(LINKED_SNAPSHOT_VERSION);
+            uploads.writeTo(out);
+            out.writeInt(names.size());
+            for (String name : names) {
+                writeBytes(out, name.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+
+        final MD5Hash md5 = MD5FileUtil.computeAndSaveMd5ForFile(snapshotFile);
+        final SingleFileSnapshotInfo snapshot = new SingleFileSnapshotInfo(new FileInfo(snapshotFile.toPath(), md5), last);
+        linkedSnapshot = linkedSnapshot(snapshot, linkDir, names);
+        storage.updateLatestSnapshot(snapshot);
+        // Ratis deletes old snapshot files after this returns, so their links go one snapshot later
+        deleteUnlinkedFiles(stateMachineDir);
+        return last.getIndex();
+    }
+
+    // Taken on the apply thread, so the active file ends at the checkpoint when its size is recorded
+    private static FileListSnapshotInfo linkedSnapshot(SingleFileSnapshotInfo snapshot, File linkDir, List<String> names) {
+        final List<FileInfo> files = new ArrayList<>();
+        files.add(snapshot.getFile());
+        for (String name : names) {
+            files.add(new FileInfo(new File(linkDir, name).toPath(), null));
+        }
+        return new FileListSnapshotInfo(files, snapshot.getTermIndex());
+    }
+
+    private static File linkedFilesDir(File snapshotFile) {
+        return new File(snapshotFile.getParentFile(), snapshotFile.getName() + LINKED_FILES_SUFFIX);
+    }
+
+    // Links whose snapshot was deleted, or never written because the process died first
+    private static void deleteUnlinkedFiles(File directory) throws IOException {
+        final File[] files = directory != null ? directory.listFiles() : null;
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(LINKED_FILES_SUFFIX)
+                    && !new File(directory, name.substring(0, name.length() - LINKED_FILES_SUFFIX.length())).exists()) {
+                FileUtils.deleteFully(file);
+            }
+        }
+    }
+
+    private interface SnapshotWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Ratis purges the log up to a snapshot once it is published, so the file must be whole and
+     * on disk first: it is written next to its final name, synced, and renamed into place. A crash
+     * before the rename leaves the previous snapshot, and only a temporary file to clean up.
+     */
+    private static void writeAtomically(File target, SnapshotWriter writer) throws IOException {
+        final Path temp = target.toPath().resolveSibling(target.getName() + SNAPSHOT_TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            writer.write(out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // The rename itself is only durable once the directory is
+        try (FileChannel directory = FileChannel.open(target.toPath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    // Left by a snapshot that was being written when the process died
+    private static void deleteTempSnapshots(File directory) throws IOException {
+        final File[] files = directory != null ? directory.listFiles() : null;
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(SNAPSHOT_TEMP_SUFFIX)) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private void loadSnapshot(SingleFileSnapshotInfo snapshot) throws IOException {
+        if (snapshot == null) {
+            return;
+        }
+        final File snapshotFile = snapshot.getFile().getPath().toFile();
+        if (!snapshotFile.exists()) {
+            System.err.println("Snapshot file " + snapshotFile + " is missing, skipping load");
+            return;
+        }
+        // A durable store already holding the keys only needs the uploads at the head of the file
+        final boolean storeAhead = store.appliedIndex() >= snapshot.getIndex();
+        final MD5Hash md5 = snapshot.getFile().getFileDigest();
+        if (md5 != null && !storeAhead) {
+            MD5FileUtil.verifySavedMD5(snapshotFile, md5);
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshotFile.toPath())))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a key-value snapshot: " + snapshotFile);
+            }
+            final byte version = in.readByte();
+            if (version < 1 || version > LINKED_SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + snapshotFile);
+            }
+            // Uploads are never in a durable store, so they come from the snapshot either way
+            if (version >= 2) {
+                uploads.readFrom(in);
+            } else {
+                uploads.clear();
+            }
+            final File linkDir = linkedFilesDir(snapshotFile);
+            if (version == LINKED_SNAPSHOT_VERSION) {
+                final List<String> names = new ArrayList<>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    names.add(new String(readBytes(in), StandardCharsets.UTF_8));
+                }
+                linkedSnapshot = linkedSnapshot(snapshot, linkDir, names);
+            } else {
+                linkedSnapshot = null;
+            }
+            if (storeAhead) {
+                // The log is replayed from the store's own index
+                setLastAppliedTermIndex(snapshot.getTermIndex());
+                releaseWaiters(snapshot.getIndex());
+                System.out.println("Store is at index " + store.appliedIndex() + ", skipping snapshot " + snapshot.getTermIndex());
+                return;
+            }
+            if (version == LINKED_SNAPSHOT_VERSION) {
+                // Installed from the leader along with its store files
+                store.restore(linkDir);
+                // Those files may run past the snapshot, and the entries they hold must not apply twice
+                recoveredIndex = store.appliedIndex();
+                setLastAppliedTermIndex(snapshot.getTermIndex());
+                releaseWaiters(snapshot.getIndex());
+                System.out.println("Restored snapshot " + snapshot.getTermIndex() + " with " + store.size() + " keys");
+                return;
+            }
+            final int count = in.readInt();
+            store.clear();
+            // Records from a half-loaded snapshot must not look applied, so the index is only set at the end
+            store.setWriteIndex(RaftLog.INVALID_LOG_INDEX);
+            for (int i = 0; i < count; i++) {
+                String key = new String(readBytes(in), StandardCharsets.UTF_8);
+                String value = new String(readBytes(in), StandardCharsets.UTF_8);
+                store.put(key, value);
+            }
+        }
+        store.checkpoint(snapshot.getIndex());
+        setLastAppliedTermIndex(snapshot.getTermIndex());
+        releaseWaiters(snapshot.getIndex());
+        System.out.println("Loaded snapshot " + snapshot.getTermIndex() + " with " + store.size() + " keys");
+    }
+
+    private SingleFileSnapshotInfo findLatestSnapshot() throws IOException {
+        final File[] files = stateMachineDir != null ? stateMachineDir.listFiles() : null;
+        if (files == null) {
+            return storage.getLatestSnapshot();
+        }
+        File latestFile = null;
+        TermIndex latest = null;
+        for (File file : files) {
+            if (!SimpleStateMachineStorage.SNAPSHOT_REGEX.matcher(file.getName()).matches()) {
+                continue;
+            }
+            final TermIndex termIndex = SimpleStateMachineStorage.getTermIndexFromSnapshotFile(file);
+            if (latest == null || termIndex.getIndex() > latest.getIndex()) {
+                latest = termIndex;
+                latestFile = file;
+            }
+        }
+        if (latestFile == null) {
+            return storage.getLatestSnapshot();
+        }
+        final MD5Hash md5 = MD5FileUtil.readStoredMd5ForFile(latestFile);
+        return storage.updateLatestSnapshot(new SingleFileSnapshotInfo(new FileInfo(latestFile.toPath(), md5), latest));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
     @Override
     public CompletableFuture<Message> applyTransaction(TransactionContext trx) {
+        final LogEntryProto entry = trx.getLogEntry();
+        if (entry.getIndex() <= recoveredIndex) {
+            // Replayed after a restart, but already persisted by the store. Uploads are not,
+            // so their chunks still go to the staging files.
+            try {
+                replayUpload(trx.getStateMachineLogEntry().getLogData());
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            } finally {
+                updateLastAppliedTermIndex(entry.getTerm(), entry.getIndex());
+            }
+            return CompletableFuture.completedFuture(Message.EMPTY);
+        }
+        final long start = System.nanoTime();
         try {
-            // Access the log entry data directly from TransactionContext
+            // Decode the binary command straight from the log entry bytes
             final ByteString data = trx.getStateMachineLogEntry().getLogData();
-            final String content = data.toStringUtf8();
-            final String[] parts = content.split(":", 3);
+            final Message command = CommandCodec.decode(data);
+            store.setWriteIndex(entry.getIndex());
 
-            switch (parts[0]) {
-                case "PUT":
-                    store.put(parts[1], parts[2]);
-                    break;
-                case "DELETE":
-                    store.remove(parts[1]);
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unknown command: " + parts[0]);
+            if (command instanceof PutCommand put) {
+                return completed(CommandCodec.encodeWriteResult(put(put, entry.getIndex())));
+            } else if (command instanceof DeleteCommand delete) {
+                return completed(CommandCodec.encodeWriteResult(delete(delete, entry.getIndex())));
+            } else if (command instanceof IncrementCommand increment) {
+                return completed(CommandCodec.encodeVersionedValue(increment(increment, entry.getIndex())));
+            } else if (command instanceof AppendCommand append) {
+                return completed(CommandCodec.encodeVersionedValue(append(append, entry.getIndex())));
+            } else if (command instanceof UploadChunkCommand chunk) {
+                uploads.append(chunk.getUploadId(), chunk.getOffset(), chunk.getData(), chunk.getNow());
+                return CompletableFuture.completedFuture(Message.EMPTY);
+            } else if (command instanceof CommitUploadCommand commit) {
+                return completed(CommandCodec.encodeWriteResult(commitUpload(commit, entry.getIndex())));
+            } else if (command instanceof ExpireCommand expire) {
+                return CompletableFuture.completedFuture(applyExpire(expire, entry.getIndex()));
+            } else if (command instanceof BatchCommand batch) {
+                // The whole batch is decoded before the first mutation, so a malformed entry applies nothing
+                return CompletableFuture.completedFuture(applyBatch(batch, entry.getIndex()));
+            } else {
+                throw new IllegalArgumentException("Unsupported command in log: " + command.getClass().getSimpleName());
             }
-
-            return CompletableFuture.completedFuture(Message.valueOf("SUCCESS"));
         } catch (Exception e) {
             return CompletableFuture.failedFuture(e);
+        } finally {
+            // Track the applied index so snapshots are taken at the right position
+            updateLastAppliedTermIndex(entry.getTerm(), entry.getIndex());
+            changes.applied(entry.getIndex());
+            applyTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
     }
+
+    // Only chunk and commit entries are decoded; a commit the store already holds frees its upload
+    private void replayUpload(ByteString data) throws IOException {
+        if (data.size() < 2 || data.byteAt(0) != CommandCodec.FORMAT_VERSION
+                || data.byteAt(1) != CommandCodec.OP_UPLOAD_CHUNK && data.byteAt(1) != CommandCodec.OP_COMMIT_UPLOAD) {
+            return;
+        }
+        final Message command = CommandCodec.decode(data);
+        if (command instanceof UploadChunkCommand chunk) {
+            uploads.append(chunk.getUploadId(), chunk.getOffset(), chunk.getData(), chunk.getNow());
+        } else {
+            uploads.discard(((CommitUploadCommand) command).getUploadId());
+        }
+    }
+
+    private static CompletableFuture<Message> completed(ByteString reply) {
+        return CompletableFuture.completedFuture(Message.valueOf(reply));
+    }
+
+    private Message applyBatch(BatchCommand batch, long index) {
+        final List<String> results = new ArrayList<>(batch.getOperations().size());
+        for (Message operation : batch.getOperations()) {
+            if (operation instanceof PutCommand put) {
+                put(put, index);
+                results.add("OK");
+            } else {
+                results.add(remove(((DeleteCommand) operation).getKey(), index) ? "DELETED" : "NOT_FOUND");
+            }
+        }
+        return Message.valueOf(CommandCodec.encodeStrings(results));
+    }
+
+    // The version check and the write happen in the same apply step, so nothing can slip in between
+    private WriteResult put(PutCommand put, long index) {
+        final WriteResult mismatch = checkVersion(put.getKey(), put.getExpectedVersion(), put.getNow());
+        if (mismatch != null) {
+            return mismatch;
+        }
+        // A value compressed by the proposer is stored as it is and only expanded when read
+        final String stored = put.isCompressed()
+                ? StoredValue.encode(ValueCompression.pack(put.getCompressedValue()), index, put.getExpireAt(), true)
+                : StoredValue.encode(put.getValue(), index, put.getExpireAt());
+        write(put.getKey(), stored, put.getExpireAt(), index);
+        return new WriteResult(true, index);
+    }
+
+    // The value was staged by the upload's chunks; it is compressed here, when it is large
+    // enough, since no proposer ever held all of it
+    private WriteResult commitUpload(CommitUploadCommand commit, long index) throws IOException {
+        final byte[] value = uploads.take(commit.getUploadId(), commit.getLength());
+        final WriteResult mismatch = checkVersion(commit.getKey(), commit.getExpectedVersion(), commit.getNow());
+        if (mismatch != null) {
+            return mismatch;
+        }
+        // Compressed straight from the staged bytes, so a large value is never decoded just to be encoded again
+        final byte[] compressed = ValueCompression.compressIfLarge(value, settings.compressionThreshold());
+        final String stored = compressed != null
+                ? StoredValue.encode(ValueCompression.pack(compressed), index, commit.getExpireAt(), true)
+                : StoredValue.encode(new String(value, StandardCharsets.UTF_8), index, commit.getExpireAt());
+        write(commit.getKey(), stored, commit.getExpireAt(), index);
+        return new WriteResult(true, index);
+    }
+
+    private void write(String key, String stored, long expireAt, long index) {
+        store.put(key, stored);
+        expiry.set(key, expireAt);
+        written(key, stored, index);
+    }
+
+    private WriteResult delete(DeleteCommand delete, long index) {
+        final WriteResult mismatch = checkVersion(delete.getKey(), delete.getExpectedVersion(), delete.getNow());
+        if (mismatch != null) {
+            return mismatch;
+        }
+        remove(delete.getKey(), index);
+        return new WriteResult(true, index);
+    }
+
+    // Read-modify-write within one apply step, so concurrent increments never lose each other's
+    // update. Null when the value is not a 64-bit integer or the sum overflows; nothing is written then.
+    private VersionedValue increment(IncrementCommand increment, long index) {
+        final StoredValue current = read(increment.getKey(), increment.getNow());
+        final long sum;
+        try {
+            sum = Math.addExact(current != null ? Long.parseLong(current.value()) : 0, increment.getDelta());
+        } catch (NumberFormatException | ArithmeticException e) {
+            return null;
+        }
+        return update(increment.getKey(), Long.toString(sum), current, index);
+    }
+
+    private VersionedValue append(AppendCommand append, long index) {
+        final StoredValue current = read(append.getKey(), append.getNow());
+        return update(append.getKey(), current != null ? current.value() + append.getValue() : append.getValue(),
+                current, index);
+    }
+
+    // A live key keeps its TTL; one past its deadline at the proposer's clock starts over without one
+    private VersionedValue update(String key, String value, StoredValue current, long index) {
+        final long expireAt = current != null ? current.expireAt() : 0;
+        write(key, StoredValue.encode(value, index, expireAt), expireAt, index);
+        return new VersionedValue(value, index);
+    }
+
+    // Null when the expected version holds, otherwise the reply carrying the current version. A key
+    // past its deadline at the proposer's clock is absent, as it is to GET, INCR and APPEND.
+    private WriteResult checkVersion(String key, long expected, long now) {
+        if (expected == VersionedValue.ANY) {
+            return null;
+        }
+        final StoredValue current = read(key, now);
+        if (current == null) {
+            return expected == VersionedValue.ABSENT ? null : new WriteResult(false, VersionedValue.ABSENT);
+        }
+        // Keys written before versions existed read as version 0 but do exist, so nothing matches them
+        final long version = current.version();
+        return expected != VersionedValue.ABSENT && version == expected ? null : new WriteResult(false, version);
+    }
+
+    private boolean remove(String key, long index) {
+        expiry.remove(key);
+        final boolean removed = store.remove(key);
+        if (removed) {
+            written(key, null, index);
+        }
+        return removed;
+    }
+
+    // Decided from the deadlines in the state and the time in the entry, never the local clock
+    private Message applyExpire(ExpireCommand expire, long index) {
+        int expired = 0;
+        for (String key : expire.getKeys()) {
+            final long deadline = expiry.deadline(key);
+            if (deadline > 0 && deadline <= expire.getNow()) {
+                remove(key, index);
+                expired++;
+            }
+        }
+        expiredCounter.increment(expired);
+        return Message.valueOf(Integer.toString(expired));
+    }
+
+    // Keys past their deadline read as missing until the leader's ExpireCommand removes them
+    private StoredValue read(String key, long now) {
+        final String stored = store.get(key);
+        if (stored == null) {
+            return null;
+        }
+        final StoredValue value = StoredValue.decode(stored);
+        return value.expiredAt(now) ? null : value;
+    }
+
     @Override
     public CompletableFuture<Message> query(Message request) {
         try {
-            // Extract the content from the request
-            String content = request.getContent().toStringUtf8();
-            // Split into ["GET", "key"]
-            String[] parts = content.split(":", 2);
-
-            if (parts.length < 2 || !"GET".equals(parts[0])) {
-                throw new IllegalArgumentException("Invalid GET command: " + content);
+            final Message command = CommandCodec.decode(request.getContent());
+            final long now = System.currentTimeMillis();
+            if (command instanceof MultiGetCommand multiGet) {
+                final List<String> values = new ArrayList<>(multiGet.getKeys().size());
+                for (String key : multiGet.getKeys()) {
+                    final StoredValue value = read(key, now);
+                    values.add(value != null ? value.value() : null);
+                }
+                return CompletableFuture.completedFuture(Message.valueOf(CommandCodec.encodeNullableStrings(values)));
+            }
+            if (command instanceof ScanCommand scan) {
+                return CompletableFuture.completedFuture(Message.valueOf(CommandCodec.encodeScanPage(scan(scan, now))));
+            }
+            if (!(command instanceof GetCommand get)) {
+                throw new IllegalArgumentException("Invalid query: " + command.getClass().getSimpleName());
             }
 
-            String key = parts[1];
-            String value = store.get(key);
+            final StoredValue value = read(get.getKey(), now);
+            if (get.isVersioned()) {
+                return completed(CommandCodec.encodeVersionedValue(
+                        value != null ? new VersionedValue(value.value(), value.version()) : null));
+            }
 
             // Return the value or an empty string if not found
             return CompletableFuture.completedFuture(
-                    Message.valueOf(value != null ? value : "")
+                    Message.valueOf(value != null ? value.value() : "")
             );
         } catch (Exception e) {
             return CompletableFuture.failedFuture(e);
         }
     }
 
+    // Walks the ordered index and stops one key past the page, which is how it knows there is more
+    private ScanPage scan(ScanCommand scan, long now) {
+        final List<ScanPage.Entry> entries = new ArrayList<>(Math.min(scan.getLimit(), 64));
+        final boolean[] more = new boolean[1];
+        store.scan(scan.getStart(), scan.getEnd(), (key, stored) -> {
+            final StoredValue value = StoredValue.decode(stored);
+            if (value.expiredAt(now)) {
+                return true;
+            }
+            if (entries.size() == scan.getLimit()) {
+                more[0] = true;
+                return false;
+            }
+            entries.add(new ScanPage.Entry(key, value.value()));
+            return true;
+        });
+        return new ScanPage(entries, more[0] ? ScanPage.tokenAfter(entries.get(entries.size() - 1).key()) : null);
+    }
+
+    @Override
+    public CompletableFuture<Message> queryStale(Message request, long minIndex) {
+        if (appliedIndex() >= minIndex) {
+            return query(request);
+        }
+        final CompletableFuture<Void> waiter = appliedWaiters.computeIfAbsent(minIndex, index -> new CompletableFuture<>());
+        // The entry may have been applied between the check and registering the waiter
+        releaseWaiters(appliedIndex());
+        return waiter.thenCompose(ignored -> query(request));
+    }
+
+    private long appliedIndex() {
+        final TermIndex applied = getLastAppliedTermIndex();
+        return applied != null ? applied.getIndex() : RaftLog.INVALID_LOG_INDEX;
+    }
+
+    @Override
+    protected boolean updateLastAppliedTermIndex(TermIndex newTermIndex) {
+        final boolean updated = super.updateLastAppliedTermIndex(newTermIndex);
+        releaseWaiters(newTermIndex.getIndex());
+        return updated;
+    }
+
+    // Cheap when nobody waits, as on every apply without stale reads in flight
+    private void releaseWaiters(long appliedIndex) {
+        Map.Entry<Long, CompletableFuture<Void>> first;
+        while ((first = appliedWaiters.firstEntry()) != null && first.getKey() <= appliedIndex) {
+            if (appliedWaiters.remove(first.getKey(), first.getValue())) {
+                first.getValue().complete(null);
+            }
+        }
+    }
+
+    // The value as clients see it: decoded from the stored form, and null once its TTL has passed
     public String get(String key) {
-        return store.get(key);
+        final StoredValue value = read(key, System.currentTimeMillis());
+        return value != null ? value.value() : null;
+    }
+
+    public KeyValueStore getStore() {
+        return store;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (expiryProposer != null) {
+            expiryProposer.shutdownNow();
+        }
+        super.close();
+        meters.forEach(Metrics.globalRegistry::remove);
+        store.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,15 @@
+package com.example.distributedkeyvalue.model;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * An increment found a value that is not a 64-bit integer, or the result would overflow;
+ * nothing was written.
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class NotAnIntegerException extends RuntimeException {
+    public NotAnIntegerException(String key) {
+        super("Value of key " + key + " is not a 64-bit integer or the increment overflows");
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.distributedkeyvalue.model;
+
+import java.util.Locale;
+
+/**
+ * How a GET is served, passed as the {@code consistency} request parameter.
+ *
+ * LINEARIZABLE confirms leadership with a heartbeat round (ReadIndex) before reading.
+ * LEASE skips that round while the leader heard from a majority recently enough that no
+ * other leader can have been elected. STALE reads the local state machine of any replica.
+ */
+public enum ReadConsistency {
+    LINEARIZABLE,
+    LEASE,
+    STALE;
+
+    public static ReadConsistency fromParam(String value) {
+        if (value == null || value.isEmpty()) {
+            return LINEARIZABLE;
+        }
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown consistency level: " + value);
+        }
+    }
+
+    // Only stale reads can be answered by a follower
+    public boolean needsLeader() {
+        return this != STALE;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.distributedkeyvalue.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * One page of a key scan in ascending key order. {@code nextToken} is null on the last page;
+ * otherwise it resumes the scan right after the last key of this page. The token is the last
+ * key itself (base64url), so it stays valid whichever shards or nodes serve the next page.
+ */
+public record ScanPage(List<Entry> entries, String nextToken) {
+
+    public record Entry(String key, String value) { }
+
+    public static String tokenAfter(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Inclusive start bound for the page after the token; "\0" makes it the next possible key
+    public static String resumeFrom(String token) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8) + '\0';
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed continuation token: " + token);
+        }
+    }
+
+    /**
+     * Merges pages of the same range from different shards into the first {@code limit} keys
+     * overall. Shards own disjoint keys, so a k-way merge of the sorted pages is enough, and
+     * the result is complete only if every shard page was its last and nothing was cut off.
+     */
+    public static ScanPage merge(List<ScanPage> pages, int limit) {
+        record Cursor(List<Entry> entries, int position) {
+            Entry head() {
+                return entries.get(position);
+            }
+        }
+
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Comparator.comparing((Cursor cursor) -> cursor.head().key()));
+        boolean more = false;
+        for (ScanPage page : pages) {
+            more |= page.nextToken() != null;
+            if (!page.entries().isEmpty()) {
+                heads.add(new Cursor(page.entries(), 0));
+            }
+        }
+
+        List<Entry> merged = new ArrayList<>(limit);
+        while (!heads.isEmpty() && merged.size() < limit) {
+            Cursor cursor = heads.poll();
+            merged.add(cursor.head());
+            if (cursor.position() + 1 < cursor.entries().size()) {
+                heads.add(new Cursor(cursor.entries(), cursor.position() + 1));
+            }
+        }
+        more |= !heads.isEmpty();
+        return new ScanPage(merged, more && !merged.isEmpty() ? tokenAfter(merged.get(merged.size() - 1).key()) : null);
+    }
+}
@@ -0,0 +1,6 @@
+package com.example.distributedkeyvalue.model;
+
+import java.util.List;
+
+// Keys of a multi-key request that live on the same shard
+public record ShardAssignment(ShardInfo shard, List<String> keys) { }
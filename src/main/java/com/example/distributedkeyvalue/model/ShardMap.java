@@ -0,0 +1,137 @@
+package com.example.distributedkeyvalue.model;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.ratis.thirdparty.com.google.common.hash.HashFunction;
+import org.apache.ratis.thirdparty.com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * An immutable, versioned consistent-hashing ring. The epoch increases on every change, so
+ * holders can tell when their copy is stale and resolve keys in-process.
+ *
+ * Only the epoch, the virtual node count and the shard → nodes table travel over the wire;
+ * the ring itself is rebuilt deterministically from them. Each shard owns
+ * {@code virtualNodes} points, hashed with 64-bit murmur3 from the shard ID alone, so
+ * moving a shard's replicas does not move its keys.
+ */
+@JsonAutoDetect(getterVisibility = JsonAutoDetect.Visibility.NONE,
+        isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+public final class ShardMap {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final long epoch;
+    private final int virtualNodes;
+    private final Map<String, List<String>> shardToNodes; // Shard ID → Raft nodes
+
+    // Ring points sorted ascending; owners[i] is the shard owning points[i]
+    private final long[] points;
+    private final String[] owners;
+
+    @JsonCreator
+    public ShardMap(@JsonProperty("epoch") long epoch,
+                    @JsonProperty("virtualNodes") int virtualNodes,
+                    @JsonProperty("shardToNodes") Map<String, List<String>> shardToNodes) {
+        this.epoch = epoch;
+        this.virtualNodes = virtualNodes;
+        this.shardToNodes = Map.copyOf(shardToNodes);
+
+        List<Map.Entry<Long, String>> ring = new ArrayList<>(this.shardToNodes.size() * virtualNodes);
+        for (String shardId : this.shardToNodes.keySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.add(Map.entry(hashKey(shardId + "#" + i), shardId));
+            }
+        }
+        // Ties are broken by shard ID so every holder builds the same ring
+        ring.sort(Map.Entry.<Long, String>comparingByKey().thenComparing(Map.Entry.comparingByValue()));
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+        for (int i = 0; i < ring.size(); i++) {
+            points[i] = ring.get(i).getKey();
+            owners[i] = ring.get(i).getValue();
+        }
+    }
+
+    public static ShardMap empty(int virtualNodes) {
+        return new ShardMap(0, virtualNodes, Map.of());
+    }
+
+    public static long hashKey(String key) {
+        return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+
+    @JsonProperty
+    public long epoch() {
+        return epoch;
+    }
+
+    @JsonProperty
+    public int virtualNodes() {
+        return virtualNodes;
+    }
+
+    @JsonProperty
+    public Map<String, List<String>> shardToNodes() {
+        return shardToNodes;
+    }
+
+    public boolean hasShards() {
+        return points.length > 0;
+    }
+
+    public String shardIdFor(String key) {
+        if (points.length == 0) {
+            throw new IllegalStateException("No shards registered");
+        }
+        int index = Arrays.binarySearch(points, hashKey(key));
+        if (index < 0) {
+            index = -index - 1; // First point after the hash
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    public ShardInfo shardFor(String key) {
+        String shardId = shardIdFor(key);
+        return new ShardInfo(shardId, shardToNodes.get(shardId));
+    }
+
+    // Every shard, ordered by ID
+    public List<ShardInfo> shards() {
+        return shardToNodes.keySet().stream()
+                .sorted()
+                .map(shardId -> new ShardInfo(shardId, shardToNodes.get(shardId)))
+                .collect(Collectors.toList());
+    }
+
+    // Groups keys by owning shard, keeping the first-seen shard order
+    public List<ShardAssignment> assign(List<String> keys) {
+        Map<String, List<String>> keysByShard = new LinkedHashMap<>();
+        for (String key : keys) {
+            keysByShard.computeIfAbsent(shardIdFor(key), id -> new ArrayList<>()).add(key);
+        }
+        List<ShardAssignment> assignments = new ArrayList<>(keysByShard.size());
+        keysByShard.forEach((shardId, shardKeys) ->
+                assignments.add(new ShardAssignment(new ShardInfo(shardId, shardToNodes.get(shardId)), shardKeys)));
+        return assignments;
+    }
+
+    // Copy with one shard added or replaced, at the next epoch
+    public ShardMap withShard(String shardId, List<String> nodes) {
+        Map<String, List<String>> next = new LinkedHashMap<>(shardToNodes);
+        next.put(shardId, List.copyOf(nodes));
+        return new ShardMap(epoch + 1, virtualNodes, next);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardMap[epoch=" + epoch + ", virtualNodes=" + virtualNodes + ", shardToNodes=" + shardToNodes + "]";
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.distributedkeyvalue.model;
+
+/**
+ * A value as the state machine lays it out in the store: the value preceded by a header with
+ * its metadata, so snapshots and durable engines carry the metadata without format changes.
+ *
+ * <pre>
+ * "\0" [field]("," [field])* "\0" value
+ * field: "v" + version (Raft index of the last write) | "e" + expiry in epoch millis, both base 36
+ *      | "z": the value is LZ4-compressed and packed, see {@link ValueCompression}
+ * </pre>
+ *
+ * Values written before headers existed are plain, and read back with version 0 and no
+ * expiry; a plain value that itself starts with "\0" is never written without a header.
+ * A compressed value is only expanded when {@link #value()} is called, so version checks and
+ * expiry never pay for it.
+ */
+public record StoredValue(String value, long version, long expireAt, boolean compressed) {
+    private static final char MARK = '\0';
+
+    public StoredValue(String value, long version, long expireAt) {
+        this(value, version, expireAt, false);
+    }
+
+    public static String encode(String value, long version, long expireAt) {
+        return encode(value, version, expireAt, false);
+    }
+
+    // A compressed value is passed packed, as ValueCompression.pack returns it
+    public static String encode(String value, long version, long expireAt, boolean compressed) {
+        final StringBuilder stored = new StringBuilder(value.length() + 24).append(MARK);
+        String separator = "";
+        if (version > 0) {
+            stored.append('v').append(Long.toString(version, 36));
+            separator = ",";
+        }
+        if (expireAt > 0) {
+            stored.append(separator).append('e').append(Long.toString(expireAt, 36));
+            separator = ",";
+        }
+        if (compressed) {
+            stored.append(separator).append('z');
+        }
+        return stored.append(MARK).append(value).toString();
+    }
+
+    public static StoredValue decode(String stored) {
+        if (!hasHeader(stored)) {
+            return new StoredValue(stored, 0, 0);
+        }
+        final int end = stored.indexOf(MARK, 1);
+        long version = 0;
+        long expireAt = 0;
+        boolean compressed = false;
+        int field = 1;
+        while (field < end) {
+            int next = stored.indexOf(',', field);
+            if (next < 0 || next > end) {
+                next = end;
+            }
+            switch (stored.charAt(field)) {
+                case 'v' -> version = Long.parseLong(stored, field + 1, next, 36);
+                case 'e' -> expireAt = Long.parseLong(stored, field + 1, next, 36);
+                case 'z' -> compressed = true;
+                default -> { } // Added by a newer version; skipped
+            }
+            field = next + 1;
+        }
+        return new StoredValue(stored.substring(end + 1), version, expireAt, compressed);
+    }
+
+    // The plain value, expanded on every call when it is stored compressed
+    @Override
+    public String value() {
+        return compressed ? ValueCompression.decompressPacked(value) : value;
+    }
+
+    public static boolean hasHeader(String stored) {
+        return !stored.isEmpty() && stored.charAt(0) == MARK;
+    }
+
+    public boolean expiredAt(long now) {
+        return expireAt > 0 && expireAt <= now;
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.distributedkeyvalue.model;
+
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Values uploaded in chunks, each chunk its own log entry, until the entry that commits the
+ * upload moves the whole value into the store. The bytes wait in one file per upload, so no
+ * entry, message or buffer ever holds more than a chunk of them.
+ *
+ * Like the heap store, the files are rebuilt rather than trusted after a restart: they are
+ * cleared, restored from the snapshot and the chunks after it are applied again. Uploads no
+ * chunk has touched for {@code kv.upload.timeout-ms} (application.yml, 10 minutes by default),
+ * going by the clock in the entries, are dropped, so every replica drops the same ones at the
+ * same entry. Replicas must agree on the timeout for that.
+ *
+ * Only the apply thread uses it, which is also the thread that takes snapshots.
+ */
+final class UploadStaging {
+    static final long DEFAULT_TIMEOUT_MS = 600_000;
+    private static final Pattern UPLOAD_ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    // A broken upload lost a chunk; it is kept, without its bytes, so that its commit fails
+    private record Upload(long length, long touchedAt, boolean broken) { }
+
+    // Sorted, so snapshots list uploads in the same order on every replica
+    private final Map<String, Upload> uploads = new TreeMap<>();
+    private final long timeoutMs;
+    private Path directory;
+
+    UploadStaging() {
+        this(DEFAULT_TIMEOUT_MS);
+    }
+
+    UploadStaging(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    // Clears whatever a previous run left behind
+    void open(File directory) throws IOException {
+        this.directory = directory.toPath();
+        Files.createDirectories(this.directory);
+        clear();
+    }
+
+    void clear() throws IOException {
+        uploads.clear();
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    int size() {
+        return uploads.size();
+    }
+
+    /**
+     * Appends a chunk at offset. A chunk that ends within what the upload already holds was
+     * proposed twice and is skipped; one that does not start where the upload ends breaks it.
+     */
+    void append(String uploadId, long offset, ByteString data, long now) throws IOException {
+        checkOpen(uploadId);
+        expire(now);
+        final Upload upload = uploads.getOrDefault(uploadId, new Upload(0, now, false));
+        if (upload.broken() || offset + data.size() <= upload.length()) {
+            uploads.put(uploadId, new Upload(upload.length(), now, upload.broken()));
+            return;
+        }
+        if (offset != upload.length()) {
+            Files.deleteIfExists(file(uploadId));
+            uploads.put(uploadId, new Upload(0, now, true));
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file(uploadId), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = offset;
+            for (ByteBuffer buffer : data.asReadOnlyByteBufferList()) {
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        }
+        uploads.put(uploadId, new Upload(offset + data.size(), now, false));
+    }
+
+    /**
+     * Removes the upload and returns its UTF-8 bytes, or throws IllegalStateException when it is
+     * unknown, broken or not length bytes long.
+     */
+    byte[] take(String uploadId, long length) throws IOException {
+        checkOpen(uploadId);
+        final Upload upload = uploads.remove(uploadId);
+        try {
+            if (upload == null || upload.broken() || upload.length() != length) {
+                throw new IllegalStateException("Upload " + uploadId + " is incomplete");
+            }
+            return Files.readAllBytes(file(uploadId));
+        } finally {
+            Files.deleteIfExists(file(uploadId));
+        }
+    }
+
+    void discard(String uploadId) throws IOException {
+        checkOpen(uploadId);
+        uploads.remove(uploadId);
+        Files.deleteIfExists(file(uploadId));
+    }
+
+    private void expire(long now) throws IOException {
+        final Iterator<Map.Entry<String, Upload>> it = uploads.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Upload> entry = it.next();
+            if (entry.getValue().touchedAt() + timeoutMs < now) {
+                it.remove();
+                Files.deleteIfExists(file(entry.getKey()));
+            }
+        }
+    }
+
+    // [count]([id][length][touched at][broken][bytes])*, the bytes streamed from the files
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(uploads.size());
+        for (Map.Entry<String, Upload> entry : uploads.entrySet()) {
+            final Upload upload = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(upload.length());
+            out.writeLong(upload.touchedAt());
+            out.writeBoolean(upload.broken());
+            if (!upload.broken() && upload.length() > 0) {
+                try (InputStream in = Files.newInputStream(file(entry.getKey()))) {
+                    copy(in, out, upload.length());
+                }
+            }
+        }
+    }
+
+    void readFrom(DataInputStream in) throws IOException {
+        clear();
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final String uploadId = in.readUTF();
+            checkOpen(uploadId);
+            final Upload upload = new Upload(in.readLong(), in.readLong(), in.readBoolean());
+            if (!upload.broken() && upload.length() > 0) {
+                try (OutputStream out = Files.newOutputStream(file(uploadId))) {
+                    copy(in, out, upload.length());
+                }
+            }
+            uploads.put(uploadId, upload);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        final byte[] buffer = new byte[COPY_BUFFER];
+        long remaining = length;
+        while (remaining > 0) {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Upload ended " + remaining + " bytes early");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    // The id names a file, so it is checked before it gets near the file system
+    private void checkOpen(String uploadId) {
+        if (directory == null) {
+            throw new IllegalStateException("Upload staging is not open");
+        }
+        if (!UPLOAD_ID.matcher(uploadId).matches()) {
+            throw new IllegalArgumentException("Invalid upload id: " + uploadId);
+        }
+    }
+
+    private Path file(String uploadId) {
+        return directory.resolve(uploadId + ".upload");
+    }
+}
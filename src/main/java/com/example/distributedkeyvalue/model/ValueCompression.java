@@ -0,0 +1,170 @@
+package com.example.distributedkeyvalue.model;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LZ4 compression of large values. A value of at least {@code kv.compression.threshold} chars
+ * (application.yml, 0 turns it off) is compressed once, when its PUT is encoded for the log, and
+ * stays compressed in the log, on the way to the followers and in the store; it is only expanded
+ * when read. Nodes that predate compression cannot apply such entries, so upgrade them all first.
+ *
+ * <pre>
+ * compressed: [varint utf8 length][lz4 block]
+ * </pre>
+ *
+ * The store holds strings, so it keeps the compressed bytes packed 7 bits to a char: every char
+ * is ASCII, which costs one byte both in the heap's Latin-1 strings and in the UTF-8 engines.
+ */
+public final class ValueCompression {
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    // The block comes from the log, so it is bounds-checked rather than trusted
+    private static final LZ4SafeDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+    private ValueCompression() {
+    }
+
+    // Null when the value is below the threshold (0: never compress) or does not compress well
+    // enough to pay for itself
+    public static byte[] compressIfLarge(String value, int threshold) {
+        return threshold > 0 && value.length() >= threshold ? compress(value) : null;
+    }
+
+    // For values that arrive as UTF-8, such as committed uploads; the threshold counts bytes here
+    public static byte[] compressIfLarge(byte[] plain, int threshold) {
+        return threshold > 0 && plain.length >= threshold ? compress(plain) : null;
+    }
+
+    // Null unless the packed form in the store would still be smaller than the plain value
+    public static byte[] compress(String value) {
+        return compress(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static byte[] compress(byte[] plain) {
+        final int header = varintSize(plain.length);
+        final byte[] buffer = new byte[header + COMPRESSOR.maxCompressedLength(plain.length)];
+        writeVarint(buffer, plain.length);
+        final int length = header + COMPRESSOR.compress(plain, 0, plain.length, buffer, header);
+        if (packedLength(length) >= plain.length) {
+            return null;
+        }
+        final byte[] compressed = new byte[length];
+        System.arraycopy(buffer, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    public static String decompress(byte[] compressed) {
+        int plainLength = 0;
+        int header = 0;
+        byte b;
+        do {
+            if (header == 5) {
+                throw new IllegalArgumentException("Malformed compressed value");
+            }
+            b = compressed[header];
+            plainLength |= (b & 0x7f) << (7 * header++);
+        } while (b < 0);
+        if (plainLength < 0) {
+            throw new IllegalArgumentException("Malformed compressed value");
+        }
+
+        final byte[] plain = new byte[plainLength];
+        final int length = DECOMPRESSOR.decompress(compressed, header, compressed.length - header, plain, 0, plainLength);
+        if (length != plainLength) {
+            throw new IllegalArgumentException("Malformed compressed value");
+        }
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    public static String decompressPacked(String packed) {
+        return decompress(unpack(packed));
+    }
+
+    // 8 chars for every 7 bytes, high bits first; the last char is padded with zero bits
+    public static String pack(byte[] bytes) {
+        final byte[] packed = new byte[packedLength(bytes.length)];
+        int in = 0;
+        int out = 0;
+        // Whole groups: 56 bits in, 8 chars out
+        for (; in + 7 <= bytes.length; in += 7, out += 8) {
+            long group = 0;
+            for (int i = 0; i < 7; i++) {
+                group = group << 8 | (bytes[in + i] & 0xff);
+            }
+            for (int i = 7; i >= 0; i--) {
+                packed[out + 7 - i] = (byte) (group >>> (7 * i) & 0x7f);
+            }
+        }
+        int bits = 0;
+        int pending = 0;
+        for (; in < bytes.length; in++) {
+            pending = pending << 8 | (bytes[in] & 0xff);
+            bits += 8;
+            while (bits >= 7) {
+                bits -= 7;
+                packed[out++] = (byte) (pending >>> bits & 0x7f);
+            }
+            pending &= (1 << bits) - 1;
+        }
+        if (bits > 0) {
+            packed[out] = (byte) (pending << (7 - bits));
+        }
+        return new String(packed, StandardCharsets.ISO_8859_1);
+    }
+
+    public static byte[] unpack(String packed) {
+        final byte[] chars = packed.getBytes(StandardCharsets.ISO_8859_1);
+        final byte[] bytes = new byte[(int) (chars.length * 7L / 8)];
+        int in = 0;
+        int out = 0;
+        for (; out + 7 <= bytes.length; in += 8, out += 7) {
+            long group = 0;
+            for (int i = 0; i < 8; i++) {
+                group = group << 7 | chars[in + i];
+            }
+            for (int i = 6; i >= 0; i--) {
+                bytes[out + 6 - i] = (byte) (group >>> (8 * i));
+            }
+        }
+        int bits = 0;
+        int pending = 0;
+        for (; in < chars.length; in++) {
+            pending = pending << 7 | chars[in];
+            bits += 7;
+            if (bits >= 8) {
+                bits -= 8;
+                if (out < bytes.length) {
+                    bytes[out++] = (byte) (pending >>> bits);
+                }
+                pending &= (1 << bits) - 1;
+            }
+        }
+        return bytes;
+    }
+
+    private static int packedLength(int bytes) {
+        return (int) ((bytes * 8L + 6) / 7);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarint(byte[] buffer, int value) {
+        int i = 0;
+        while ((value & ~0x7f) != 0) {
+            buffer[i++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        buffer[i] = (byte) value;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.distributedkeyvalue.model;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * A conditional write found the key at a different version than expected; nothing was written.
+ */
+@ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+public class VersionMismatchException extends RuntimeException {
+    private final long currentVersion;
+
+    public VersionMismatchException(String key, long expectedVersion, long currentVersion) {
+        super("Key " + key + " is at version " + currentVersion + ", expected " + expectedVersion);
+        this.currentVersion = currentVersion;
+    }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+}
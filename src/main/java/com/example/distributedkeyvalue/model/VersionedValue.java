@@ -0,0 +1,12 @@
+package com.example.distributedkeyvalue.model;
+
+/**
+ * A value with its version: the Raft log index of the write that set it. Versions only grow,
+ * so a version seen on a read identifies that exact write for a later compare-and-set.
+ */
+public record VersionedValue(String value, long version) {
+    // Expected version of an unconditional write
+    public static final long ANY = -1;
+    // Expected version of a write that only succeeds if the key does not exist
+    public static final long ABSENT = 0;
+}
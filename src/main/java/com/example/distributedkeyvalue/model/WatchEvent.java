@@ -0,0 +1,26 @@
+package com.example.distributedkeyvalue.model;
+
+/**
+ * One event of a watch stream. {@code put} and {@code delete} carry the key, its new value
+ * (null when deleted) and the Raft index of the write, which is also the key's new version.
+ * {@code resync} ends the stream of a watcher that fell too far behind: re-read the keys it
+ * cares about, then watch the shard again from {@code index}. Events of one shard arrive in
+ * index order; replaying one that was already seen is harmless, as it carries the full value.
+ */
+public record WatchEvent(String type, String shard, String key, String value, long index) {
+    public static final String PUT = "put";
+    public static final String DELETE = "delete";
+    public static final String RESYNC = "resync";
+
+    public static WatchEvent of(String shard, ChangeFeed.Change change) {
+        return new WatchEvent(change.value() != null ? PUT : DELETE, shard, change.key(), change.value(), change.index());
+    }
+
+    public static WatchEvent resync(String shard, long index) {
+        return new WatchEvent(RESYNC, shard, null, null, index);
+    }
+
+    public boolean isResync() {
+        return RESYNC.equals(type);
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.distributedkeyvalue.model;
+
+/**
+ * Outcome of a PUT or DELETE. When applied, {@code version} is the Raft index of the write;
+ * when a condition did not hold, it is the key's current version (0 if it does not exist).
+ */
+public record WriteResult(boolean applied, long version) { }
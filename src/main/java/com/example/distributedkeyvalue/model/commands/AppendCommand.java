@@ -0,0 +1,45 @@
+package com.example.distributedkeyvalue.model.commands;
+
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+
+/**
+ * Appends to a key's value, creating the key if it is missing. Like IncrementCommand it carries
+ * the proposer's clock, so replicas agree on whether the current value has expired.
+ */
+public class AppendCommand implements Message {
+    private final String key;
+    private final String value;
+    private final long now;
+    private ByteString content;
+
+    public AppendCommand(String key, String value, long now) {
+        this.key = key;
+        this.value = value;
+        this.now = now;
+    }
+
+    @Override
+    public ByteString getContent() {
+        if (content == null) {
+            content = CommandCodec.encodeAppend(key, value, now);
+        }
+        return content;
+    }
+
+    public static AppendCommand from(ByteString byteString) {
+        return (AppendCommand) CommandCodec.decode(byteString);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getNow() {
+        return now;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.distributedkeyvalue.model.commands;
+
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+
+import java.util.List;
+
+/**
+ * Several PUT and DELETE operations on one shard, committed as a single Raft log entry.
+ */
+public class BatchCommand implements Message {
+    private final List<Message> operations;
+    private ByteString content;
+
+    public BatchCommand(List<Message> operations) {
+        this.operations = operations;
+    }
+
+    @Override
+    public ByteString getContent() {
+        if (content == null) {
+            content = CommandCodec.encodeBatch(operations);
+        }
+        return content;
+    }
+
+    public static BatchCommand from(ByteString byteString) {
+        return (BatchCommand) CommandCodec.decode(byteString);
+    }
+
+    public List<Message> getOperations() {
+        return operations;
+    }
+}
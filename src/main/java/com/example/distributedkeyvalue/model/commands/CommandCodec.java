@@ -0,0 +1,735 @@
+package com.example.distributedkeyvalue.model.commands;
+
+import com.example.distributedkeyvalue.model.ScanPage;
+import com.example.distributedkeyvalue.model.VersionedValue;
+import com.example.distributedkeyvalue.model.WriteResult;
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.apache.ratis.thirdparty.com.google.protobuf.CodedInputStream;
+import org.apache.ratis.thirdparty.com.google.protobuf.CodedOutputStream;
+import org.apache.ratis.thirdparty.com.google.protobuf.UnsafeByteOperations;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary wire format for commands written to the Raft log and sent as read queries.
+ *
+ * <pre>
+ * [format version][opcode][varint key length][key utf8]([varint value length][value utf8])
+ * [format version][OP_BATCH][varint count]([opcode][key]([value]([expire at])))*
+ * [format version][OP_MULTI_GET][varint count]([key])*
+ * [format version][OP_SCAN][bounds flags]([start])([end])[varint limit]
+ * [format version][OP_PUT_EXPIRING][key][value][varint expire at]
+ * [format version][OP_EXPIRE][varint now][varint count]([key])*
+ * [format version][OP_PUT_IF][key][value][varint expire at][varint expected version]([varint now])
+ * [format version][OP_DELETE_IF][key][varint expected version]([varint now])
+ * [format version][OP_INCR][key][zigzag varint delta][varint now]
+ * [format version][OP_APPEND][key][value][varint now]
+ * [format version][OP_UPLOAD_CHUNK][upload id][varint offset][varint now][varint length][bytes]
+ * [format version][OP_COMMIT_UPLOAD][key][upload id][varint length][varint expire at][varint expected version]([varint now])
+ * </pre>
+ *
+ * Conditional writes end with the proposer's clock, against which the version check treats a
+ * key past its TTL as absent. Entries written before it was added end without it and read as 0,
+ * which checks against the stored version whatever its TTL, as they were applied then.
+ *
+ * PUT opcodes, in batches too, may carry the {@link #VALUE_COMPRESSED} bit: the value is then
+ * [varint length][compressed bytes] as ValueCompression produces them, instead of UTF-8.
+ *
+ * The format version byte is never a printable character, so entries written with the
+ * old "PUT:key:value" text format are still recognised and decoded.
+ */
+public final class CommandCodec {
+    public static final byte FORMAT_VERSION = 1;
+
+    public static final byte OP_PUT = 1;
+    public static final byte OP_DELETE = 2;
+    public static final byte OP_GET = 3;
+    public static final byte OP_BATCH = 4;
+    public static final byte OP_MULTI_GET = 5;
+    public static final byte OP_SCAN = 6;
+    public static final byte OP_PUT_EXPIRING = 7;
+    public static final byte OP_EXPIRE = 8;
+    public static final byte OP_GET_VERSIONED = 9;
+    public static final byte OP_PUT_IF = 10;
+    public static final byte OP_DELETE_IF = 11;
+    public static final byte OP_INCR = 12;
+    public static final byte OP_APPEND = 13;
+    public static final byte OP_UPLOAD_CHUNK = 14;
+    public static final byte OP_COMMIT_UPLOAD = 15;
+
+    public static final byte VALUE_COMPRESSED = 0x40;
+
+    private static final int HAS_START = 1;
+    private static final int HAS_END = 2;
+
+    private CommandCodec() {
+    }
+
+    static ByteString encode(byte opcode, String key) {
+        final byte[] buffer = new byte[2 + CodedOutputStream.computeStringSizeNoTag(key)];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(opcode);
+            out.writeStringNoTag(key);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    static ByteString encodePut(PutCommand put) {
+        final byte[] buffer = new byte[2 + CodedOutputStream.computeStringSizeNoTag(put.getKey()) + valueSize(put)];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(putOpcode(OP_PUT, put));
+            out.writeStringNoTag(put.getKey());
+            writeValue(out, put);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    static ByteString encodeExpiringPut(PutCommand put) {
+        final byte[] buffer = new byte[2 + CodedOutputStream.computeStringSizeNoTag(put.getKey())
+                + valueSize(put)
+                + CodedOutputStream.computeUInt64SizeNoTag(put.getExpireAt())];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(putOpcode(OP_PUT_EXPIRING, put));
+            out.writeStringNoTag(put.getKey());
+            writeValue(out, put);
+            out.writeUInt64NoTag(put.getExpireAt());
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    static ByteString encodeConditionalPut(PutCommand put) {
+        final byte[] buffer = new byte[2 + CodedOutputStream.computeStringSizeNoTag(put.getKey())
+                + valueSize(put)
+                + CodedOutputStream.computeUInt64SizeNoTag(put.getExpireAt())
+                + CodedOutputStream.computeUInt64SizeNoTag(put.getExpectedVersion())
+                + CodedOutputStream.computeUInt64SizeNoTag(put.getNow())];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(putOpcode(OP_PUT_IF, put));
+            out.writeStringNoTag(put.getKey());
+            writeValue(out, put);
+            out.writeUInt64NoTag(put.getExpireAt());
+            out.writeUInt64NoTag(put.getExpectedVersion());
+            out.writeUInt64NoTag(put.getNow());
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    private static byte putOpcode(byte opcode, PutCommand put) {
+        return put.getCompressedValue() != null ? (byte) (opcode | VALUE_COMPRESSED) : opcode;
+    }
+
+    private static int valueSize(PutCommand put) {
+        final byte[] compressed = put.getCompressedValue();
+        return compressed != null
+                ? CodedOutputStream.computeByteArraySizeNoTag(compressed)
+                : CodedOutputStream.computeStringSizeNoTag(put.getValue());
+    }
+
+    private static void writeValue(CodedOutputStream out, PutCommand put) throws IOException {
+        final byte[] compressed = put.getCompressedValue();
+        if (compressed != null) {
+            out.writeByteArrayNoTag(compressed);
+        } else {
+            out.writeStringNoTag(put.getValue());
+        }
+    }
+
+    static ByteString encodeConditionalDelete(String key, long expectedVersion, long now) {
+        final byte[] buffer = new byte[2 + CodedOutputStream.computeStringSizeNoTag(key)
+                + CodedOutputStream.computeUInt64SizeNoTag(expectedVersion)
+                + CodedOutputStream.computeUInt64SizeNoTag(now)];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(OP_DELETE_IF);
+            out.writeStringNoTag(key);
+            out.writeUInt64NoTag(expectedVersion);
+            out.writeUInt64NoTag(now);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    static ByteString encodeIncrement(String key, long delta, long now) {
+        final byte[] buffer = new byte[2 + CodedOutputStream.computeStringSizeNoTag(key)
+                + CodedOutputStream.computeSInt64SizeNoTag(delta)
+                + CodedOutputStream.computeUInt64SizeNoTag(now)];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(OP_INCR);
+            out.writeStringNoTag(key);
+            out.writeSInt64NoTag(delta);
+            out.writeUInt64NoTag(now);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    static ByteString encodeAppend(String key, String value, long now) {
+        final byte[] buffer = new byte[2 + CodedOutputStream.computeStringSizeNoTag(key)
+                + CodedOutputStream.computeStringSizeNoTag(value)
+                + CodedOutputStream.computeUInt64SizeNoTag(now)];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(OP_APPEND);
+            out.writeStringNoTag(key);
+            out.writeStringNoTag(value);
+            out.writeUInt64NoTag(now);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    // The chunk is appended to the header without being copied
+    static ByteString encodeUploadChunk(UploadChunkCommand chunk) {
+        final byte[] buffer = new byte[2 + CodedOutputStream.computeStringSizeNoTag(chunk.getUploadId())
+                + CodedOutputStream.computeUInt64SizeNoTag(chunk.getOffset())
+                + CodedOutputStream.computeUInt64SizeNoTag(chunk.getNow())
+                + CodedOutputStream.computeUInt32SizeNoTag(chunk.getData().size())];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(OP_UPLOAD_CHUNK);
+            out.writeStringNoTag(chunk.getUploadId());
+            out.writeUInt64NoTag(chunk.getOffset());
+            out.writeUInt64NoTag(chunk.getNow());
+            out.writeUInt32NoTag(chunk.getData().size());
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer).concat(chunk.getData());
+    }
+
+    static ByteString encodeCommitUpload(CommitUploadCommand commit) {
+        final byte[] buffer = new byte[2 + CodedOutputStream.computeStringSizeNoTag(commit.getKey())
+                + CodedOutputStream.computeStringSizeNoTag(commit.getUploadId())
+                + CodedOutputStream.computeUInt64SizeNoTag(commit.getLength())
+                + CodedOutputStream.computeUInt64SizeNoTag(commit.getExpireAt())
+                + CodedOutputStream.computeUInt64SizeNoTag(commit.getExpectedVersion())
+                + CodedOutputStream.computeUInt64SizeNoTag(commit.getNow())];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(OP_COMMIT_UPLOAD);
+            out.writeStringNoTag(commit.getKey());
+            out.writeStringNoTag(commit.getUploadId());
+            out.writeUInt64NoTag(commit.getLength());
+            out.writeUInt64NoTag(commit.getExpireAt());
+            out.writeUInt64NoTag(commit.getExpectedVersion());
+            out.writeUInt64NoTag(commit.getNow());
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    static ByteString encodeExpire(long now, List<String> keys) {
+        int size = 2 + CodedOutputStream.computeUInt64SizeNoTag(now) + CodedOutputStream.computeUInt32SizeNoTag(keys.size());
+        for (String key : keys) {
+            size += CodedOutputStream.computeStringSizeNoTag(key);
+        }
+
+        final byte[] buffer = new byte[size];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(OP_EXPIRE);
+            out.writeUInt64NoTag(now);
+            out.writeUInt32NoTag(keys.size());
+            for (String key : keys) {
+                out.writeStringNoTag(key);
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    static ByteString encodeBatch(List<Message> operations) {
+        int size = 2 + CodedOutputStream.computeUInt32SizeNoTag(operations.size());
+        for (Message operation : operations) {
+            size += 1 + operationSize(operation);
+        }
+
+        final byte[] buffer = new byte[size];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(OP_BATCH);
+            out.writeUInt32NoTag(operations.size());
+            for (Message operation : operations) {
+                if (operation instanceof PutCommand put) {
+                    out.writeRawByte(putOpcode(put.getExpireAt() > 0 ? OP_PUT_EXPIRING : OP_PUT, put));
+                    out.writeStringNoTag(put.getKey());
+                    writeValue(out, put);
+                    if (put.getExpireAt() > 0) {
+                        out.writeUInt64NoTag(put.getExpireAt());
+                    }
+                } else {
+                    out.writeRawByte(OP_DELETE);
+                    out.writeStringNoTag(((DeleteCommand) operation).getKey());
+                }
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    private static int operationSize(Message operation) {
+        if (operation instanceof PutCommand put && put.getExpectedVersion() != VersionedValue.ANY
+                || operation instanceof DeleteCommand delete && delete.getExpectedVersion() != VersionedValue.ANY) {
+            throw new IllegalArgumentException("Batches only hold unconditional writes");
+        }
+        if (operation instanceof PutCommand put) {
+            return CodedOutputStream.computeStringSizeNoTag(put.getKey())
+                    + valueSize(put)
+                    + (put.getExpireAt() > 0 ? CodedOutputStream.computeUInt64SizeNoTag(put.getExpireAt()) : 0);
+        }
+        if (operation instanceof DeleteCommand delete) {
+            return CodedOutputStream.computeStringSizeNoTag(delete.getKey());
+        }
+        throw new IllegalArgumentException("Batches only hold PUT and DELETE, got " + operation.getClass().getSimpleName());
+    }
+
+    static ByteString encodeMultiGet(List<String> keys) {
+        int size = 2 + CodedOutputStream.computeUInt32SizeNoTag(keys.size());
+        for (String key : keys) {
+            size += CodedOutputStream.computeStringSizeNoTag(key);
+        }
+
+        final byte[] buffer = new byte[size];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(OP_MULTI_GET);
+            out.writeUInt32NoTag(keys.size());
+            for (String key : keys) {
+                out.writeStringNoTag(key);
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    static ByteString encodeScan(String start, String end, int limit) {
+        final int size = 3 + CodedOutputStream.computeUInt32SizeNoTag(limit)
+                + (start != null ? CodedOutputStream.computeStringSizeNoTag(start) : 0)
+                + (end != null ? CodedOutputStream.computeStringSizeNoTag(end) : 0);
+        final byte[] buffer = new byte[size];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(FORMAT_VERSION);
+            out.writeRawByte(OP_SCAN);
+            out.writeRawByte((start != null ? HAS_START : 0) | (end != null ? HAS_END : 0));
+            if (start != null) {
+                out.writeStringNoTag(start);
+            }
+            if (end != null) {
+                out.writeStringNoTag(end);
+            }
+            out.writeUInt32NoTag(limit);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    /**
+     * Encodes a versioned GET reply as [present](([varint version][value]))?, a null value
+     * meaning the key does not exist. INCR and APPEND reply the same way with the key's new
+     * value, null meaning an INCR was rejected.
+     */
+    public static ByteString encodeVersionedValue(VersionedValue value) {
+        if (value == null) {
+            return ByteString.copyFrom(new byte[]{0});
+        }
+        final byte[] buffer = new byte[1 + CodedOutputStream.computeUInt64SizeNoTag(value.version())
+                + CodedOutputStream.computeStringSizeNoTag(value.value())];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(1);
+            out.writeUInt64NoTag(value.version());
+            out.writeStringNoTag(value.value());
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    public static VersionedValue decodeVersionedValue(ByteString data) {
+        try {
+            final CodedInputStream in = data.newCodedInput();
+            if (in.readRawByte() == 0) {
+                return null;
+            }
+            final long version = in.readUInt64();
+            return new VersionedValue(in.readString(), version);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed versioned value", e);
+        }
+    }
+
+    /**
+     * Encodes a PUT or DELETE reply as [applied][varint version].
+     */
+    public static ByteString encodeWriteResult(WriteResult result) {
+        final byte[] buffer = new byte[1 + CodedOutputStream.computeUInt64SizeNoTag(result.version())];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeRawByte(result.applied() ? 1 : 0);
+            out.writeUInt64NoTag(result.version());
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    public static WriteResult decodeWriteResult(ByteString data) {
+        try {
+            final CodedInputStream in = data.newCodedInput();
+            final boolean applied = in.readRawByte() != 0;
+            return new WriteResult(applied, in.readUInt64());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed write result", e);
+        }
+    }
+
+    /**
+     * Encodes a scan reply as [has token]([next token])[varint count]([key][value])*.
+     */
+    public static ByteString encodeScanPage(ScanPage page) {
+        int size = 1 + CodedOutputStream.computeUInt32SizeNoTag(page.entries().size());
+        if (page.nextToken() != null) {
+            size += CodedOutputStream.computeStringSizeNoTag(page.nextToken());
+        }
+        for (ScanPage.Entry entry : page.entries()) {
+            size += CodedOutputStream.computeStringSizeNoTag(entry.key())
+                    + CodedOutputStream.computeStringSizeNoTag(entry.value());
+        }
+
+        final byte[] buffer = new byte[size];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            if (page.nextToken() == null) {
+                out.writeRawByte(0);
+            } else {
+                out.writeRawByte(1);
+                out.writeStringNoTag(page.nextToken());
+            }
+            out.writeUInt32NoTag(page.entries().size());
+            for (ScanPage.Entry entry : page.entries()) {
+                out.writeStringNoTag(entry.key());
+                out.writeStringNoTag(entry.value());
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    public static ScanPage decodeScanPage(ByteString data) {
+        try {
+            final CodedInputStream in = data.newCodedInput();
+            final String nextToken = in.readRawByte() != 0 ? in.readString() : null;
+            final int count = in.readRawVarint32();
+            final List<ScanPage.Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(new ScanPage.Entry(in.readString(), in.readString()));
+            }
+            return new ScanPage(entries, nextToken);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed scan page", e);
+        }
+    }
+
+    /**
+     * Encodes a list of strings as [varint count]([varint length][utf8])*, used for multi-key replies.
+     */
+    public static ByteString encodeStrings(List<String> values) {
+        int size = CodedOutputStream.computeUInt32SizeNoTag(values.size());
+        for (String value : values) {
+            size += CodedOutputStream.computeStringSizeNoTag(value);
+        }
+
+        final byte[] buffer = new byte[size];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeUInt32NoTag(values.size());
+            for (String value : values) {
+                out.writeStringNoTag(value);
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    public static List<String> decodeStrings(ByteString data) {
+        try {
+            final CodedInputStream in = data.newCodedInput();
+            final int count = in.readRawVarint32();
+            final List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(in.readString());
+            }
+            return values;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed string list", e);
+        }
+    }
+
+    /**
+     * Like {@link #encodeStrings} but each entry is preceded by a presence byte, so missing
+     * values (null) are distinguishable from empty ones.
+     */
+    public static ByteString encodeNullableStrings(List<String> values) {
+        int size = CodedOutputStream.computeUInt32SizeNoTag(values.size()) + values.size();
+        for (String value : values) {
+            if (value != null) {
+                size += CodedOutputStream.computeStringSizeNoTag(value);
+            }
+        }
+
+        final byte[] buffer = new byte[size];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        try {
+            out.writeUInt32NoTag(values.size());
+            for (String value : values) {
+                if (value == null) {
+                    out.writeRawByte(0);
+                } else {
+                    out.writeRawByte(1);
+                    out.writeStringNoTag(value);
+                }
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UnsafeByteOperations.unsafeWrap(buffer);
+    }
+
+    public static List<String> decodeNullableStrings(ByteString data) {
+        try {
+            final CodedInputStream in = data.newCodedInput();
+            final int count = in.readRawVarint32();
+            final List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(in.readRawByte() != 0 ? in.readString() : null);
+            }
+            return values;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed string list", e);
+        }
+    }
+
+    /**
+     * Decodes a log entry or query into its command, reading straight from the ByteString.
+     */
+    public static Message decode(ByteString data) {
+        if (data.isEmpty()) {
+            throw new IllegalArgumentException("Empty command");
+        }
+        if (data.byteAt(0) != FORMAT_VERSION) {
+            return decodeLegacy(data);
+        }
+
+        try {
+            final CodedInputStream in = data.newCodedInput();
+            in.readRawByte(); // format version
+            final byte opcode = in.readRawByte();
+            if ((opcode & VALUE_COMPRESSED) != 0) {
+                return decodeCompressedPut(opcode, in);
+            }
+            switch (opcode) {
+                case OP_PUT:
+                    return new PutCommand(in.readString(), in.readString());
+                case OP_DELETE:
+                    return new DeleteCommand(in.readString());
+                case OP_GET:
+                    return new GetCommand(in.readString());
+                case OP_BATCH:
+                    return decodeBatch(in);
+                case OP_MULTI_GET:
+                    return decodeMultiGet(in);
+                case OP_SCAN:
+                    return decodeScan(in);
+                case OP_PUT_EXPIRING:
+                    return new PutCommand(in.readString(), in.readString(), in.readUInt64());
+                case OP_EXPIRE:
+                    return decodeExpire(in);
+                case OP_GET_VERSIONED:
+                    return new GetCommand(in.readString(), true);
+                case OP_PUT_IF:
+                    return new PutCommand(in.readString(), in.readString(), in.readUInt64(), in.readUInt64(), readNow(in));
+                case OP_DELETE_IF:
+                    return new DeleteCommand(in.readString(), in.readUInt64(), readNow(in));
+                case OP_INCR:
+                    return new IncrementCommand(in.readString(), in.readSInt64(), in.readUInt64());
+                case OP_APPEND:
+                    return new AppendCommand(in.readString(), in.readString(), in.readUInt64());
+                case OP_UPLOAD_CHUNK:
+                    return decodeUploadChunk(in, data);
+                case OP_COMMIT_UPLOAD:
+                    return new CommitUploadCommand(in.readString(), in.readString(), in.readUInt64(), in.readUInt64(),
+                            in.readUInt64(), readNow(in));
+                default:
+                    throw new IllegalArgumentException("Unknown opcode: " + opcode);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed command", e);
+        }
+    }
+
+    // Trailing clock of a conditional write; absent in entries written before it was added
+    private static long readNow(CodedInputStream in) throws IOException {
+        return in.isAtEnd() ? 0 : in.readUInt64();
+    }
+
+    // The chunk is the rest of the entry and is sliced out of it rather than copied
+    private static UploadChunkCommand decodeUploadChunk(CodedInputStream in, ByteString data) throws IOException {
+        final String uploadId = in.readString();
+        final long offset = in.readUInt64();
+        final long now = in.readUInt64();
+        final int length = in.readRawVarint32();
+        final int start = in.getTotalBytesRead();
+        if (length < 0 || start + length != data.size()) {
+            throw new IllegalArgumentException("Malformed upload chunk");
+        }
+        return new UploadChunkCommand(uploadId, offset, data.substring(start), now);
+    }
+
+    private static PutCommand decodeCompressedPut(byte opcode, CodedInputStream in) throws IOException {
+        final String key = in.readString();
+        final byte[] value = in.readByteArray();
+        switch (opcode & ~VALUE_COMPRESSED) {
+            case OP_PUT:
+                return new PutCommand(key, value, 0, VersionedValue.ANY);
+            case OP_PUT_EXPIRING:
+                return new PutCommand(key, value, in.readUInt64(), VersionedValue.ANY);
+            case OP_PUT_IF:
+                return new PutCommand(key, value, in.readUInt64(), in.readUInt64(), readNow(in));
+            default:
+                throw new IllegalArgumentException("Unknown opcode: " + opcode);
+        }
+    }
+
+    private static BatchCommand decodeBatch(CodedInputStream in) throws IOException {
+        final int count = in.readRawVarint32();
+        final List<Message> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte opcode = in.readRawByte();
+            if ((opcode & VALUE_COMPRESSED) != 0 && (opcode & ~VALUE_COMPRESSED) != OP_PUT_IF) {
+                operations.add(decodeCompressedPut(opcode, in));
+                continue;
+            }
+            switch (opcode) {
+                case OP_PUT:
+                    operations.add(new PutCommand(in.readString(), in.readString()));
+                    break;
+                case OP_PUT_EXPIRING:
+                    operations.add(new PutCommand(in.readString(), in.readString(), in.readUInt64()));
+                    break;
+                case OP_DELETE:
+                    operations.add(new DeleteCommand(in.readString()));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported opcode in batch: " + opcode);
+            }
+        }
+        return new BatchCommand(operations);
+    }
+
+    private static MultiGetCommand decodeMultiGet(CodedInputStream in) throws IOException {
+        final int count = in.readRawVarint32();
+        final List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(in.readString());
+        }
+        return new MultiGetCommand(keys);
+    }
+
+    private static ExpireCommand decodeExpire(CodedInputStream in) throws IOException {
+        final long now = in.readUInt64();
+        final int count = in.readRawVarint32();
+        final List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(in.readString());
+        }
+        return new ExpireCommand(now, keys);
+    }
+
+    private static ScanCommand decodeScan(CodedInputStream in) throws IOException {
+        final int bounds = in.readRawByte();
+        final String start = (bounds & HAS_START) != 0 ? in.readString() : null;
+        final String end = (bounds & HAS_END) != 0 ? in.readString() : null;
+        return new ScanCommand(start, end, in.readRawVarint32());
+    }
+
+    // Text format used before the binary codec: "PUT:key:value", "DELETE:key", "GET:key"
+    private static Message decodeLegacy(ByteString data) {
+        final String content = data.toStringUtf8();
+        final String[] parts = content.split(":", 3);
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Invalid command: " + content);
+        }
+        switch (parts[0]) {
+            case "PUT":
+                if (parts.length < 3) {
+                    throw new IllegalArgumentException("Invalid PUT command: " + content);
+                }
+                return new PutCommand(parts[1], parts[2]);
+            // Keys were not escaped, so everything after the prefix is the key
+            case "DELETE":
+                return new DeleteCommand(content.substring("DELETE:".length()));
+            case "GET":
+                return new GetCommand(content.substring("GET:".length()));
+            default:
+                throw new IllegalArgumentException("Unknown command: " + parts[0]);
+        }
+    }
+}
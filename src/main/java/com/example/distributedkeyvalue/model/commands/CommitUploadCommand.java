@@ -0,0 +1,75 @@
+package com.example.distributedkeyvalue.model.commands;
+
+import com.example.distributedkeyvalue.model.VersionedValue;
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+
+/**
+ * Writes the value uploaded in chunks to the key, like a PutCommand whose value is already on
+ * every replica. The entry itself only holds a few bytes of metadata; the upload must have
+ * exactly {@code length} bytes or the commit fails and the upload is dropped.
+ */
+public class CommitUploadCommand implements Message {
+    private final String key;
+    private final String uploadId;
+    private final long length;
+    private final long expireAt;
+    private final long expectedVersion;
+    // Proposer's clock for the version check; see PutCommand
+    private final long now;
+    private ByteString content;
+
+    public CommitUploadCommand(String key, String uploadId, long length) {
+        this(key, uploadId, length, 0, VersionedValue.ANY);
+    }
+
+    public CommitUploadCommand(String key, String uploadId, long length, long expireAt, long expectedVersion) {
+        this(key, uploadId, length, expireAt, expectedVersion, 0);
+    }
+
+    public CommitUploadCommand(String key, String uploadId, long length, long expireAt, long expectedVersion,
+                               long now) {
+        this.key = key;
+        this.uploadId = uploadId;
+        this.length = length;
+        this.expireAt = expireAt;
+        this.expectedVersion = expectedVersion;
+        this.now = now;
+    }
+
+    @Override
+    public ByteString getContent() {
+        if (content == null) {
+            content = CommandCodec.encodeCommitUpload(this);
+        }
+        return content;
+    }
+
+    public static CommitUploadCommand from(ByteString byteString) {
+        return (CommitUploadCommand) CommandCodec.decode(byteString);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getExpireAt() {
+        return expireAt;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getNow() {
+        return now;
+    }
+}
@@ -1,28 +1,54 @@
 package com.example.distributedkeyvalue.model.commands;
 
+import com.example.distributedkeyvalue.model.VersionedValue;
 import org.apache.ratis.protocol.Message;
 import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
 
 public class DeleteCommand implements Message {
     private final String key;
+    // VersionedValue.ANY, or the version the key must be at for the delete to apply
+    private final long expectedVersion;
+    // Proposer's clock for the version check; see PutCommand
+    private final long now;
+    private ByteString content;
 
     public DeleteCommand(String key) {
+        this(key, VersionedValue.ANY);
+    }
+
+    public DeleteCommand(String key, long expectedVersion) {
+        this(key, expectedVersion, 0);
+    }
+
+    public DeleteCommand(String key, long expectedVersion, long now) {
         this.key = key;
+        this.expectedVersion = expectedVersion;
+        this.now = now;
     }
 
     @Override
     public ByteString getContent() {
-        // Keep "DELETE:" prefix (already correct)
-        return ByteString.copyFromUtf8("DELETE:" + key);
+        if (content == null) {
+            content = expectedVersion == VersionedValue.ANY
+                    ? CommandCodec.encode(CommandCodec.OP_DELETE, key)
+                    : CommandCodec.encodeConditionalDelete(key, expectedVersion, now);
+        }
+        return content;
     }
 
     public static DeleteCommand from(ByteString bytes) {
-        String content = bytes.toStringUtf8();
-        String[] parts = content.split(":", 2); // Split into ["DELETE", "key"]
-        return new DeleteCommand(parts[1]);
+        return (DeleteCommand) CommandCodec.decode(bytes);
     }
 
     public String getKey() {
         return key;
     }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getNow() {
+        return now;
+    }
 }
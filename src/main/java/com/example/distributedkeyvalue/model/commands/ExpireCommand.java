@@ -0,0 +1,42 @@
+package com.example.distributedkeyvalue.model.commands;
+
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+
+import java.util.List;
+
+/**
+ * Proposed by a shard's leader for keys whose TTL ran out. Replicas remove a listed key only
+ * if its deadline is still at or before {@code now}, so a key written again after the proposal
+ * survives, and every replica decides the same way whatever its own clock says.
+ */
+public class ExpireCommand implements Message {
+    private final long now;
+    private final List<String> keys;
+    private ByteString content;
+
+    public ExpireCommand(long now, List<String> keys) {
+        this.now = now;
+        this.keys = keys;
+    }
+
+    @Override
+    public ByteString getContent() {
+        if (content == null) {
+            content = CommandCodec.encodeExpire(now, keys);
+        }
+        return content;
+    }
+
+    public static ExpireCommand from(ByteString byteString) {
+        return (ExpireCommand) CommandCodec.decode(byteString);
+    }
+
+    public long getNow() {
+        return now;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+}
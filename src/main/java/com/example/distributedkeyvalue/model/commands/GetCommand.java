@@ -5,24 +5,36 @@ import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
 
 public class GetCommand implements Message {
     private final String key;
+    // Versioned reads are answered with CommandCodec.encodeVersionedValue instead of the bare value
+    private final boolean versioned;
+    private ByteString content;
 
     public GetCommand(String key) {
+        this(key, false);
+    }
+
+    public GetCommand(String key, boolean versioned) {
         this.key = key;
+        this.versioned = versioned;
     }
 
     @Override
     public ByteString getContent() {
-        // Add "GET:" prefix
-        return ByteString.copyFromUtf8("GET:" + key);
+        if (content == null) {
+            content = CommandCodec.encode(versioned ? CommandCodec.OP_GET_VERSIONED : CommandCodec.OP_GET, key);
+        }
+        return content;
     }
 
     public static GetCommand from(ByteString byteString) {
-        String content = byteString.toStringUtf8();
-        String[] parts = content.split(":", 2); // Split into ["GET", "key"]
-        return new GetCommand(parts[1]);
+        return (GetCommand) CommandCodec.decode(byteString);
     }
 
     public String getKey() {
         return key;
     }
-}
\ No newline at end of file
+
+    public boolean isVersioned() {
+        return versioned;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.distributedkeyvalue.model.commands;
+
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+
+/**
+ * Adds {@code delta} (negative to decrement) to a key holding a 64-bit integer, a missing key
+ * counting as 0. {@code now} is stamped by the proposer so every replica decides the same way
+ * whether the current value has expired.
+ */
+public class IncrementCommand implements Message {
+    private final String key;
+    private final long delta;
+    private final long now;
+    private ByteString content;
+
+    public IncrementCommand(String key, long delta, long now) {
+        this.key = key;
+        this.delta = delta;
+        this.now = now;
+    }
+
+    @Override
+    public ByteString getContent() {
+        if (content == null) {
+            content = CommandCodec.encodeIncrement(key, delta, now);
+        }
+        return content;
+    }
+
+    public static IncrementCommand from(ByteString byteString) {
+        return (IncrementCommand) CommandCodec.decode(byteString);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getDelta() {
+        return delta;
+    }
+
+    public long getNow() {
+        return now;
+    }
+}
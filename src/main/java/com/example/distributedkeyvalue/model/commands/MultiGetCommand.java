@@ -0,0 +1,34 @@
+package com.example.distributedkeyvalue.model.commands;
+
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+
+import java.util.List;
+
+/**
+ * Read-only query for several keys of the same shard.
+ */
+public class MultiGetCommand implements Message {
+    private final List<String> keys;
+    private ByteString content;
+
+    public MultiGetCommand(List<String> keys) {
+        this.keys = keys;
+    }
+
+    @Override
+    public ByteString getContent() {
+        if (content == null) {
+            content = CommandCodec.encodeMultiGet(keys);
+        }
+        return content;
+    }
+
+    public static MultiGetCommand from(ByteString byteString) {
+        return (MultiGetCommand) CommandCodec.decode(byteString);
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.distributedkeyvalue.model.commands;
 
+import com.example.distributedkeyvalue.model.ValueCompression;
+import com.example.distributedkeyvalue.model.VersionedValue;
 import lombok.Getter;
 import org.apache.ratis.protocol.Message;
 import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
@@ -7,23 +9,107 @@ import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
 @Getter
 public class PutCommand implements Message {
     private final String key;
+    // Null when the value came off the log compressed; see getValue()
+    @Getter(lombok.AccessLevel.NONE)
     private final String value;
+    // The value as the log holds it when compressed, null when it goes plain
+    @Getter(lombok.AccessLevel.NONE)
+    private byte[] compressedValue;
+    @Getter(lombok.AccessLevel.NONE)
+    private boolean compressionDecided;
+    // Values of at least this many chars are compressed; 0 (the default) keeps them plain
+    @Getter(lombok.AccessLevel.NONE)
+    private int compressionThreshold;
+    // Epoch millis after which the key is gone, 0 for no TTL. Fixed when the PUT is proposed,
+    // so every replica applies the same deadline
+    private final long expireAt;
+    // VersionedValue.ANY, or the version the key must be at (VersionedValue.ABSENT: must not exist)
+    private final long expectedVersion;
+    // Proposer's clock for the version check, so a key past its TTL counts as absent on every
+    // replica alike; 0 in entries from before it was carried
+    private final long now;
+    @Getter(lombok.AccessLevel.NONE)
+    private ByteString content;
 
     public PutCommand(String key, String value) {
+        this(key, value, 0);
+    }
+
+    public PutCommand(String key, String value, long expireAt) {
+        this(key, value, expireAt, VersionedValue.ANY);
+    }
+
+    public PutCommand(String key, String value, long expireAt, long expectedVersion) {
+        this(key, value, expireAt, expectedVersion, 0);
+    }
+
+    public PutCommand(String key, String value, long expireAt, long expectedVersion, long now) {
         this.key = key;
         this.value = value;
+        this.expireAt = expireAt;
+        this.expectedVersion = expectedVersion;
+        this.now = now;
+    }
+
+    public PutCommand(String key, byte[] compressedValue, long expireAt, long expectedVersion) {
+        this(key, compressedValue, expireAt, expectedVersion, 0);
+    }
+
+    public PutCommand(String key, byte[] compressedValue, long expireAt, long expectedVersion, long now) {
+        this.key = key;
+        this.value = null;
+        this.compressedValue = compressedValue;
+        this.compressionDecided = true;
+        this.expireAt = expireAt;
+        this.expectedVersion = expectedVersion;
+        this.now = now;
+    }
+
+    // Set by the proposer from kv.compression.threshold, before the command is encoded
+    public PutCommand compressAbove(int threshold) {
+        this.compressionThreshold = threshold;
+        return this;
+    }
+
+    // Expanded on every call when the value is compressed
+    public String getValue() {
+        return value != null ? value : ValueCompression.decompress(compressedValue);
+    }
+
+    // Whether the value came off the log compressed, so it can be stored without expanding it
+    public boolean isCompressed() {
+        return value == null;
+    }
+
+    /**
+     * The value as it goes into the log: compressed when it is at least the threshold given to
+     * {@link #compressAbove} and shrinks enough, otherwise null and the value goes plain.
+     * Decided on first use.
+     */
+    public byte[] getCompressedValue() {
+        if (!compressionDecided) {
+            compressedValue = ValueCompression.compressIfLarge(value, compressionThreshold);
+            compressionDecided = true;
+        }
+        return compressedValue;
     }
 
     @Override
     public ByteString getContent() {
-        // Add "PUT:" prefix
-        return ByteString.copyFromUtf8("PUT:" + key + ":" + value);
+        if (content == null) {
+            if (expectedVersion != VersionedValue.ANY) {
+                content = CommandCodec.encodeConditionalPut(this);
+            } else if (expireAt > 0) {
+                content = CommandCodec.encodeExpiringPut(this);
+            } else {
+                content = CommandCodec.encodePut(this);
+            }
+        }
+        return content;
     }
 
     public static PutCommand from(ByteString byteString) {
-        String content = byteString.toStringUtf8();
-        String[] parts = content.split(":", 3); // Split into ["PUT", "key", "value"]
-        return new PutCommand(parts[1], parts[2]);
+        return (PutCommand) CommandCodec.decode(byteString);
     }
 
-}
\ No newline at end of file
+}
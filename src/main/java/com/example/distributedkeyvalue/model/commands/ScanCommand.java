@@ -0,0 +1,75 @@
+package com.example.distributedkeyvalue.model.commands;
+
+import com.example.distributedkeyvalue.model.ScanPage;
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+
+/**
+ * Read-only query for one page of the keys in [start, end) of a shard, in ascending order.
+ * A null bound is open.
+ */
+public class ScanCommand implements Message {
+    public static final int MAX_LIMIT = 1000;
+
+    private final String start;
+    private final String end;
+    private final int limit;
+    private ByteString content;
+
+    public ScanCommand(String start, String end, int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Scan limit must be between 1 and " + MAX_LIMIT + ", got " + limit);
+        }
+        this.start = start;
+        this.end = end;
+        this.limit = limit;
+    }
+
+    /**
+     * Builds the query for a scan request: either a prefix or a [start, end) range, resumed
+     * after the last key of the previous page when a continuation token is given.
+     */
+    public static ScanCommand of(String prefix, String start, String end, String token, int limit) {
+        if (prefix != null && (start != null || end != null)) {
+            throw new IllegalArgumentException("A scan takes either a prefix or a start/end range, not both");
+        }
+        String from = prefix != null ? prefix : start;
+        String to = prefix != null ? prefixEnd(prefix) : end;
+        return new ScanCommand(token != null ? ScanPage.resumeFrom(token) : from, to, limit);
+    }
+
+    // Smallest string greater than every key starting with the prefix, or null when there is none
+    public static String prefixEnd(String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return prefix.substring(0, i) + (char) (c + 1);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ByteString getContent() {
+        if (content == null) {
+            content = CommandCodec.encodeScan(start, end, limit);
+        }
+        return content;
+    }
+
+    public static ScanCommand from(ByteString byteString) {
+        return (ScanCommand) CommandCodec.decode(byteString);
+    }
+
+    public String getStart() {
+        return start;
+    }
+
+    public String getEnd() {
+        return end;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
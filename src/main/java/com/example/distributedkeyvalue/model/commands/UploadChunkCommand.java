@@ -0,0 +1,53 @@
+package com.example.distributedkeyvalue.model.commands;
+
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+
+/**
+ * One piece of a value too large for a single log entry, appended to the upload's staging file
+ * at {@code offset}. A chunk proposed twice (a client retry) is applied once; one that leaves a
+ * gap spoils the upload, so its CommitUploadCommand is refused. Like ExpireCommand it carries the
+ * proposer's clock, by which replicas drop uploads that were abandoned half way.
+ */
+public class UploadChunkCommand implements Message {
+    private final String uploadId;
+    private final long offset;
+    private final ByteString data;
+    private final long now;
+    private ByteString content;
+
+    public UploadChunkCommand(String uploadId, long offset, ByteString data, long now) {
+        this.uploadId = uploadId;
+        this.offset = offset;
+        this.data = data;
+        this.now = now;
+    }
+
+    @Override
+    public ByteString getContent() {
+        if (content == null) {
+            content = CommandCodec.encodeUploadChunk(this);
+        }
+        return content;
+    }
+
+    public static UploadChunkCommand from(ByteString byteString) {
+        return (UploadChunkCommand) CommandCodec.decode(byteString);
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public ByteString getData() {
+        return data;
+    }
+
+    public long getNow() {
+        return now;
+    }
+}
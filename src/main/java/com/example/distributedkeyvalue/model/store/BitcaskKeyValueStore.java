@@ -0,0 +1,829 @@
+package com.example.distributedkeyvalue.model.store;
+
+import org.apache.ratis.server.raftlog.RaftLog;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Bitcask-style disk engine: values live in append-only data files and only the keys and
+ * their file locations are kept in memory, so the dataset can be much larger than the heap.
+ *
+ * <pre>
+ * record: [crc32c][type][raft index][key length][value length][key utf8][value utf8]
+ * </pre>
+ *
+ * Every record carries the Raft index of the entry that wrote it, and an entry's records are
+ * followed by a commit marker once the next entry starts, so a batch is either all on disk or
+ * none of it is. On open the files are scanned, records past the last marker of their file are
+ * cut off, the highest index wins for each key, and the last marker tells the state machine
+ * which log entries are already reflected on disk. Writes are not fsynced individually because
+ * the Raft log is the write-ahead log: the active file is forced when it is sealed, so only
+ * its tail can be lost, and {@link #checkpoint} forces it before the log is purged. If an
+ * earlier file does come up short anyway, nothing past its last marker is trusted and the
+ * log replays from there.
+ *
+ * Snapshots hard-link the data files instead of copying them: records are never rewritten in
+ * place, so a link keeps the state at the checkpoint, and a file that is merged away stays on
+ * disk until the snapshot linking it is deleted. A background merge rewrites the live records
+ * of sealed files once more than half of their bytes are dead. Its inputs are deleted all or
+ * nothing through a journal: tombstones are not copied, so deleting only some inputs could keep
+ * an old copy of a key whose tombstone is gone.
+ */
+public class BitcaskKeyValueStore implements KeyValueStore {
+    private static final long DEFAULT_MAX_FILE_SIZE = 64L << 20;
+    private static final Pattern DATA_FILE = Pattern.compile("(\\d+)\\.data");
+    // Lists the inputs of a merge whose outputs are durable, until they are all deleted
+    private static final String MERGE_JOURNAL = "merge-inputs";
+    private static final int HEADER = 4 + 1 + 8 + 4 + 4;
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final byte TYPE_CHECKPOINT = 3;
+    private static final byte TYPE_COMMIT = 4;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final long maxFileSize;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Held for a whole merge, so clear() and close() never pull files from under it
+    private final ReentrantLock mergeLock = new ReentrantLock();
+    private final AtomicBoolean merging = new AtomicBoolean();
+
+    private File directory;
+    private ExecutorService merger;
+    // Sorted so scans can walk a key range; lookups pay O(log n) compares, small next to the file read
+    private final NavigableMap<String, Location> index = new TreeMap<>();
+    private final TreeMap<Integer, DataFile> files = new TreeMap<>();
+    private DataFile active;
+    private int nextFileId;
+    private long writeIndex = RaftLog.INVALID_LOG_INDEX;
+    private long appliedIndex = RaftLog.INVALID_LOG_INDEX;
+    // Records in the active file not yet followed by a marker
+    private int uncommitted;
+    private long dataBytes;
+    private volatile boolean closed;
+
+    private record Location(int fileId, long offset, int keyLength, int valueLength, long index) {
+        int recordSize() {
+            return HEADER + keyLength + valueLength;
+        }
+    }
+
+    private static final class DataFile {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        long size;
+        long deadBytes;
+        // Written since the last force; the active file is forced when sealed and at checkpoints
+        boolean dirty;
+
+        DataFile(int id, Path path, FileChannel channel, long size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+
+    public BitcaskKeyValueStore() {
+        this(DEFAULT_MAX_FILE_SIZE);
+    }
+
+    public BitcaskKeyValueStore(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    @Override
+    public void open(File directory) throws IOException {
+        lock.writeLock().lock();
+        try {
+            this.directory = directory;
+            Files.createDirectories(directory.toPath());
+            recover();
+            active = createFile(nextFileId++);
+            merger = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "kv-bitcask-merge");
+                thread.setDaemon(true);
+                return thread;
+            });
+            System.out.println("Opened " + files.size() + " data files in " + directory + " with "
+                    + index.size() + " keys up to index " + appliedIndex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String get(String key) {
+        lock.readLock().lock();
+        try {
+            final Location location = index.get(key);
+            return location != null ? readValue(location) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, String value) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            final Location location = append(TYPE_PUT, keyBytes, valueBytes);
+            final Location previous = index.put(key, location);
+            if (previous != null) {
+                markDead(previous);
+                dataBytes -= previous.keyLength() + previous.valueLength();
+            }
+            dataBytes += keyBytes.length + valueBytes.length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String key) {
+        lock.writeLock().lock();
+        try {
+            final Location previous = index.remove(key);
+            if (previous == null) {
+                return false;
+            }
+            // The tombstone only shadows older records, so it is garbage as soon as it is written
+            markDead(append(TYPE_DELETE, key.getBytes(StandardCharsets.UTF_8), EMPTY));
+            markDead(previous);
+            dataBytes -= previous.keyLength() + previous.valueLength();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long dataBytes() {
+        lock.readLock().lock();
+        try {
+            return dataBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Bytes on disk across all data files, including dead records not yet merged
+    public long diskBytes() {
+        lock.readLock().lock();
+        try {
+            return files.values().stream().mapToLong(file -> file.size).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        mergeLock.lock();
+        lock.writeLock().lock();
+        try {
+            deleteFiles();
+            active = createFile(nextFileId++);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+            mergeLock.unlock();
+        }
+    }
+
+    // Must hold the merge lock and the write lock
+    private void deleteFiles() throws IOException {
+        for (DataFile file : files.values()) {
+            file.channel.close();
+            Files.deleteIfExists(file.path);
+        }
+        files.clear();
+        index.clear();
+        dataBytes = 0;
+        appliedIndex = RaftLog.INVALID_LOG_INDEX;
+        uncommitted = 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        lock.readLock().lock();
+        try {
+            index.forEach((key, location) -> action.accept(key, readValue(location)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void scan(String from, String to, BiPredicate<String, String> visitor) {
+        lock.readLock().lock();
+        try {
+            for (String key : HeapKeyValueStore.range(index.navigableKeySet(), from, to)) {
+                if (!visitor.test(key, readValue(index.get(key)))) {
+                    return;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setWriteIndex(long index) {
+        lock.writeLock().lock();
+        try {
+            // Entries are applied one at a time, so the previous one is complete
+            if (uncommitted > 0 && index != writeIndex) {
+                append(TYPE_COMMIT, EMPTY, EMPTY);
+            }
+            writeIndex = index;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long appliedIndex() {
+        lock.readLock().lock();
+        try {
+            return appliedIndex;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void checkpoint(long index) throws IOException {
+        lock.writeLock().lock();
+        try {
+            final long previous = writeIndex;
+            writeIndex = index;
+            append(TYPE_CHECKPOINT, EMPTY, EMPTY);
+            writeIndex = previous;
+            for (DataFile file : files.values()) {
+                if (file.dirty) {
+                    file.channel.force(false);
+                    file.dirty = false;
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean durable() {
+        return true;
+    }
+
+    @Override
+    public List<String> linkFiles(File target) throws IOException {
+        lock.readLock().lock();
+        try {
+            Files.createDirectories(target.toPath());
+            final List<String> names = new ArrayList<>();
+            for (DataFile file : files.values()) {
+                final String name = file.path.getFileName().toString();
+                Files.createLink(target.toPath().resolve(name), file.path);
+                names.add(name);
+            }
+            return names;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void restore(File source) throws IOException {
+        mergeLock.lock();
+        lock.writeLock().lock();
+        try {
+            deleteFiles();
+            final File[] entries = source.listFiles();
+            if (entries != null) {
+                for (File entry : entries) {
+                    if (DATA_FILE.matcher(entry.getName()).matches()) {
+                        Files.createLink(directory.toPath().resolve(entry.getName()), entry.toPath());
+                    }
+                }
+            }
+            recover();
+            active = createFile(nextFileId++);
+            System.out.println("Restored " + index.size() + " keys up to index " + appliedIndex + " from " + source);
+        } finally {
+            lock.writeLock().unlock();
+            mergeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (merger != null) {
+            merger.shutdown();
+        }
+        mergeLock.lock();
+        lock.writeLock().lock();
+        try {
+            if (active != null) {
+                if (uncommitted > 0) {
+                    append(TYPE_COMMIT, EMPTY, EMPTY);
+                }
+                active.channel.force(false);
+            }
+            for (DataFile file : files.values()) {
+                file.channel.close();
+            }
+            files.clear();
+            index.clear();
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Failed to close data files in " + directory + ": " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+            mergeLock.unlock();
+        }
+    }
+
+    // Must hold the write lock
+    private Location append(byte type, byte[] keyBytes, byte[] valueBytes) {
+        final int recordSize = HEADER + keyBytes.length + valueBytes.length;
+        try {
+            if (active.size > 0 && active.size + recordSize > maxFileSize) {
+                if (uncommitted > 0 && writeIndex == RaftLog.INVALID_LOG_INDEX) {
+                    // A snapshot load is not a log entry, so its records can be committed piecemeal
+                    write(TYPE_COMMIT, EMPTY, EMPTY);
+                }
+                // Otherwise the entry finishes in this file, so a sealed file never ends mid-entry
+                if (uncommitted == 0) {
+                    // Recovery trusts markers in later files, so this one must not lose its tail
+                    active.channel.force(false);
+                    active.dirty = false;
+                    active = createFile(nextFileId++);
+                    maybeMerge();
+                }
+            }
+            return write(type, keyBytes, valueBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Must hold the write lock
+    private Location write(byte type, byte[] keyBytes, byte[] valueBytes) throws IOException {
+        final long offset = active.size;
+        writeFully(active.channel, encode(type, writeIndex, keyBytes, valueBytes), offset);
+        active.size += HEADER + keyBytes.length + valueBytes.length;
+        active.dirty = true;
+        appliedIndex = Math.max(appliedIndex, writeIndex);
+        uncommitted = isMarker(type) ? 0 : uncommitted + 1;
+        return new Location(active.id, offset, keyBytes.length, valueBytes.length, writeIndex);
+    }
+
+    private static boolean isMarker(byte type) {
+        return type == TYPE_CHECKPOINT || type == TYPE_COMMIT;
+    }
+
+    private void markDead(Location location) {
+        final DataFile file = files.get(location.fileId());
+        if (file != null) {
+            file.deadBytes += location.recordSize();
+        }
+    }
+
+    // Runs under the write lock whenever the active file is sealed
+    private void maybeMerge() {
+        long sealedBytes = 0;
+        long deadBytes = 0;
+        for (DataFile file : files.values()) {
+            if (file != active) {
+                sealedBytes += file.size;
+                deadBytes += file.deadBytes;
+            }
+        }
+        if (sealedBytes < maxFileSize || deadBytes * 2 <= sealedBytes || !merging.compareAndSet(false, true)) {
+            return;
+        }
+        merger.execute(() -> {
+            try {
+                merge();
+            } catch (IOException | RuntimeException e) {
+                // Partially merged copies are harmless: recovery keeps one record per key
+                System.err.println("Merge of " + directory + " failed: " + e.getMessage());
+            } finally {
+                merging.set(false);
+            }
+        });
+    }
+
+    private void merge() throws IOException {
+        mergeLock.lock();
+        try {
+            final List<DataFile> inputs = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                for (DataFile file : files.values()) {
+                    if (file != active) {
+                        inputs.add(file);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            final MergeOutput output = new MergeOutput();
+            for (DataFile input : inputs) {
+                scan(input.path, (type, offset, recordIndex, keyBytes, valueBytes) -> {
+                    if (closed) {
+                        throw new IllegalStateException("Store closed during merge");
+                    }
+                    output.maxIndex = Math.max(output.maxIndex, recordIndex);
+                    if (type != TYPE_PUT) {
+                        return;
+                    }
+                    final String key = new String(keyBytes, StandardCharsets.UTF_8);
+                    final Location current;
+                    lock.readLock().lock();
+                    try {
+                        current = index.get(key);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                    if (current != null && current.fileId() == input.id && current.offset() == offset) {
+                        output.copy(key, current, keyBytes, valueBytes);
+                    }
+                });
+            }
+            // Keep the applied index even if the record that carried it was dropped
+            output.seal();
+            syncDirectory();
+            final List<Integer> inputIds = inputs.stream().map(input -> input.id).toList();
+            writeMergeJournal(inputIds);
+
+            lock.writeLock().lock();
+            try {
+                for (DataFile input : inputs) {
+                    files.remove(input.id);
+                    input.channel.close();
+                    Files.deleteIfExists(input.path);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Files.delete(directory.toPath().resolve(MERGE_JOURNAL));
+            System.out.println("Merged " + inputs.size() + " data files in " + directory);
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    /**
+     * Data file being written by a merge. Its records become visible only once the file is
+     * synced, and only for keys that were not overwritten in the meantime. Each file ends with
+     * a checkpoint marker; without one, recovery drops the copies of a merge that died midway.
+     */
+    private final class MergeOutput {
+        long maxIndex = RaftLog.INVALID_LOG_INDEX;
+        private DataFile file;
+        private final List<String> keys = new ArrayList<>();
+        private final List<Location> from = new ArrayList<>();
+        private final List<Location> to = new ArrayList<>();
+
+        void copy(String key, Location location, byte[] keyBytes, byte[] valueBytes) throws IOException {
+            final Location copied = write(TYPE_PUT, location.index(), keyBytes, valueBytes);
+            keys.add(key);
+            from.add(location);
+            to.add(copied);
+        }
+
+        // Writes the closing marker and publishes the file, creating one if nothing was copied
+        void seal() throws IOException {
+            if (file == null) {
+                newFile();
+            }
+            writeRecord(TYPE_CHECKPOINT, maxIndex, EMPTY, EMPTY);
+            finish();
+        }
+
+        private Location write(byte type, long index, byte[] keyBytes, byte[] valueBytes) throws IOException {
+            final int recordSize = HEADER + keyBytes.length + valueBytes.length;
+            if (file == null) {
+                newFile();
+            } else if (file.size > 0 && file.size + recordSize > maxFileSize) {
+                seal();
+                newFile();
+            }
+            return writeRecord(type, index, keyBytes, valueBytes);
+        }
+
+        private void newFile() throws IOException {
+            lock.writeLock().lock();
+            try {
+                file = createFile(nextFileId++);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private Location writeRecord(byte type, long index, byte[] keyBytes, byte[] valueBytes) throws IOException {
+            final int recordSize = HEADER + keyBytes.length + valueBytes.length;
+            final long offset = file.size;
+            writeFully(file.channel, encode(type, index, keyBytes, valueBytes), offset);
+            file.size += recordSize;
+            return new Location(file.id, offset, keyBytes.length, valueBytes.length, index);
+        }
+
+        void finish() throws IOException {
+            if (file == null) {
+                return;
+            }
+            file.channel.force(false);
+            lock.writeLock().lock();
+            try {
+                files.put(file.id, file);
+                for (int i = 0; i < keys.size(); i++) {
+                    if (from.get(i).equals(index.get(keys.get(i)))) {
+                        index.put(keys.get(i), to.get(i));
+                    } else {
+                        file.deadBytes += to.get(i).recordSize();
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            keys.clear();
+            from.clear();
+            to.clear();
+        }
+    }
+
+    // Written atomically, once the merge outputs and their directory entries are on disk
+    private void writeMergeJournal(List<Integer> inputIds) throws IOException {
+        final Path journal = directory.toPath().resolve(MERGE_JOURNAL);
+        final Path temp = journal.resolveSibling(MERGE_JOURNAL + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final StringBuilder text = new StringBuilder();
+            inputIds.forEach(id -> text.append(id).append('\n'));
+            writeFully(channel, ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8)), 0);
+            channel.force(true);
+        }
+        Files.move(temp, journal, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+    }
+
+    // Deletes the inputs of a merge that died while deleting them
+    private void finishMerge() throws IOException {
+        final Path journal = directory.toPath().resolve(MERGE_JOURNAL);
+        Files.deleteIfExists(journal.resolveSibling(MERGE_JOURNAL + ".tmp"));
+        if (!Files.exists(journal)) {
+            return;
+        }
+        for (String id : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            if (!id.isBlank()) {
+                Files.deleteIfExists(dataFile(Integer.parseInt(id.trim())));
+            }
+        }
+        syncDirectory();
+        Files.delete(journal);
+        System.out.println("Finished deleting the inputs of an interrupted merge in " + directory);
+    }
+
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private void recover() throws IOException {
+        finishMerge();
+        final File[] entries = directory.listFiles();
+        final TreeMap<Integer, Path> paths = new TreeMap<>();
+        if (entries != null) {
+            for (File entry : entries) {
+                final Matcher matcher = DATA_FILE.matcher(entry.getName());
+                if (matcher.matches()) {
+                    paths.put(Integer.parseInt(matcher.group(1)), entry.toPath());
+                }
+            }
+        }
+
+        // Tombstones stay in the map until every file is read, so older copies cannot resurrect a key
+        final Map<String, Location> latest = new HashMap<>();
+        // Lowered to the last marker of a file that had to be cut: later files are cut at their first
+        // entry past the gap, and the log replays from there
+        final long[] trustedIndex = {Long.MAX_VALUE};
+        for (Map.Entry<Integer, Path> entry : paths.entrySet()) {
+            final int fileId = entry.getKey();
+            final DataFile file = new DataFile(fileId, entry.getValue(), openChannel(entry.getValue()), 0);
+            files.put(fileId, file);
+            // Records count only once a marker follows them; anything after the last one is a partial entry
+            final Map<String, Location> pending = new LinkedHashMap<>();
+            final long[] committedLength = {0};
+            final boolean[] untrusted = {false};
+            final long validLength = scan(file.path, (type, offset, recordIndex, keyBytes, valueBytes) -> {
+                if (untrusted[0] || recordIndex > trustedIndex[0]) {
+                    untrusted[0] = true;
+                    return;
+                }
+                if (isMarker(type)) {
+                    appliedIndex = Math.max(appliedIndex, recordIndex);
+                    pending.forEach((key, location) -> recoverRecord(latest, key, location));
+                    pending.clear();
+                    committedLength[0] = offset + HEADER;
+                    return;
+                }
+                final Location location = new Location(fileId, offset, keyBytes.length,
+                        type == TYPE_PUT ? valueBytes.length : -1, recordIndex);
+                final String key = new String(keyBytes, StandardCharsets.UTF_8);
+                final Location shadowed = pending.remove(key);
+                if (shadowed != null) {
+                    file.deadBytes += recordSize(shadowed);
+                }
+                pending.put(key, location);
+            });
+            if (committedLength[0] < file.channel.size()) {
+                System.err.println("Truncating " + file.path + " at " + committedLength[0] + ", dropping "
+                        + (validLength - committedLength[0]) + " bytes of unfinished or untrusted entries and "
+                        + (file.channel.size() - validLength) + " torn bytes");
+                file.channel.truncate(committedLength[0]);
+                if (fileId != paths.lastKey() && appliedIndex < trustedIndex[0]) {
+                    System.err.println("Dropping entries after index " + appliedIndex + " from later data files of "
+                            + directory + ", the log replays them");
+                    trustedIndex[0] = appliedIndex;
+                }
+            }
+            file.size = committedLength[0];
+            nextFileId = fileId + 1;
+        }
+
+        for (Map.Entry<String, Location> entry : latest.entrySet()) {
+            final Location location = entry.getValue();
+            if (location.valueLength() < 0) {
+                files.get(location.fileId()).deadBytes += recordSize(location);
+            } else {
+                index.put(entry.getKey(), location);
+                dataBytes += location.keyLength() + location.valueLength();
+            }
+        }
+    }
+
+    private void recoverRecord(Map<String, Location> latest, String key, Location location) {
+        final Location current = latest.get(key);
+        if (current == null || location.index() >= current.index()) {
+            latest.put(key, location);
+            if (current != null) {
+                files.get(current.fileId()).deadBytes += recordSize(current);
+            }
+        } else {
+            files.get(location.fileId()).deadBytes += recordSize(location);
+        }
+    }
+
+    // Tombstones are recovered with a value length of -1
+    private static int recordSize(Location location) {
+        return HEADER + location.keyLength() + Math.max(0, location.valueLength());
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(byte type, long offset, long index, byte[] keyBytes, byte[] valueBytes) throws IOException;
+    }
+
+    // Reads records in order and returns the length of the valid prefix of the file
+    private static long scan(Path path, RecordVisitor visitor) throws IOException {
+        final byte[] header = new byte[HEADER];
+        final CRC32C crc = new CRC32C();
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                try {
+                    in.readFully(header);
+                } catch (EOFException e) {
+                    return offset;
+                }
+                final ByteBuffer buffer = ByteBuffer.wrap(header);
+                final int storedCrc = buffer.getInt();
+                final byte type = buffer.get();
+                final long recordIndex = buffer.getLong();
+                final int keyLength = buffer.getInt();
+                final int valueLength = buffer.getInt();
+                if (type < TYPE_PUT || type > TYPE_COMMIT || keyLength < 0 || valueLength < 0) {
+                    return offset;
+                }
+                final byte[] keyBytes = new byte[keyLength];
+                final byte[] valueBytes = new byte[valueLength];
+                try {
+                    in.readFully(keyBytes);
+                    in.readFully(valueBytes);
+                } catch (EOFException e) {
+                    return offset;
+                }
+                crc.reset();
+                crc.update(header, 4, HEADER - 4);
+                crc.update(keyBytes);
+                crc.update(valueBytes);
+                if ((int) crc.getValue() != storedCrc) {
+                    return offset;
+                }
+                visitor.visit(type, offset, recordIndex, keyBytes, valueBytes);
+                offset += HEADER + keyLength + valueLength;
+            }
+        }
+    }
+
+    private static ByteBuffer encode(byte type, long index, byte[] keyBytes, byte[] valueBytes) {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER + keyBytes.length + valueBytes.length);
+        buffer.putInt(0).put(type).putLong(index).putInt(keyBytes.length).putInt(valueBytes.length)
+                .put(keyBytes).put(valueBytes);
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 4, buffer.capacity() - 4);
+        buffer.putInt(0, (int) crc.getValue());
+        return buffer.flip();
+    }
+
+    private String readValue(Location location) {
+        final ByteBuffer buffer = ByteBuffer.allocate(location.valueLength());
+        final long position = location.offset() + HEADER + location.keyLength();
+        try {
+            final FileChannel channel = files.get(location.fileId()).channel;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Record past end of data file " + location.fileId());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    // Must hold the write lock
+    private DataFile createFile(int id) throws IOException {
+        final Path path = dataFile(id);
+        final DataFile file = new DataFile(id, path, openChannel(path), 0);
+        files.put(id, file);
+        return file;
+    }
+
+    private Path dataFile(int id) {
+        return directory.toPath().resolve(String.format("%010d.data", id));
+    }
+
+    private static FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+}
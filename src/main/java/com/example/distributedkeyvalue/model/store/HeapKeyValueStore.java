@@ -0,0 +1,95 @@
+package com.example.distributedkeyvalue.model.store;
+
+import org.apache.ratis.thirdparty.com.google.common.base.Utf8;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * The original engine: a ConcurrentHashMap of Strings on the JVM heap. A skip list of the
+ * keys orders them for scans; it only changes when a key is added or removed, so overwrites
+ * and point reads never touch it.
+ */
+public class HeapKeyValueStore implements KeyValueStore {
+    private final Map<String, String> store = new ConcurrentHashMap<>();
+    private final NavigableSet<String> keys = new ConcurrentSkipListSet<>();
+    private final AtomicLong dataBytes = new AtomicLong();
+
+    @Override
+    public String get(String key) {
+        return store.get(key);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        String previous = store.put(key, value);
+        if (previous == null) {
+            keys.add(key);
+        }
+        dataBytes.addAndGet(previous != null ? bytes(value) - bytes(previous) : bytes(key) + bytes(value));
+    }
+
+    @Override
+    public boolean remove(String key) {
+        String previous = store.remove(key);
+        if (previous == null) {
+            return false;
+        }
+        keys.remove(key);
+        dataBytes.addAndGet(-(bytes(key) + bytes(previous)));
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public long dataBytes() {
+        return dataBytes.get();
+    }
+
+    @Override
+    public void clear() {
+        store.clear();
+        keys.clear();
+        dataBytes.set(0);
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        store.forEach(action);
+    }
+
+    @Override
+    public void scan(String from, String to, BiPredicate<String, String> visitor) {
+        for (String key : range(keys, from, to)) {
+            String value = store.get(key);
+            // Removed since the index was read
+            if (value != null && !visitor.test(key, value)) {
+                return;
+            }
+        }
+    }
+
+    static NavigableSet<String> range(NavigableSet<String> keys, String from, String to) {
+        if (from == null) {
+            return to == null ? keys : keys.headSet(to, false);
+        }
+        if (to == null) {
+            return keys.tailSet(from, true);
+        }
+        return from.compareTo(to) < 0 ? keys.subSet(from, true, to, false) : Collections.emptyNavigableSet();
+    }
+
+    private static long bytes(String s) {
+        return Utf8.encodedLength(s); // No encoding, so no garbage on the apply path
+    }
+}
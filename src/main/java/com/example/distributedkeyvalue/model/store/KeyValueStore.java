@@ -0,0 +1,88 @@
+package com.example.distributedkeyvalue.model.store;
+
+import org.apache.ratis.server.raftlog.RaftLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * Storage engine behind {@code KeyValueStateMachine}. Writes come from the single Raft apply
+ * thread; reads may run concurrently from query threads.
+ */
+public interface KeyValueStore extends AutoCloseable {
+
+    String get(String key);
+
+    void put(String key, String value);
+
+    // Returns whether the key was present
+    boolean remove(String key);
+
+    int size();
+
+    // Bytes held by live keys and values, excluding engine overhead
+    long dataBytes();
+
+    void clear();
+
+    // Used for snapshots, so entries must not be buffered into a copy
+    void forEach(BiConsumer<String, String> action);
+
+    // Visits keys in [from, to) in ascending String order until the visitor returns false;
+    // a null bound is open. Paged scans stop early instead of copying the rest of the range
+    void scan(String from, String to, BiPredicate<String, String> visitor);
+
+    // Called once the Raft storage is ready; durable engines keep their files under this directory
+    default void open(File directory) throws IOException {
+    }
+
+    // Raft index of the entry being applied; durable engines stamp it on the records they write
+    default void setWriteIndex(long index) {
+    }
+
+    // Highest Raft index already reflected in the engine's files, or -1 if nothing survives a restart
+    default long appliedIndex() {
+        return RaftLog.INVALID_LOG_INDEX;
+    }
+
+    // Forces everything written so far to disk and records that the store holds the state at index
+    default void checkpoint(long index) throws IOException {
+    }
+
+    // Whether the files under the open() directory survive a restart, so a snapshot can link them
+    // instead of copying every key
+    default boolean durable() {
+        return false;
+    }
+
+    // Hard-links the files holding the state at the last checkpoint into target and returns their
+    // names; called right after checkpoint, before anything else is written
+    default List<String> linkFiles(File target) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " keeps no files to link");
+    }
+
+    // Replaces the contents with files produced by linkFiles, such as those shipped with a snapshot
+    default void restore(File source) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " keeps no files to restore");
+    }
+
+    @Override
+    default void close() {
+    }
+
+    static KeyValueStore create(String engine) {
+        switch (engine) {
+            case "heap":
+                return new HeapKeyValueStore();
+            case "offheap":
+                return new OffHeapKeyValueStore();
+            case "bitcask":
+                return new BitcaskKeyValueStore();
+            default:
+                throw new IllegalArgumentException("Unknown store engine: " + engine);
+        }
+    }
+}
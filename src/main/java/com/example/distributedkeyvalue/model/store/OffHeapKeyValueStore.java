@@ -0,0 +1,472 @@
+package com.example.distributedkeyvalue.model.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * Keeps keys and values as UTF-8 bytes in direct (off-heap) memory, so the dataset adds
+ * almost nothing for the garbage collector to trace.
+ *
+ * Records are appended to direct ByteBuffer chunks as
+ * [key length][value length][level][next record * level][key][value].
+ * An open-addressing table (linear probing, backward-shift deletion) maps each key to its
+ * record through two primitive arrays: the record address and the key hash. Overwritten and
+ * deleted records are reclaimed by compacting the chunks once more than half of the
+ * written bytes are dead.
+ *
+ * Scans need the keys in order, which the hash table cannot give, so the records are also
+ * linked into a skip list through the next fields in their headers. A record has one link with
+ * probability 3/4, two with 3/16 and so on, about 11 bytes per key, and the only heap the index
+ * takes is its head. Keys compare in String order, so scans agree with the other engines.
+ * Overwrites relink the new record in place of the old one, which costs a skip list search on
+ * top of the hash lookup.
+ */
+public class OffHeapKeyValueStore implements KeyValueStore {
+    private static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    // Key length, value length and level; the links follow
+    private static final int FIXED_HEADER = 9;
+    private static final int MAX_LEVEL = 16;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private final int chunkSize;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private List<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer current;     // Chunk being appended to; its position is the write offset
+    private long[] addresses;       // 0 = empty slot, otherwise ((chunk index + 1) << 32) | offset
+    private int[] hashes;
+    // First record at each skip list level, 0 when the level is empty
+    private final long[] head = new long[MAX_LEVEL];
+    // Last record before the key being written at each level, 0 for the head; writers only
+    private final long[] update = new long[MAX_LEVEL];
+    private int size;
+    private long liveBytes;
+    private long writtenBytes;
+    private long dataBytes;
+
+    public OffHeapKeyValueStore() {
+        this(DEFAULT_CHUNK_SIZE, 1024);
+    }
+
+    public OffHeapKeyValueStore(int chunkSize, int initialCapacity) {
+        this.chunkSize = chunkSize;
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+        this.addresses = new long[capacity];
+        this.hashes = new int[capacity];
+    }
+
+    @Override
+    public String get(String key) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            final int slot = find(keyBytes, hash(keyBytes));
+            if (slot < 0) {
+                return null;
+            }
+            return readValue(addresses[slot]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, String value) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        final int hash = hash(keyBytes);
+        lock.writeLock().lock();
+        try {
+            int slot = find(keyBytes, hash);
+            final long previous = slot >= 0 ? addresses[slot] : 0;
+            final int level = previous != 0 ? level(previous) : randomLevel();
+            final long address = append(keyBytes, valueBytes, level);
+            link(address, keyBytes, level, previous);
+            if (previous != 0) {
+                liveBytes -= recordSize(previous);
+                dataBytes -= keyBytes.length + valueLength(previous);
+            } else {
+                slot = ~slot;
+                hashes[slot] = hash;
+                size++;
+            }
+            addresses[slot] = address;
+            liveBytes += recordSize(address);
+            dataBytes += keyBytes.length + valueBytes.length;
+
+            if (size > addresses.length * LOAD_FACTOR) {
+                resize(addresses.length << 1);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String key) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            final int slot = find(keyBytes, hash(keyBytes));
+            if (slot < 0) {
+                return false;
+            }
+            final long address = addresses[slot];
+            findPredecessors(keyBytes);
+            for (int i = 0; i < level(address); i++) {
+                setNext(update[i], i, next(address, i));
+            }
+            liveBytes -= recordSize(address);
+            dataBytes -= keyBytes.length + valueLength(address);
+            size--;
+            deleteSlot(slot);
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long dataBytes() {
+        lock.readLock().lock();
+        try {
+            return dataBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Direct memory reserved by the chunks, including dead records not yet compacted
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return chunks.stream().mapToLong(ByteBuffer::capacity).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            chunks = new ArrayList<>();
+            current = null;
+            addresses = new long[addresses.length];
+            hashes = new int[hashes.length];
+            Arrays.fill(head, 0);
+            size = 0;
+            liveBytes = 0;
+            writtenBytes = 0;
+            dataBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        lock.readLock().lock();
+        try {
+            for (long address = head[0]; address != 0; address = next(address, 0)) {
+                action.accept(readKey(address), readValue(address));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void scan(String from, String to, BiPredicate<String, String> visitor) {
+        lock.readLock().lock();
+        try {
+            final byte[] toBytes = to != null ? to.getBytes(StandardCharsets.UTF_8) : null;
+            long address = from != null ? ceiling(from.getBytes(StandardCharsets.UTF_8)) : head[0];
+            for (; address != 0 && (toBytes == null || compare(address, toBytes) < 0); address = next(address, 0)) {
+                if (!visitor.test(readKey(address), readValue(address))) {
+                    return;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    // Returns the slot holding the key, or ~slot of the empty slot where it would go
+    private int find(byte[] keyBytes, int hash) {
+        final int mask = addresses.length - 1;
+        int slot = hash & mask;
+        while (addresses[slot] != 0) {
+            if (hashes[slot] == hash && keyEquals(addresses[slot], keyBytes)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    private boolean keyEquals(long address, byte[] keyBytes) {
+        final ByteBuffer chunk = chunk(address);
+        final int offset = offset(address);
+        if (chunk.getInt(offset) != keyBytes.length) {
+            return false;
+        }
+        final int start = offset + header(chunk.get(offset + 8));
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (chunk.get(start + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Puts the record into the skip list, in place of previous when that holds the same key
+    private void link(long address, byte[] keyBytes, int level, long previous) {
+        findPredecessors(keyBytes);
+        for (int i = 0; i < level; i++) {
+            setNext(address, i, previous != 0 ? next(previous, i) : next(update[i], i));
+            setNext(update[i], i, address);
+        }
+    }
+
+    // Fills update with the last record before the key at each level
+    private void findPredecessors(byte[] keyBytes) {
+        long x = 0;
+        for (int i = MAX_LEVEL - 1; i >= 0; i--) {
+            long next;
+            while ((next = next(x, i)) != 0 && compare(next, keyBytes) < 0) {
+                x = next;
+            }
+            update[i] = x;
+        }
+    }
+
+    // First record whose key is at least keyBytes, or 0
+    private long ceiling(byte[] keyBytes) {
+        long x = 0;
+        for (int i = MAX_LEVEL - 1; i >= 0; i--) {
+            long next;
+            while ((next = next(x, i)) != 0 && compare(next, keyBytes) < 0) {
+                x = next;
+            }
+        }
+        return next(x, 0);
+    }
+
+    // Address 0 stands for the head
+    private long next(long address, int level) {
+        return address == 0 ? head[level] : chunk(address).getLong(offset(address) + FIXED_HEADER + 8 * level);
+    }
+
+    private void setNext(long address, int level, long next) {
+        if (address == 0) {
+            head[level] = next;
+        } else {
+            chunk(address).putLong(offset(address) + FIXED_HEADER + 8 * level, next);
+        }
+    }
+
+    /**
+     * Compares the record's key with keyBytes in String order. UTF-8 bytes sort by code point,
+     * which only differs from UTF-16 order where U+E000 to U+FFFF (lead bytes 0xEE, 0xEF) meet
+     * a supplementary character (0xF0 to 0xF4), whose surrogates sort first in UTF-16. With an
+     * equal prefix both differing bytes are lead bytes, so ranking those two above the rest fixes it.
+     */
+    private int compare(long address, byte[] keyBytes) {
+        final ByteBuffer chunk = chunk(address);
+        final int offset = offset(address);
+        final int length = chunk.getInt(offset);
+        final int start = offset + header(chunk.get(offset + 8));
+        final int common = Math.min(length, keyBytes.length);
+        for (int i = 0; i < common; i++) {
+            final int a = chunk.get(start + i) & 0xff;
+            final int b = keyBytes[i] & 0xff;
+            if (a != b) {
+                return utf16Rank(a) - utf16Rank(b);
+            }
+        }
+        return length - keyBytes.length;
+    }
+
+    private static int utf16Rank(int b) {
+        return b == 0xEE || b == 0xEF ? b + 0x10 : b;
+    }
+
+    // Level n with probability 3/4 * (1/4)^(n-1)
+    private static int randomLevel() {
+        return Math.min(MAX_LEVEL, 1 + Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt()) / 2);
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private void deleteSlot(int slot) {
+        final int mask = addresses.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (addresses[next] != 0) {
+            final int home = hashes[next] & mask;
+            final boolean movable = hole <= next
+                    ? home <= hole || home > next
+                    : home <= hole && home > next;
+            if (movable) {
+                addresses[hole] = addresses[next];
+                hashes[hole] = hashes[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        addresses[hole] = 0;
+        hashes[hole] = 0;
+    }
+
+    private void resize(int capacity) {
+        final long[] oldAddresses = addresses;
+        final int[] oldHashes = hashes;
+        addresses = new long[capacity];
+        hashes = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldAddresses.length; i++) {
+            if (oldAddresses[i] == 0) {
+                continue;
+            }
+            int slot = oldHashes[i] & mask;
+            while (addresses[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            addresses[slot] = oldAddresses[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+
+    // Links start out empty; the caller sets them
+    private long append(byte[] keyBytes, byte[] valueBytes, int level) {
+        final int recordSize = header(level) + keyBytes.length + valueBytes.length;
+        if (current == null || current.remaining() < recordSize) {
+            // Oversized records get a chunk of their own
+            current = ByteBuffer.allocateDirect(Math.max(chunkSize, recordSize));
+            chunks.add(current);
+        }
+        final int offset = current.position();
+        current.putInt(keyBytes.length).putInt(valueBytes.length).put((byte) level);
+        for (int i = 0; i < level; i++) {
+            current.putLong(0);
+        }
+        current.put(keyBytes).put(valueBytes);
+        writtenBytes += recordSize;
+        return ((long) chunks.size() << 32) | offset;
+    }
+
+    private void compactIfNeeded() {
+        if (writtenBytes < chunkSize || liveBytes * 2 > writtenBytes) {
+            return;
+        }
+        final List<ByteBuffer> oldChunks = chunks;
+        long address = head[0];
+        chunks = new ArrayList<>();
+        current = null;
+        writtenBytes = 0;
+        Arrays.fill(head, 0);
+        // The old list is walked in key order, so each copy is linked after the last one at its levels
+        Arrays.fill(update, 0);
+        while (address != 0) {
+            final ByteBuffer chunk = chunk(oldChunks, address);
+            final int offset = offset(address);
+            final int level = chunk.get(offset + 8);
+            final long following = chunk.getLong(offset + FIXED_HEADER);
+            final byte[] key = new byte[chunk.getInt(offset)];
+            final byte[] value = new byte[chunk.getInt(offset + 4)];
+            chunk.get(offset + header(level), key);
+            chunk.get(offset + header(level) + key.length, value);
+            final long copy = append(key, value, level);
+            for (int i = 0; i < level; i++) {
+                setNext(update[i], i, copy);
+                update[i] = copy;
+            }
+            // The old record is garbage now, so its first link forwards the hash table to the copy
+            chunk.putLong(offset + FIXED_HEADER, copy);
+            address = following;
+        }
+        for (int slot = 0; slot < addresses.length; slot++) {
+            if (addresses[slot] != 0) {
+                addresses[slot] = chunk(oldChunks, addresses[slot]).getLong(offset(addresses[slot]) + FIXED_HEADER);
+            }
+        }
+    }
+
+    private String readKey(long address) {
+        final ByteBuffer chunk = chunk(address);
+        final int offset = offset(address);
+        final byte[] key = new byte[chunk.getInt(offset)];
+        chunk.get(offset + header(chunk.get(offset + 8)), key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private String readValue(long address) {
+        final ByteBuffer chunk = chunk(address);
+        final int offset = offset(address);
+        final byte[] value = new byte[chunk.getInt(offset + 4)];
+        chunk.get(offset + header(chunk.get(offset + 8)) + chunk.getInt(offset), value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private int recordSize(long address) {
+        final ByteBuffer chunk = chunk(address);
+        final int offset = offset(address);
+        return header(chunk.get(offset + 8)) + chunk.getInt(offset) + chunk.getInt(offset + 4);
+    }
+
+    private int valueLength(long address) {
+        return chunk(address).getInt(offset(address) + 4);
+    }
+
+    private int level(long address) {
+        return chunk(address).get(offset(address) + 8);
+    }
+
+    private static int header(int level) {
+        return FIXED_HEADER + 8 * level;
+    }
+
+    private ByteBuffer chunk(long address) {
+        return chunk(chunks, address);
+    }
+
+    private static ByteBuffer chunk(List<ByteBuffer> chunks, long address) {
+        return chunks.get((int) (address >>> 32) - 1);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private static int hash(byte[] bytes) {
+        int h = 1;
+        for (byte b : bytes) {
+            h = 31 * h + b;
+        }
+        return h ^ (h >>> 16); // Spread high bits into the masked range
+    }
+}
@@ -1,33 +1,70 @@
 package com.example.distributedkeyvalue.service;
 
 import com.example.distributedkeyvalue.config.RaftConfig;
+import com.example.distributedkeyvalue.model.BatchOperation;
+import com.example.distributedkeyvalue.model.BatchResult;
+import com.example.distributedkeyvalue.model.KeyValueStateMachine;
+import com.example.distributedkeyvalue.model.NotAnIntegerException;
+import com.example.distributedkeyvalue.model.ReadConsistency;
+import com.example.distributedkeyvalue.model.ScanPage;
+import com.example.distributedkeyvalue.model.ShardAssignment;
+import com.example.distributedkeyvalue.model.VersionMismatchException;
+import com.example.distributedkeyvalue.model.VersionedValue;
+import com.example.distributedkeyvalue.model.WriteResult;
+import com.example.distributedkeyvalue.model.commands.AppendCommand;
+import com.example.distributedkeyvalue.model.commands.BatchCommand;
+import com.example.distributedkeyvalue.model.commands.CommandCodec;
+import com.example.distributedkeyvalue.model.commands.CommitUploadCommand;
 import com.example.distributedkeyvalue.model.commands.DeleteCommand;
 import com.example.distributedkeyvalue.model.commands.GetCommand;
+import com.example.distributedkeyvalue.model.commands.IncrementCommand;
+import com.example.distributedkeyvalue.model.commands.MultiGetCommand;
 import com.example.distributedkeyvalue.model.commands.PutCommand;
+import com.example.distributedkeyvalue.model.commands.ScanCommand;
+import com.example.distributedkeyvalue.model.commands.UploadChunkCommand;
 import com.example.distributedkeyvalue.model.ShardInfo;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.apache.ratis.client.RaftClient;
+import org.apache.ratis.client.api.AsyncApi;
 import org.apache.ratis.client.RaftClientRpc;
 import org.apache.ratis.conf.RaftProperties;
 import org.apache.ratis.grpc.GrpcFactory;
+import org.apache.ratis.proto.RaftProtos;
 import org.apache.ratis.protocol.ClientId;
+import org.apache.ratis.protocol.Message;
 import org.apache.ratis.protocol.RaftClientReply;
+import org.apache.ratis.protocol.RaftClientRequest;
+import org.apache.ratis.protocol.RaftGroupId;
 import org.apache.ratis.protocol.RaftPeer;
 import org.apache.ratis.protocol.RaftPeerId;
-import org.apache.ratis.thirdparty.com.google.common.cache.Cache;
-import org.apache.ratis.thirdparty.com.google.common.cache.CacheBuilder;
+import org.apache.ratis.server.RaftServer;
 import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.apache.ratis.thirdparty.com.google.protobuf.UnsafeByteOperations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 
@@ -38,13 +75,33 @@ public class KeyValueService {
     @Value("${RAFT_NODE_ID:default-node}")
     private String nodeId;
 
+    @Autowired(required = false)  // Only present on nodes
+    private RaftServer raftServer;
+
+    // Values larger than this are written in chunks of this size, each its own log entry
+    @Value("${kv.stream.chunk-bytes:1048576}")
+    private int chunkBytes;
+
+    // PUT values of at least this many chars go into the log LZ4-compressed; 0 turns it off
+    @Value("${kv.compression.threshold:4096}")
+    private int compressionThreshold;
+
+    // Read the rest of a streamed value, one thread per upload in progress
+    private final ExecutorService streamReaders = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "kv-stream-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Non-blocking, so shard lookups do not pin a request thread either
+    private final WebClient webClient = WebClient.create();
+
     @Autowired
-    private RestTemplate restTemplate;
+    private ShardMapCache shardMapCache;
 
-    private final Cache<String, ShardInfo> shardCache =
-            CacheBuilder.newBuilder()
-                    .expireAfterWrite(5, TimeUnit.MINUTES)
-                    .build();
+    // Serves stale reads of hot keys; every fresh read or write result is offered to it
+    @Autowired(required = false)
+    private ReadCache readCache;
 
     private final Map<String, RaftClient> clientCache = new ConcurrentHashMap<>();
 
@@ -54,6 +111,30 @@ public class KeyValueService {
     @Autowired
     private GrpcFactory grpcFactory;
 
+    // Identity for requests submitted straight to the local division. Random, so call ids that
+    // restart at zero never match retry cache entries from before a restart.
+    private final ClientId localClientId = ClientId.randomId();
+    private final AtomicLong localCallIds = new AtomicLong();
+
+    // The shards this node replicates, and of those the ones it leads
+    private void collectShards(List<String> shards, List<String> ledShards) {
+        if (raftServer == null) {
+            return;
+        }
+        for (RaftGroupId groupId : raftServer.getGroupIds()) {
+            try {
+                RaftServer.Division division = raftServer.getDivision(groupId);
+                String shard = ((KeyValueStateMachine) division.getStateMachine()).getShardId();
+                shards.add(shard);
+                if (division.getInfo().isLeader()) {
+                    ledShards.add(shard);
+                }
+            } catch (Exception e) {
+                // Closing; the next heartbeat reports the groups still there
+            }
+        }
+    }
+
     private ByteString get16ByteHash(String input) throws Exception {
         MessageDigest md = MessageDigest.getInstance("SHA-256");
         byte[] hash = md.digest(input.getBytes());
@@ -79,119 +160,471 @@ public class KeyValueService {
         });
     }
 
-    public void put(String key, String value) throws Exception {
-        ShardInfo shardInfo = shardCache.get(key, () ->
-                restTemplate.getForObject(
-                        "http://shard-manager:8080/shard-manager/shard/{key}",
-                        ShardInfo.class,
-                        key
-                )
-        );
-        // 2. Extract shardId and nodes
-        assert shardInfo != null;
-        String shardId = shardInfo.shardId();
-        List<String> nodes = shardInfo.nodes();
-
-        // 3. Create RaftClient with the entire Raft group (no manual leader selection)
-        List<RaftPeer> peers = nodes.stream()
-                .map(addr -> {
-                    String[] parts = addr.split(":", 3);
-                    return RaftPeer.newBuilder()
-                            .setId(parts[0])  // Node ID
-                            .setAddress(parts[1] + ":" + parts[2])  // Host:Port
-                            .build();
-                })
-                .collect(Collectors.toList());
+    public CompletableFuture<Long> put(String key, String value) {
+        return put(key, value, null, VersionedValue.ANY);
+    }
 
-        RaftClient raftClient = getClient(shardId, peers);// No need to set leader ID!
+    public CompletableFuture<Long> put(String key, String value, Duration ttl) {
+        return put(key, value, ttl, VersionedValue.ANY);
+    }
 
-        // 4. Send PUT request (client auto-discovers leader)
-        RaftClientReply reply = raftClient.io().send(new PutCommand(key, value));
+    /**
+     * Writes the key and returns its new version. With an expected version other than
+     * VersionedValue.ANY the state machine only applies the write if the key is still at that
+     * version, and the future fails with VersionMismatchException otherwise.
+     */
+    public CompletableFuture<Long> put(String key, String value, Duration ttl, long expectedVersion) {
+        // With a TTL the deadline is fixed here, before proposing, so all replicas agree on it,
+        // and so is the clock the version check reads expired keys against
+        long now = System.currentTimeMillis();
+        long expireAt = ttl != null ? now + ttl.toMillis() : 0;
+        // 1. Resolve the shard in-process, then send PUT request without
+        //    holding a thread (locally if this node leads the shard)
+        return lookupShard(key)
+                .thenCompose(info -> timed("put", () -> submit(info, new PutCommand(key, value, expireAt, expectedVersion, now).compressAbove(compressionThreshold),
+                        RaftClientRequest.writeRequestType())))
+                .thenApply(reply -> {
+                    long version = writeReply(reply, "Write", key, expectedVersion);
+                    // Gives stale readers of this node read-your-writes
+                    offer(key, new VersionedValue(value, version));
+                    return version;
+                });
+    }
+
+    public int getChunkBytes() {
+        return chunkBytes;
+    }
+
+    /**
+     * Writes a value read from a stream, for values too large for one log entry. Each chunk of
+     * the stream is committed as its own entry and staged by every replica, then a small commit
+     * entry moves the whole value into the store, so only one chunk is in memory at a time and
+     * small writes are not stuck behind one huge entry. The first chunk is read on the calling
+     * thread and the rest on a stream reader thread, each once the previous one committed, so a
+     * servlet thread is not held for the whole upload.
+     */
+    public CompletableFuture<Long> putStream(String key, InputStream value, Duration ttl, long expectedVersion) {
+        long expireAt = ttl != null ? System.currentTimeMillis() + ttl.toMillis() : 0;
+        String uploadId = UUID.randomUUID().toString();
+        try {
+            ShardInfo info = shardMapCache.resolve(key);
+            return uploadChunks(info, uploadId, value, 0)
+                    .thenCompose(length -> {
+                        CommitUploadCommand commit = new CommitUploadCommand(key, uploadId, length, expireAt,
+                                expectedVersion, System.currentTimeMillis());
+                        return timed("put", () -> submit(info, commit, RaftClientRequest.writeRequestType()));
+                    })
+                    .thenApply(reply -> {
+                        long version = writeReply(reply, "Write", key, expectedVersion);
+                        // Too large to cache here; readers of this node fetch it again
+                        if (readCache != null) {
+                            readCache.invalidate(key);
+                        }
+                        return version;
+                    });
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // One chunk in flight: each is read only after the previous one committed. Completes with the
+    // length written once the stream ends.
+    private CompletableFuture<Long> uploadChunks(ShardInfo info, String uploadId, InputStream value, long offset) {
+        byte[] chunk;
+        try {
+            chunk = value.readNBytes(chunkBytes);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (chunk.length == 0) {
+            return CompletableFuture.completedFuture(offset);
+        }
+        Message command = new UploadChunkCommand(uploadId, offset, UnsafeByteOperations.unsafeWrap(chunk),
+                System.currentTimeMillis());
+        // The next read blocks, so it must not run on the Raft reply thread
+        return timed("upload_chunk", () -> submit(info, command, RaftClientRequest.writeRequestType()))
+                .thenComposeAsync(reply -> {
+                    if (!reply.isSuccess()) {
+                        throw new RuntimeException("Upload failed");
+                    }
+                    return uploadChunks(info, uploadId, value, offset + chunk.length);
+                }, streamReaders);
+    }
+
+    private static long writeReply(RaftClientReply reply, String operation, String key, long expectedVersion) {
         if (!reply.isSuccess()) {
-            throw new RuntimeException("Write failed");
+            throw new RuntimeException(operation + " failed");
+        }
+        WriteResult result = CommandCodec.decodeWriteResult(reply.getMessage().getContent());
+        if (!result.applied()) {
+            throw new VersionMismatchException(key, expectedVersion, result.version());
         }
+        return result.version();
     }
 
-    public String get(String key) throws Exception {
-        // 1. Get shard info from Shard Manager
-        ShardInfo shardInfo = restTemplate.getForObject(
-                "http://shard-manager:8080/shard-manager/shard/{key}",
-                ShardInfo.class,
-                key
-        );
+    /**
+     * Adds delta to the key's 64-bit integer value in one Raft commit and returns the new value
+     * with its version. Fails with NotAnIntegerException if the value is not an integer or the
+     * result would overflow.
+     */
+    public CompletableFuture<VersionedValue> increment(String key, long delta) {
+        // The clock is read here, like a TTL deadline, so replicas agree on whether the old value expired
+        long now = System.currentTimeMillis();
+        return update(key, new IncrementCommand(key, delta, now), "incr").thenApply(value -> {
+            if (value == null) {
+                throw new NotAnIntegerException(key);
+            }
+            return value;
+        });
+    }
 
-        // 2. Extract shardId and nodes
-        assert shardInfo != null;
-        String shardId = shardInfo.shardId();
-        List<String> nodes = shardInfo.nodes();
+    // Appends in one Raft commit and returns the whole new value with its version
+    public CompletableFuture<VersionedValue> append(String key, String value) {
+        long now = System.currentTimeMillis();
+        return update(key, new AppendCommand(key, value, now), "append");
+    }
 
-        // 3. Create RaftClient with the entire Raft group (no manual leader selection)
-        List<RaftPeer> peers = nodes.stream()
-                .map(addr -> {
-                    String[] parts = addr.split(":", 3);
-                    String id = parts[0];
-                    String host = parts[1];
-                    int port = Integer.parseInt(parts[2]);
-                    return RaftPeer.newBuilder()
-                            .setId(id)
-                            .setAddress(host + ":" + port)
-                            .build();
-                })
-                .collect(Collectors.toList());
+    private CompletableFuture<VersionedValue> update(String key, Message command, String op) {
+        return lookupShard(key)
+                .thenCompose(info -> timed(op, () -> submit(info, command, RaftClientRequest.writeRequestType())))
+                .thenApply(reply -> {
+                    if (!reply.isSuccess()) {
+                        throw new RuntimeException("Write failed");
+                    }
+                    return offer(key, CommandCodec.decodeVersionedValue(reply.getMessage().getContent()));
+                });
+    }
+
+    public CompletableFuture<String> get(String key) {
+        return get(key, ReadConsistency.LINEARIZABLE);
+    }
+
+    // Empty when the key does not exist
+    public CompletableFuture<String> get(String key, ReadConsistency consistency) {
+        return getVersioned(key, consistency).thenApply(value -> value != null ? value.value() : "");
+    }
+
+    // Null when the key does not exist
+    public CompletableFuture<VersionedValue> getVersioned(String key, ReadConsistency consistency) {
+        // Stale reads may be answered by the hot-key cache, which is at most its staleness bound behind
+        if (consistency == ReadConsistency.STALE && readCache != null) {
+            VersionedValue cached = readCache.get(key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        // 1. Resolve the shard in-process, then read at the requested consistency
+        return lookupShard(key)
+                .thenCompose(info -> read(info, new GetCommand(key, true), consistency, "read"))
+                .thenApply(reply -> offer(key, CommandCodec.decodeVersionedValue(reply)));
+    }
+
+    // The cache keeps the newer of two versions, so results of any consistency can be offered
+    private VersionedValue offer(String key, VersionedValue value) {
+        if (readCache != null) {
+            readCache.offer(key, value);
+        }
+        return value;
+    }
+
+    // Runs a read-only query against one shard and returns the state machine's reply
+    private CompletableFuture<ByteString> read(ShardInfo info, Message command, ReadConsistency consistency, String op) {
+        switch (consistency) {
+            case LEASE:
+                // Served from local memory when this node is the leader and holds a lease,
+                // otherwise confirm leadership like a linearizable read
+                RaftServer.Division leader = leaseHolder(info.shardId());
+                if (leader != null) {
+                    return leader.getStateMachine().query(command).thenApply(Message::getContent);
+                }
+                return timed(op, () -> submit(info, command, RaftClientRequest.readRequestType()))
+                        .thenApply(KeyValueService::readReply);
+            case STALE:
+                // The replica first applies everything it knows to be committed, so staleness
+                // is bounded by how far behind the leader's last heartbeat it is
+                RaftServer.Division local = localDivision(info.shardId());
+                long minIndex = local != null ? local.getRaftLog().getLastCommittedIndex() : 0;
+                return timed("stale_" + op, () -> submit(info, command, RaftClientRequest.staleReadRequestType(minIndex)))
+                        .thenApply(KeyValueService::readReply);
+            default:
+                return timed(op, () -> submit(info, command, RaftClientRequest.readRequestType()))
+                        .thenApply(KeyValueService::readReply);
+        }
+    }
+
+    /**
+     * One page of a scan over a shard, or over every shard merged when shardId is null. Each
+     * shard only walks its ordered index as far as the page needs.
+     */
+    public CompletableFuture<ScanPage> scan(String shardId, ScanCommand command, ReadConsistency consistency) {
+        return lookupScanShards(shardId).thenCompose(shards -> {
+            List<CompletableFuture<ScanPage>> pages = new ArrayList<>(shards.size());
+            for (ShardInfo info : shards) {
+                pages.add(read(info, command, consistency, "scan").thenApply(CommandCodec::decodeScanPage));
+            }
+            return CompletableFuture.allOf(pages.toArray(new CompletableFuture[0])).thenApply(done -> pages.size() == 1
+                    ? pages.get(0).join()
+                    : ScanPage.merge(pages.stream().map(CompletableFuture::join).collect(Collectors.toList()),
+                            command.getLimit()));
+        });
+    }
+
+    // A shard this node replicates is served by submitting to the local division, which skips the
+    // gRPC loopback a RaftClient would take. When the division cannot serve the request (not the
+    // leader, or not ready yet) it goes through the RaftClient, which finds the leader. A division
+    // that replies NotLeader or LeaderNotReady never appended the entry, so re-sending it cannot
+    // apply an increment or append twice.
+    private CompletableFuture<RaftClientReply> submit(ShardInfo info, Message command, RaftClientRequest.Type type) {
+        RaftServer.Division local = localDivision(info.shardId());
+        boolean write = type.is(RaftProtos.RaftClientRequestProto.TypeCase.WRITE);
+        if (local == null || (write && !local.getInfo().isLeader())) {
+            return sendRemote(info, command, type);
+        }
+        RaftClientRequest request = RaftClientRequest.newBuilder()
+                .setClientId(localClientId)
+                .setServerId(local.getId())
+                .setGroupId(local.getGroup().getGroupId())
+                .setCallId(localCallIds.incrementAndGet())
+                .setMessage(command)
+                .setType(type)
+                .build();
+        try {
+            return raftServer.submitClientRequestAsync(request).thenCompose(reply ->
+                    reply.getNotLeaderException() != null || reply.getLeaderNotReadyException() != null
+                            ? sendRemote(info, command, type)
+                            : CompletableFuture.completedFuture(reply));
+        } catch (IOException e) {
+            return sendRemote(info, command, type);
+        }
+    }
+
+    private CompletableFuture<RaftClientReply> sendRemote(ShardInfo info, Message command, RaftClientRequest.Type type) {
+        AsyncApi async = getClient(info.shardId(), toPeers(info.nodes())).async();
+        if (type.is(RaftProtos.RaftClientRequestProto.TypeCase.WRITE)) {
+            return async.send(command);
+        }
+        if (type.is(RaftProtos.RaftClientRequestProto.TypeCase.STALEREAD)) {
+            return async.sendStaleRead(command, type.getStaleRead().getMinIndex(), anyReplica(info));
+        }
+        return async.sendReadOnly(command);
+    }
+
+    // Raft round-trip latency by operation and outcome (failure: Raft replied with an error)
+    private static CompletableFuture<RaftClientReply> timed(String op, Supplier<CompletableFuture<RaftClientReply>> send) {
+        Timer.Sample sample = Timer.start();
+        return send.get().whenComplete((reply, error) -> sample.stop(Timer.builder("kv.raft.client.requests")
+                .description("Raft client request latency")
+                .tag("op", op)
+                .tag("outcome", error != null ? "error" : reply.isSuccess() ? "success" : "failure")
+                .register(Metrics.globalRegistry)));
+    }
 
-        RaftClient raftClient = getClient(shardId, peers);
-        // 5. Send GET request to the leader
-        RaftClientReply reply = raftClient.io().sendReadOnly(new GetCommand(key));
+    private static ByteString readReply(RaftClientReply reply) {
         if (!reply.isSuccess()) {
             throw new RuntimeException("Read failed");
         }
-        return reply.getMessage().getContent().toStringUtf8();
+        return reply.getMessage().getContent();
     }
 
-    public void delete(String key) throws Exception {
-        // 1. Get shard info from Shard Manager
-        ShardInfo shardInfo = restTemplate.getForObject(
-                "http://shard-manager:8080/shard-manager/shard/{key}",
-                ShardInfo.class,
-                key
-        );
+    private RaftServer.Division localDivision(String shardId) {
+        if (raftServer == null) {
+            return null;
+        }
+        try {
+            return raftServer.getDivision(RaftConfig.getRaftGroupId(shardId));
+        } catch (Exception e) {
+            return null;  // This node does not replicate the shard
+        }
+    }
 
-        // 2. Extract shardId and nodes
-        assert shardInfo != null;
-        String shardId = shardInfo.shardId();
-        List<String> nodes = shardInfo.nodes();
+    // Returns the local division if it leads the shard and a majority acked it within the lease
+    private RaftServer.Division leaseHolder(String shardId) {
+        RaftServer.Division division = localDivision(shardId);
+        if (division == null || !division.getInfo().isLeader() || !division.getInfo().isLeaderReady()) {
+            return null;
+        }
+        List<RaftProtos.ServerRpcProto> followers = division.getInfo().getRoleInfoProto()
+                .getLeaderInfo().getFollowerInfoList();
+        long acked = 1 + followers.stream()
+                .filter(follower -> follower.getLastRpcElapsedTimeMs() < RaftConfig.LEADER_LEASE_MS)
+                .count();
+        return acked * 2 > followers.size() + 1 ? division : null;
+    }
 
-        // 3. Create RaftClient with the entire Raft group (no manual leader selection)
-        List<RaftPeer> peers = nodes.stream()
-                .map(addr -> {
-                    String[] parts = addr.split(":", 3);
-                    String id = parts[0];
-                    String host = parts[1];
-                    int port = Integer.parseInt(parts[2]);
-                    return RaftPeer.newBuilder()
-                            .setId(id)
-                            .setAddress(host + ":" + port)
-                            .build();
-                })
+    private static RaftPeerId anyReplica(ShardInfo info) {
+        String node = info.nodes().get(ThreadLocalRandom.current().nextInt(info.nodes().size()));
+        return RaftPeerId.valueOf(node.split(":", 3)[0]);
+    }
+
+    public CompletableFuture<Void> delete(String key) {
+        return delete(key, VersionedValue.ANY);
+    }
+
+    // Conditional like put: fails with VersionMismatchException unless the key is at expectedVersion
+    public CompletableFuture<Void> delete(String key, long expectedVersion) {
+        // 1. Resolve the shard in-process, then send DELETE request to the leader
+        return lookupShard(key)
+                .thenCompose(info -> timed("delete", () -> submit(info, new DeleteCommand(key, expectedVersion, System.currentTimeMillis()),
+                        RaftClientRequest.writeRequestType())))
+                .thenAccept(reply -> {
+                    writeReply(reply, "Delete", key, expectedVersion);
+                    if (readCache != null) {
+                        readCache.invalidate(key);
+                    }
+                });
+    }
+
+    public CompletableFuture<List<BatchResult>> batch(List<BatchOperation> operations) {
+        // 1. Group keys by shard using the local shard map
+        List<String> keys = operations.stream()
+                .map(BatchOperation::key)
+                .distinct()
                 .collect(Collectors.toList());
 
-        RaftClient raftClient = getClient(shardId, peers);
+        return lookupShards(keys).thenCompose(assignments -> {
+            Map<String, ShardInfo> shardByKey = new HashMap<>();
+            for (ShardAssignment assignment : assignments) {
+                assignment.keys().forEach(key -> shardByKey.put(key, assignment.shard()));
+            }
 
-        // 5. Send DELETE request to the leader
-        RaftClientReply reply = raftClient.io().send(new DeleteCommand(key));
-        if (!reply.isSuccess()) {
-            throw new RuntimeException("Delete failed");
+            // 2. Group operations by shard, remembering their position in the request
+            Map<String, List<Integer>> positionsByShard = new LinkedHashMap<>();
+            for (int i = 0; i < operations.size(); i++) {
+                positionsByShard.computeIfAbsent(shardByKey.get(operations.get(i).key()).shardId(), id -> new ArrayList<>())
+                        .add(i);
+            }
+
+            // 3. Send one BatchCommand per shard, all shards in flight at once
+            BatchResult[] results = new BatchResult[operations.size()];
+            List<CompletableFuture<Void>> replies = new ArrayList<>(positionsByShard.size());
+            for (List<Integer> positions : positionsByShard.values()) {
+                ShardInfo shardInfo = shardByKey.get(operations.get(positions.get(0)).key());
+                List<Message> commands = new ArrayList<>(positions.size());
+                for (int position : positions) {
+                    commands.add(toCommand(operations.get(position)));
+                }
+
+                replies.add(timed("batch", () -> submit(shardInfo, new BatchCommand(commands),
+                        RaftClientRequest.writeRequestType())).thenAccept(reply -> {
+                    if (!reply.isSuccess()) {
+                        throw new RuntimeException("Batch write failed on shard " + shardInfo.shardId());
+                    }
+                    List<String> statuses = CommandCodec.decodeStrings(reply.getMessage().getContent());
+                    for (int i = 0; i < positions.size(); i++) {
+                        int position = positions.get(i);
+                        results[position] = new BatchResult(operations.get(position).key(), statuses.get(i));
+                        if (readCache != null) {
+                            readCache.invalidate(operations.get(position).key());
+                        }
+                    }
+                }));
+            }
+            return CompletableFuture.allOf(replies.toArray(new CompletableFuture[0]))
+                    .thenApply(done -> Arrays.asList(results));
+        });
+    }
+
+    public CompletableFuture<Map<String, String>> multiGet(List<String> keys) {
+        // 1. Group keys by shard using the local shard map
+        return lookupShards(keys.stream().distinct().collect(Collectors.toList())).thenCompose(assignments -> {
+            // 2. One read-only query per shard, all shards in flight at once
+            List<CompletableFuture<Void>> replies = new ArrayList<>(assignments.size());
+            Map<String, String> found = new ConcurrentHashMap<>();
+            for (ShardAssignment assignment : assignments) {
+                ShardInfo shardInfo = assignment.shard();
+                replies.add(timed("multi_get", () -> submit(shardInfo, new MultiGetCommand(assignment.keys()),
+                        RaftClientRequest.readRequestType()))
+                        .thenAccept(reply -> {
+                            if (!reply.isSuccess()) {
+                                throw new RuntimeException("Read failed on shard " + shardInfo.shardId());
+                            }
+                            List<String> values = CommandCodec.decodeNullableStrings(reply.getMessage().getContent());
+                            for (int i = 0; i < values.size(); i++) {
+                                if (values.get(i) != null) {
+                                    found.put(assignment.keys().get(i), values.get(i));
+                                }
+                            }
+                        }));
+            }
+
+            // 3. Merge in request order; missing keys are left out
+            return CompletableFuture.allOf(replies.toArray(new CompletableFuture[0])).thenApply(done -> {
+                Map<String, String> result = new LinkedHashMap<>();
+                for (String key : keys) {
+                    String value = found.get(key);
+                    if (value != null) {
+                        result.put(key, value);
+                    }
+                }
+                return result;
+            });
+        });
+    }
+
+    private CompletableFuture<ShardInfo> lookupShard(String key) {
+        try {
+            return CompletableFuture.completedFuture(shardMapCache.resolve(key));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<List<ShardInfo>> lookupScanShards(String shardId) {
+        try {
+            List<ShardInfo> shards = shardMapCache.shards();
+            if (shardId == null) {
+                return CompletableFuture.completedFuture(shards);
+            }
+            return CompletableFuture.completedFuture(List.of(shards.stream()
+                    .filter(info -> info.shardId().equals(shardId))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown shard: " + shardId))));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<List<ShardAssignment>> lookupShards(List<String> keys) {
+        try {
+            return CompletableFuture.completedFuture(shardMapCache.assign(keys));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
         }
     }
 
+    private Message toCommand(BatchOperation operation) {
+        switch (operation.type()) {
+            case "PUT":
+                return new PutCommand(operation.key(), operation.value()).compressAbove(compressionThreshold);
+            case "DELETE":
+                return new DeleteCommand(operation.key());
+            default:
+                throw new IllegalArgumentException("Unsupported batch operation: " + operation.type());
+        }
+    }
 
+    private static List<RaftPeer> toPeers(List<String> nodes) {
+        return nodes.stream()
+                .map(addr -> {
+                    String[] parts = addr.split(":", 3);
+                    return RaftPeer.newBuilder()
+                            .setId(parts[0])  // Node ID
+                            .setAddress(parts[1] + ":" + parts[2])  // Host:Port
+                            .build();
+                })
+                .collect(Collectors.toList());
+    }
 
     public void sendHeartbeat() {
         String nodeUrl = "http://" + nodeId + ":8080";
-        WebClient.create()
-                .post()
+        // Shards and leadership ride along so the load balancer's tables heal if a push was lost
+        List<String> shards = new ArrayList<>();
+        List<String> ledShards = new ArrayList<>();
+        collectShards(shards, ledShards);
+        webClient.post()
                 .uri("http://load-balancer:8080/api/v1/health/heartbeat")
-                .bodyValue(Map.of("nodeId", nodeUrl, "status", "healthy"))
+                .bodyValue(Map.of("nodeId", nodeUrl, "status", "healthy",
+                        "shards", String.join(",", shards), "leaderOf", String.join(",", ledShards)))
                 .retrieve()
                 .bodyToMono(Void.class)
                 .subscribe();
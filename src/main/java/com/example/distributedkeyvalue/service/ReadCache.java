@@ -0,0 +1,132 @@
+package com.example.distributedkeyvalue.service;
+
+import com.example.distributedkeyvalue.model.KeyValueStateMachine;
+import com.example.distributedkeyvalue.model.VersionedValue;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.ratis.protocol.RaftGroupId;
+import org.apache.ratis.server.RaftServer;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Bounded cache of hot keys for stale reads, on nodes in front of KeyValueService and on the
+ * load balancer in front of the nodes. Caffeine evicts by W-TinyLFU, so a burst of one-off keys
+ * does not push out the zipfian head, and the bound is in bytes of keys and values.
+ *
+ * Entries carry the key's version (the Raft index of its last write) and a newer version is
+ * never replaced by an older one, so a lagging replica cannot roll a cached key back. Every
+ * entry is dropped {@code maxStaleness} after it was read, which bounds how far a cached value
+ * can be behind the leader; on a node, keys of its own shards are also invalidated as soon as
+ * the local state machine applies a write to them. Linearizable and lease reads never use it.
+ */
+public class ReadCache {
+    // Rough per-entry cost of the cache node, the entry and the two string headers
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final Cache<String, Entry> cache;
+    private final Ticker ticker;
+    private final long maxStalenessNanos;
+
+    // When it was read, so keeping an entry against an older offer does not restart its clock
+    private record Entry(VersionedValue value, long cachedAt) { }
+
+    public ReadCache(String name, long maxBytes, Duration maxStaleness) {
+        this(name, maxBytes, maxStaleness, Ticker.systemTicker(), ForkJoinPool.commonPool());
+    }
+
+    ReadCache(String name, long maxBytes, Duration maxStaleness, Ticker ticker, Executor executor) {
+        this.ticker = ticker;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+        this.cache = maxBytes > 0 ? Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, Entry entry) -> (int) Math.min(Integer.MAX_VALUE,
+                        ENTRY_OVERHEAD_BYTES + 2L * (key.length() + entry.value().value().length())))
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                        return remaining(entry, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                        return remaining(entry, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .ticker(ticker)
+                .executor(executor)
+                .recordStats()
+                .build() : null;
+        if (cache != null) {
+            // Hits, misses, evictions and size as cache.* meters tagged cache=<name>
+            CaffeineCacheMetrics.monitor(Metrics.globalRegistry, cache, name);
+            Gauge.builder("kv.cache.bytes", cache, c -> c.policy().eviction().orElseThrow().weightedSize().orElse(0))
+                    .description("Bytes of keys and values held by the read cache")
+                    .baseUnit("bytes")
+                    .tag("cache", name)
+                    .register(Metrics.globalRegistry);
+        }
+    }
+
+    private long remaining(Entry entry, long currentTime) {
+        return Math.max(0, maxStalenessNanos - (currentTime - entry.cachedAt()));
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    // Null on a miss; missing keys are not cached
+    public VersionedValue get(String key) {
+        if (cache == null) {
+            return null;
+        }
+        final Entry entry = cache.getIfPresent(key);
+        return entry != null ? entry.value() : null;
+    }
+
+    public void offer(String key, VersionedValue value) {
+        if (cache == null || value == null) {
+            return;
+        }
+        final Entry offered = new Entry(value, ticker.read());
+        cache.asMap().merge(key, offered,
+                (existing, newer) -> existing.value().version() > newer.value().version() ? existing : newer);
+    }
+
+    public void invalidate(String key) {
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Invalidates keys as the node's state machines apply writes to them. Values read just
+     * before such a write may still be cached afterwards, for at most the staleness bound.
+     */
+    public void watch(RaftServer raftServer) {
+        if (cache == null) {
+            return;
+        }
+        for (RaftGroupId groupId : raftServer.getGroupIds()) {
+            try {
+                ((KeyValueStateMachine) raftServer.getDivision(groupId).getStateMachine()).setWriteListener(this::invalidate);
+            } catch (IOException e) {
+                System.err.println("Failed to watch writes for group " + groupId + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.distributedkeyvalue.service;
+
+import com.example.distributedkeyvalue.model.ShardAssignment;
+import com.example.distributedkeyvalue.model.ShardInfo;
+import com.example.distributedkeyvalue.model.ShardMap;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Local copy of the shard manager's ring, so key → shard resolution happens in-process.
+ * The copy is loaded on first use and refreshed when the manager's epoch moves on, or
+ * when a peer reports a newer epoch than ours.
+ */
+@Service
+public class ShardMapCache {
+    public static final String EPOCH_HEADER = "X-Shard-Epoch";
+
+    private final WebClient webClient = WebClient.create();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile ShardMap shardMap;
+
+    private final Timer resolveTimer = lookupTimer("resolve");
+    private final Timer assignTimer = lookupTimer("assign");
+    private final Timer refreshTimer = Timer.builder("kv.shard.map.refresh")
+            .description("Time to fetch the ring from the shard manager")
+            .register(Metrics.globalRegistry);
+
+    public ShardInfo resolve(String key) {
+        return resolveTimer.record(() -> current().shardFor(key));
+    }
+
+    public List<ShardAssignment> assign(List<String> keys) {
+        return assignTimer.record(() -> current().assign(keys));
+    }
+
+    public List<ShardInfo> shards() {
+        return current().shards();
+    }
+
+    // Includes the blocking fetch when the map is not loaded yet
+    private static Timer lookupTimer(String op) {
+        return Timer.builder("kv.shard.lookup")
+                .description("Key to shard resolution latency")
+                .tag("op", op)
+                .register(Metrics.globalRegistry);
+    }
+
+    public long epoch() {
+        ShardMap map = shardMap;
+        return map != null ? map.epoch() : 0;
+    }
+
+    private ShardMap current() {
+        ShardMap map = shardMap;
+        if (map == null || !map.hasShards()) {
+            map = refresh();
+        }
+        return map;
+    }
+
+    public ShardMap refresh() {
+        ShardMap map = refreshTimer.record(() -> webClient.get()
+                .uri("http://shard-manager:8080/shard-manager/shard-map")
+                .retrieve()
+                .bodyToMono(ShardMap.class)
+                .block(Duration.ofSeconds(2)));
+        if (map != null && (shardMap == null || map.epoch() >= shardMap.epoch())) {
+            shardMap = map;
+        }
+        return shardMap;
+    }
+
+    // A peer has seen a newer map than ours; fetch it without blocking the caller
+    public void refreshIfOlderThan(long epoch) {
+        if (epoch > epoch() && refreshing.compareAndSet(false, true)) {
+            webClient.get()
+                    .uri("http://shard-manager:8080/shard-manager/shard-map")
+                    .retrieve()
+                    .bodyToMono(ShardMap.class)
+                    .doFinally(signal -> refreshing.set(false))
+                    .subscribe(map -> {
+                        if (map.epoch() > epoch()) {
+                            shardMap = map;
+                        }
+                    }, e -> System.err.println("Shard map refresh failed: " + e.getMessage()));
+        }
+    }
+
+    @Scheduled(fixedDelay = 5000)
+    public void pollEpoch() {
+        if (shardMap == null) {
+            return; // Not used in this process (e.g. the shard manager itself)
+        }
+        webClient.get()
+                .uri("http://shard-manager:8080/shard-manager/shard-map/epoch")
+                .retrieve()
+                .bodyToMono(Long.class)
+                .subscribe(this::refreshIfOlderThan,
+                        e -> System.err.println("Shard map epoch check failed: " + e.getMessage()));
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.distributedkeyvalue.service;
+
+import com.example.distributedkeyvalue.config.RaftConfig;
+import com.example.distributedkeyvalue.model.ChangeFeed;
+import com.example.distributedkeyvalue.model.KeyValueStateMachine;
+import com.example.distributedkeyvalue.model.WatchEvent;
+import org.apache.ratis.server.RaftServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams the changes a local replica applies, read from its state machine's ChangeFeed.
+ * Delivery follows the subscriber's demand: nothing is queued per watcher, a watcher that
+ * stops reading is left behind by the ring and gets a resync event instead.
+ *
+ * The event id is the Raft index, set only on the last event a watcher gets from an entry once
+ * the entry is known to be complete, so a watch resumed strictly after the last id skips none
+ * of a batch's changes. An entry whose last change is filtered out keeps no id and is sent
+ * again on resume, which is harmless.
+ */
+@Service
+public class WatchService {
+
+    @Value("${SHARD_IDS:${SHARD_ID:default-shard}}")
+    private List<String> shardIds;
+
+    @Autowired(required = false)  // Only present on nodes
+    private RaftServer raftServer;
+
+    @Autowired
+    private ShardMapCache shardMapCache;
+
+    /**
+     * Changes to {@code key}, or to every key starting with {@code prefix} (every key when both
+     * are null), from the Raft index {@code fromIndex} on, or from now when it is null. The
+     * shard defaults to the key's shard, or to this node's first shard for prefix watches.
+     */
+    public Flux<ServerSentEvent<WatchEvent>> watch(String shard, String key, String prefix, Long fromIndex) {
+        if (key != null && prefix != null) {
+            throw new IllegalArgumentException("Watch either a key or a prefix, not both");
+        }
+        String watchedShard = shard != null ? shard : key != null ? shardMapCache.resolve(key).shardId() : shardIds.get(0);
+        ChangeFeed feed = localFeed(watchedShard);
+        return Flux.create(sink -> new Subscription(watchedShard, feed, feed.cursor(fromIndex), key, prefix, sink).start());
+    }
+
+    private ChangeFeed localFeed(String shard) {
+        try {
+            return ((KeyValueStateMachine) raftServer.getDivision(RaftConfig.getRaftGroupId(shard)).getStateMachine())
+                    .getChangeFeed();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("This node does not replicate shard " + shard);
+        }
+    }
+
+    // Drained on its own worker, woken by the apply loop and by new demand
+    private static final class Subscription {
+        private final String shard;
+        private final ChangeFeed feed;
+        private final ChangeFeed.Cursor cursor;
+        private final String key;
+        private final String prefix;
+        private final FluxSink<ServerSentEvent<WatchEvent>> sink;
+        private final Scheduler.Worker worker = Schedulers.boundedElastic().createWorker();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Runnable wakeUp = this::schedule;
+
+        Subscription(String shard, ChangeFeed feed, ChangeFeed.Cursor cursor, String key, String prefix,
+                     FluxSink<ServerSentEvent<WatchEvent>> sink) {
+            this.shard = shard;
+            this.feed = feed;
+            this.cursor = cursor;
+            this.key = key;
+            this.prefix = prefix;
+            this.sink = sink;
+        }
+
+        void start() {
+            feed.addListener(wakeUp);
+            sink.onRequest(requested -> schedule());
+            sink.onDispose(() -> {
+                feed.removeListener(wakeUp);
+                worker.dispose();
+            });
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                worker.schedule(this::drain);
+            }
+        }
+
+        private void drain() {
+            scheduled.set(false);
+            while (sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+                ChangeFeed.Change change = cursor.next();
+                if (change == null) {
+                    if (cursor.isLapped()) {
+                        // No id: resuming is up to the watcher, after it re-read the keys
+                        WatchEvent resync = WatchEvent.resync(shard, feed.completeIndex() + 1);
+                        sink.next(ServerSentEvent.builder(resync).event(resync.type()).build());
+                        sink.complete();
+                    }
+                    return;
+                }
+                if (key != null ? change.key().equals(key) : prefix == null || change.key().startsWith(prefix)) {
+                    WatchEvent event = WatchEvent.of(shard, change);
+                    ServerSentEvent.Builder<WatchEvent> sse = ServerSentEvent.builder(event).event(event.type());
+                    if (cursor.endsEntry(change)) {
+                        sse.id(Long.toString(change.index()));
+                    }
+                    sink.next(sse.build());
+                }
+            }
+        }
+    }
+}
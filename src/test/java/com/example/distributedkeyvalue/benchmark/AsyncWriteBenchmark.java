@@ -0,0 +1,105 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import com.example.distributedkeyvalue.config.RaftConfig;
+import com.example.distributedkeyvalue.model.commands.PutCommand;
+import org.apache.ratis.client.RaftClient;
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.protocol.RaftGroup;
+import org.apache.ratis.server.RaftServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares write throughput of the old blocking request path (one worker thread per in-flight
+ * write, like a Tomcat pool) with the RaftClient.async() path used by KeyValueService.
+ *
+ * Run with: mvn test -Dtest=AsyncWriteBenchmark -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class AsyncWriteBenchmark {
+    private static final int WRITES = Integer.getInteger("benchmark.writes", 20_000);
+    private static final int WORKER_THREADS = Integer.getInteger("benchmark.threads", 16);
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("benchmark.inflight", 2_000);
+
+    @TempDir
+    static File storageDir;
+
+    private static RaftServer server;
+    private static RaftClient client;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = RaftConfig.newRaftServer("bench-shard", "n1", List.of("n1:localhost:" + port), storageDir).build();
+        server.start();
+        RaftGroup group = server.getGroups().iterator().next();
+        client = RaftClient.newBuilder()
+                .setProperties(new RaftProperties())
+                .setRaftGroup(group)
+                .build();
+        // Wait for the single node to elect itself and warm up the pipeline
+        for (int i = 0; i < 1_000; i++) {
+            client.io().send(new PutCommand("warmup-" + i, "v"));
+        }
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void compareBlockingAndAsyncWrites() throws Exception {
+        double blocking = blockingWrites();
+        double async = asyncWrites();
+        System.out.printf("blocking io(), %d threads: %,.0f writes/s%n", WORKER_THREADS, blocking);
+        System.out.printf("async(), %d in flight:     %,.0f writes/s%n", MAX_IN_FLIGHT, async);
+    }
+
+    private double blockingWrites() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS);
+        long start = System.nanoTime();
+        for (int i = 0; i < WRITES; i++) {
+            String key = "blocking-" + i;
+            workers.execute(() -> {
+                try {
+                    client.io().send(new PutCommand(key, "value"));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.MINUTES);
+        return WRITES / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private double asyncWrites() throws Exception {
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        CompletableFuture<?>[] replies = new CompletableFuture[WRITES];
+        long start = System.nanoTime();
+        for (int i = 0; i < WRITES; i++) {
+            inFlight.acquire();
+            replies[i] = client.async().send(new PutCommand("async-" + i, "value"))
+                    .whenComplete((reply, error) -> inFlight.release());
+        }
+        CompletableFuture.allOf(replies).get(10, TimeUnit.MINUTES);
+        return WRITES / ((System.nanoTime() - start) / 1e9);
+    }
+}
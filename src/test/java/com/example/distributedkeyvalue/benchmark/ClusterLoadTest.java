@@ -0,0 +1,239 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import com.example.distributedkeyvalue.config.RaftClientConfig;
+import com.example.distributedkeyvalue.config.RaftConfig;
+import com.example.distributedkeyvalue.controller.ShardManagerController;
+import com.example.distributedkeyvalue.model.BatchOperation;
+import com.example.distributedkeyvalue.model.ReadConsistency;
+import com.example.distributedkeyvalue.model.ShardRegistrationRequest;
+import com.example.distributedkeyvalue.service.KeyValueService;
+import com.example.distributedkeyvalue.service.ReadCache;
+import com.example.distributedkeyvalue.service.ShardMapCache;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.ratis.server.RaftServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * End-to-end load generator. Starts {@code load.shards} x {@code load.replicas} Ratis servers
+ * in this JVM, points a KeyValueService at them through an in-process shard map, and drives a
+ * closed-loop read/write mix through it. Prints throughput and latency percentiles.
+ *
+ * Run with: mvn test -Dtest=ClusterLoadTest -Dbenchmark=true [-Dload.readRatio=0.5 -Dload.distribution=zipfian ...]
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ClusterLoadTest {
+    private static final int SHARDS = Integer.getInteger("load.shards", 1);
+    private static final int REPLICAS = Integer.getInteger("load.replicas", 3);
+    private static final String ENGINE = System.getProperty("load.engine", "heap");
+    private static final int CLIENTS = Integer.getInteger("load.clients", 64);
+    private static final int KEYS = Integer.getInteger("load.keys", 100_000);
+    private static final int VALUE_SIZE = Integer.getInteger("load.valueSize", 128);
+    private static final double READ_RATIO = Double.parseDouble(System.getProperty("load.readRatio", "0.9"));
+    private static final String DISTRIBUTION = System.getProperty("load.distribution", "uniform");
+    private static final ReadConsistency CONSISTENCY = ReadConsistency.fromParam(System.getProperty("load.consistency"));
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmup", 5);
+    private static final int DURATION_SECONDS = Integer.getInteger("load.duration", 20);
+    // Hot-key cache for stale reads, in bytes; 0 reads through to Raft every time
+    private static final long CACHE_BYTES = Long.getLong("load.cacheBytes", 0);
+
+    @TempDir
+    static File storageDir;
+
+    private static final List<RaftServer> servers = new ArrayList<>();
+    private static KeyValueService service;
+
+    @BeforeAll
+    static void startCluster() throws Exception {
+        ShardManagerController shardManager = new ShardManagerController(128);
+        for (int s = 0; s < SHARDS; s++) {
+            String shardId = "shard" + s;
+            List<String> peers = new ArrayList<>();
+            for (int r = 0; r < REPLICAS; r++) {
+                peers.add(shardId + "-node" + r + ":localhost:" + freePort());
+            }
+            for (String peer : peers) {
+                String nodeId = peer.substring(0, peer.indexOf(':'));
+                RaftServer server = RaftConfig.newRaftServer(shardId, nodeId, peers, new File(storageDir, nodeId), ENGINE).build();
+                server.start();
+                servers.add(server);
+            }
+            shardManager.registerShard(new ShardRegistrationRequest(shardId, List.of(), peers));
+        }
+
+        // The service acts as the first node of shard0, so lease and stale reads of that
+        // shard can be served locally just like on a real node
+        ShardMapCache shardMapCache = new ShardMapCache();
+        ReflectionTestUtils.setField(shardMapCache, "shardMap", shardManager.getShardMap());
+        RaftClientConfig clientConfig = new RaftClientConfig();
+        service = new KeyValueService();
+        ReflectionTestUtils.setField(service, "nodeId", "shard0-node0");
+        ReflectionTestUtils.setField(service, "shardId", "shard0");
+        ReflectionTestUtils.setField(service, "raftServer", servers.get(0));
+        ReflectionTestUtils.setField(service, "shardMapCache", shardMapCache);
+        ReflectionTestUtils.setField(service, "raftProperties", clientConfig.raftProperties());
+        ReflectionTestUtils.setField(service, "grpcFactory", clientConfig.grpcFactory());
+        ReadCache readCache = new ReadCache("kv.reads", CACHE_BYTES, Duration.ofSeconds(1));
+        servers.forEach(readCache::watch);
+        ReflectionTestUtils.setField(service, "readCache", readCache);
+
+        // Load every key so reads hit real values; the first batches also wait out the elections
+        String value = "v".repeat(VALUE_SIZE);
+        for (int first = 0; first < KEYS; first += 500) {
+            List<BatchOperation> operations = new ArrayList<>();
+            for (int i = first; i < Math.min(first + 500, KEYS); i++) {
+                operations.add(new BatchOperation("PUT", key(i), value));
+            }
+            service.batch(operations).get(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @AfterAll
+    static void stopCluster() throws Exception {
+        for (RaftServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    void runWorkload() throws Exception {
+        ToIntFunction<ThreadLocalRandom> keys = switch (DISTRIBUTION) {
+            case "uniform" -> random -> random.nextInt(KEYS);
+            case "zipfian" -> new ScrambledZipfian(KEYS, 0.99)::next;
+            default -> throw new IllegalArgumentException("Unknown distribution: " + DISTRIBUTION);
+        };
+        Recorder reads = new Recorder(3);
+        Recorder writes = new Recorder(3);
+        AtomicLong errors = new AtomicLong();
+
+        runPhase(WARMUP_SECONDS, keys, reads, writes, errors);
+        reads.reset();
+        writes.reset();
+        errors.set(0);
+
+        long start = System.nanoTime();
+        runPhase(DURATION_SECONDS, keys, reads, writes, errors);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Histogram readHistogram = reads.getIntervalHistogram();
+        Histogram writeHistogram = writes.getIntervalHistogram();
+
+        System.out.printf("%d shard(s) x %d replicas (%s), %d clients, %,d %s keys, %d B values, %.0f%% %s reads, %,d B cache%n",
+                SHARDS, REPLICAS, ENGINE, CLIENTS, KEYS, DISTRIBUTION, VALUE_SIZE, READ_RATIO * 100,
+                CONSISTENCY.name().toLowerCase(), CACHE_BYTES);
+        System.out.printf("throughput: %,.0f ops/s, %d errors%n",
+                (readHistogram.getTotalCount() + writeHistogram.getTotalCount()) / seconds, errors.get());
+        print("read", readHistogram);
+        print("write", writeHistogram);
+    }
+
+    // Each client waits for its reply before sending the next request, so latency is measured
+    // at the throughput the cluster sustains rather than against a fixed arrival rate
+    private static void runPhase(int seconds, ToIntFunction<ThreadLocalRandom> keys,
+                                 Recorder reads, Recorder writes, AtomicLong errors) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        String value = "w".repeat(VALUE_SIZE);
+        List<Thread> clients = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            Thread client = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    String key = key(keys.applyAsInt(random));
+                    boolean read = random.nextDouble() < READ_RATIO;
+                    long begin = System.nanoTime();
+                    CompletableFuture<?> reply = read ? service.get(key, CONSISTENCY) : service.put(key, value);
+                    try {
+                        reply.join();
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                    (read ? reads : writes).recordValue(System.nanoTime() - begin);
+                }
+            }, "load-client-" + c);
+            client.start();
+            clients.add(client);
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+    }
+
+    private static void print(String operation, Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return;
+        }
+        System.out.printf("%-5s n=%,d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n", operation,
+                histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6,
+                histogram.getMaxValue() / 1e6);
+    }
+
+    private static String key(int i) {
+        return "key-" + i;
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Zipfian ranks as in YCSB (Gray et al.), hashed so the hot keys are spread over the ring
+     * instead of all landing next to each other.
+     */
+    static final class ScrambledZipfian {
+        private final int items;
+        private final double theta;
+        private final double zetan;
+        private final double alpha;
+        private final double eta;
+
+        ScrambledZipfian(int items, double theta) {
+            this.items = items;
+            this.theta = theta;
+            this.zetan = zeta(items, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        }
+
+        int next(ThreadLocalRandom random) {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            long rank;
+            if (uz < 1) {
+                rank = 0;
+            } else if (uz < 1 + Math.pow(0.5, theta)) {
+                rank = 1;
+            } else {
+                rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+            }
+            return (int) Math.floorMod((rank + 1) * 0x9E3779B97F4A7C15L, (long) items);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
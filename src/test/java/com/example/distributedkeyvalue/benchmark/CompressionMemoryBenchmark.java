@@ -0,0 +1,81 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import com.example.distributedkeyvalue.model.KeyValueStateMachine;
+import com.example.distributedkeyvalue.model.ValueCompression;
+import com.example.distributedkeyvalue.model.VersionedValue;
+import com.example.distributedkeyvalue.model.commands.PutCommand;
+import com.example.distributedkeyvalue.model.store.HeapKeyValueStore;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.proto.RaftProtos.RaftPeerRole;
+import org.apache.ratis.proto.RaftProtos.StateMachineLogEntryProto;
+import org.apache.ratis.statemachine.TransactionContext;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Log bytes, store bytes and heap per entry for JSON values written plain and compressed,
+ * across value sizes. Throughput of the same paths is in the JMH CompressionBenchmark.
+ *
+ * Run with: mvn test -Dtest=CompressionMemoryBenchmark -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class CompressionMemoryBenchmark {
+    private static final int ENTRIES = Integer.getInteger("benchmark.entries", 5_000);
+
+    @Test
+    void compareValueSizes() throws Exception {
+        for (int size : new int[]{2_048, 8_192, 20_480, 51_200}) {
+            measure(size, false);
+            measure(size, true);
+        }
+    }
+
+    private void measure(int size, boolean compressed) throws Exception {
+        Random random = new Random(size);
+        long heapBefore = usedHeapAfterGc();
+        HeapKeyValueStore store = new HeapKeyValueStore();
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine(store);
+        long logBytes = 0;
+        long plainBytes = 0;
+        for (int i = 0; i < ENTRIES; i++) {
+            String value = JsonDocuments.generate(random, size);
+            byte[] compressedValue = compressed ? ValueCompression.compress(value) : null;
+            PutCommand put = compressedValue != null
+                    ? new PutCommand("doc:" + i, compressedValue, 0, VersionedValue.ANY)
+                    : new PutCommand("doc:" + i, value);
+            ByteString entry = put.getContent();
+            logBytes += entry.size();
+            plainBytes += value.length();
+            apply(stateMachine, i + 1, entry);
+        }
+        long heap = usedHeapAfterGc() - heapBefore;
+        System.out.printf("%6d B values %-10s: %7.0f log B/entry, %7.0f store B/entry, %7.0f heap B/entry (plain %7.0f)%n",
+                size, compressed ? "compressed" : "plain", (double) logBytes / ENTRIES,
+                (double) store.dataBytes() / ENTRIES, (double) heap / ENTRIES, (double) plainBytes / ENTRIES);
+        stateMachine.close();
+    }
+
+    private static void apply(KeyValueStateMachine stateMachine, long index, ByteString command) {
+        LogEntryProto entry = LogEntryProto.newBuilder()
+                .setTerm(1)
+                .setIndex(index)
+                .setStateMachineLogEntry(StateMachineLogEntryProto.newBuilder().setLogData(command))
+                .build();
+        stateMachine.applyTransaction(TransactionContext.newBuilder()
+                .setServerRole(RaftPeerRole.FOLLOWER)
+                .setStateMachine(stateMachine)
+                .setLogEntry(entry)
+                .build()).join();
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import java.util.Random;
+
+// JSON blobs shaped like real records: repeated field names, a small vocabulary, varying numbers
+final class JsonDocuments {
+    private static final String[] WORDS = {"active", "pending", "premium", "basic", "alice", "bob", "carol",
+            "berlin", "paris", "tokyo", "checkout", "search", "mobile", "desktop", "admin", "viewer"};
+
+    private JsonDocuments() {
+    }
+
+    static String generate(Random random, int size) {
+        StringBuilder json = new StringBuilder(size + 256).append("{\"events\":[");
+        while (json.length() < size) {
+            json.append("{\"id\":").append(random.nextInt(1_000_000))
+                    .append(",\"user\":\"").append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(1000))
+                    .append("\",\"status\":\"").append(WORDS[random.nextInt(WORDS.length)])
+                    .append("\",\"city\":\"").append(WORDS[random.nextInt(WORDS.length)])
+                    .append("\",\"amount\":").append(random.nextInt(100_000) / 100.0)
+                    .append(",\"ts\":").append(1_700_000_000_000L + random.nextInt(1 << 30))
+                    .append("},");
+        }
+        return json.append("{}]}").toString();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.distributedkeyvalue.benchmark;
+
+import com.example.distributedkeyvalue.model.store.HeapKeyValueStore;
+import com.example.distributedkeyvalue.model.store.KeyValueStore;
+import com.example.distributedkeyvalue.model.store.OffHeapKeyValueStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Compares bytes per entry and GC time of the heap map and the off-heap engine. Bytes per entry
+ * cover everything the store holds, its ordered index included, and a full scan checks that the
+ * index is there to walk.
+ *
+ * Run with: mvn test -Dtest=StoreMemoryBenchmark -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class StoreMemoryBenchmark {
+    private static final int ENTRIES = Integer.getInteger("benchmark.entries", 2_000_000);
+    private static final int VALUE_SIZE = Integer.getInteger("benchmark.valueSize", 32);
+
+    @Test
+    void compareEngines() {
+        measure("heap", HeapKeyValueStore::new);
+        measure("offheap", OffHeapKeyValueStore::new);
+    }
+
+    private void measure(String name, Supplier<KeyValueStore> engine) {
+        String value = "x".repeat(VALUE_SIZE);
+        long heapBefore = usedHeapAfterGc();
+        long directBefore = directMemory();
+        long gcTimeBefore = gcTimeMillis();
+        long gcCountBefore = gcCount();
+
+        KeyValueStore store = engine.get();
+        for (int i = 0; i < ENTRIES; i++) {
+            store.put("user:" + i, value);
+        }
+        // Churn: overwrite every key once, as a steady write load would
+        for (int i = 0; i < ENTRIES; i++) {
+            store.put("user:" + i, value);
+        }
+
+        long gcTime = gcTimeMillis() - gcTimeBefore;
+        long gcCount = gcCount() - gcCountBefore;
+        long heap = usedHeapAfterGc() - heapBefore;
+        long direct = directMemory() - directBefore;
+        long scanStart = System.nanoTime();
+        long[] scanned = new long[1];
+        store.scan(null, null, (key, v) -> ++scanned[0] > 0);
+        long scanMillis = (System.nanoTime() - scanStart) / 1_000_000;
+        System.out.printf("%-8s %,d entries: %.1f heap B/entry, %.1f direct B/entry, %.1f total B/entry with index,"
+                        + " %d GCs, %d ms GC time, full scan of %,d in %d ms%n",
+                name, store.size(), (double) heap / ENTRIES, (double) direct / ENTRIES,
+                (double) (heap + direct) / ENTRIES, gcCount, gcTime, scanned[0], scanMillis);
+        store.close();
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long directMemory() {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+    }
+
+    private static long gcTimeMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .sum();
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+                .sum();
+    }
+}
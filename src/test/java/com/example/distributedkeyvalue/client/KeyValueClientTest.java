@@ -0,0 +1,166 @@
+package com.example.distributedkeyvalue.client;
+
+import com.example.distributedkeyvalue.config.RaftConfig;
+import com.example.distributedkeyvalue.model.BatchOperation;
+import com.example.distributedkeyvalue.model.BatchResult;
+import com.example.distributedkeyvalue.model.NotAnIntegerException;
+import com.example.distributedkeyvalue.model.ReadConsistency;
+import com.example.distributedkeyvalue.model.ShardMap;
+import com.example.distributedkeyvalue.model.VersionMismatchException;
+import com.example.distributedkeyvalue.model.VersionedValue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.ratis.server.RaftServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KeyValueClientTest {
+
+    @TempDir
+    static File storageDir;
+
+    private static final List<RaftServer> servers = new ArrayList<>();
+    private static KeyValueClient client;
+    // The global registry drops measurements until a real registry is attached
+    private static final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeAll
+    static void startShards() throws Exception {
+        Metrics.addRegistry(meterRegistry);
+        // Two single-node shards, so multi-key requests are split across groups
+        ShardMap ring = ShardMap.empty(128);
+        for (String shardId : List.of("shard1", "shard2")) {
+            String nodeId = shardId + "-node1";
+            List<String> peers = List.of(nodeId + ":localhost:" + freePort());
+            RaftServer server = RaftConfig.newRaftServer(shardId, nodeId, peers, new File(storageDir, nodeId)).build();
+            server.start();
+            servers.add(server);
+            ring = ring.withShard(shardId, peers);
+        }
+        ShardMap shardMap = ring;
+        client = new KeyValueClient(() -> shardMap, RaftConfig.newClientProperties());
+    }
+
+    @AfterAll
+    static void stopShards() throws Exception {
+        client.close();
+        for (RaftServer server : servers) {
+            server.close();
+        }
+        Metrics.removeRegistry(meterRegistry);
+    }
+
+    @Test
+    void putGetDelete() throws Exception {
+        client.put("user:1", "alice").get(1, TimeUnit.MINUTES);
+        assertEquals("alice", client.get("user:1").get(1, TimeUnit.MINUTES));
+        assertEquals("alice", client.get("user:1", ReadConsistency.STALE).get(1, TimeUnit.MINUTES));
+
+        client.delete("user:1").get(1, TimeUnit.MINUTES);
+        assertNull(client.get("user:1").get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    void batchAndMultiGetSpanShards() throws Exception {
+        List<String> keys = IntStream.range(0, 20).mapToObj(i -> "batch:" + i).collect(Collectors.toList());
+        List<BatchOperation> operations = keys.stream()
+                .map(key -> new BatchOperation("PUT", key, "v-" + key))
+                .collect(Collectors.toList());
+        operations.add(new BatchOperation("DELETE", "batch:3", null));
+        operations.add(new BatchOperation("DELETE", "batch:missing", null));
+
+        List<BatchResult> results = client.batch(operations).get(1, TimeUnit.MINUTES);
+        assertEquals(operations.size(), results.size());
+        assertEquals(new BatchResult("batch:0", "OK"), results.get(0));
+        assertEquals(new BatchResult("batch:3", "DELETED"), results.get(20));
+        assertEquals(new BatchResult("batch:missing", "NOT_FOUND"), results.get(21));
+
+        List<String> requested = new ArrayList<>(keys);
+        requested.add("batch:missing");
+        Map<String, String> expected = new LinkedHashMap<>();
+        keys.stream().filter(key -> !key.equals("batch:3")).forEach(key -> expected.put(key, "v-" + key));
+        Map<String, String> found = client.multiGet(requested).get(1, TimeUnit.MINUTES);
+        assertEquals(expected, found);
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(found.keySet()));
+    }
+
+    @Test
+    void compareAndSetRejectsStaleVersions() throws Exception {
+        long created = client.compareAndSet("counter", VersionedValue.ABSENT, "1").get(1, TimeUnit.MINUTES);
+        assertEquals(new VersionedValue("1", created), client.getVersioned("counter").get(1, TimeUnit.MINUTES));
+
+        long updated = client.compareAndSet("counter", created, "2").get(1, TimeUnit.MINUTES);
+        ExecutionException stale = assertThrows(ExecutionException.class,
+                () -> client.compareAndSet("counter", created, "3").get(1, TimeUnit.MINUTES));
+        assertEquals(updated, ((VersionMismatchException) stale.getCause()).getCurrentVersion());
+
+        client.compareAndDelete("counter", updated).get(1, TimeUnit.MINUTES);
+        assertNull(client.getVersioned("counter").get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    void countersAndAppendsUpdateInPlace() throws Exception {
+        List<CompletableFuture<Long>> increments = IntStream.range(0, 50)
+                .mapToObj(i -> client.increment("hits", 2))
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(increments.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        assertEquals(95L, client.increment("hits", -5).get(1, TimeUnit.MINUTES));
+
+        client.put("name", "alice").get(1, TimeUnit.MINUTES);
+        ExecutionException notCounter = assertThrows(ExecutionException.class,
+                () -> client.increment("name", 1).get(1, TimeUnit.MINUTES));
+        assertInstanceOf(NotAnIntegerException.class, notCounter.getCause());
+
+        assertEquals("alice,bob", client.append("name", ",bob").get(1, TimeUnit.MINUTES));
+        assertEquals("alice,bob", client.get("name").get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    void expiredKeysAreRemovedByTheLeader() throws Exception {
+        // Written first, so the TTL below does not run out while the shards elect their leaders
+        client.put("session:2", "kept").get(1, TimeUnit.MINUTES);
+        client.put("session:1", "token", Duration.ofSeconds(5)).get(1, TimeUnit.MINUTES);
+        assertEquals("token", client.get("session:1").get(1, TimeUnit.MINUTES));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (expired() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, expired());
+        assertNull(client.get("session:1").get(1, TimeUnit.MINUTES));
+        assertEquals("kept", client.get("session:2").get(1, TimeUnit.MINUTES));
+    }
+
+    private static double expired() {
+        return meterRegistry.find("kv.store.expired").counters().stream()
+                .mapToDouble(Counter::count)
+                .sum();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
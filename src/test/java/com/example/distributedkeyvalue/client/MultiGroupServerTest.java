@@ -0,0 +1,104 @@
+package com.example.distributedkeyvalue.client;
+
+import com.example.distributedkeyvalue.config.RaftConfig;
+import com.example.distributedkeyvalue.model.KeyValueStateMachine;
+import com.example.distributedkeyvalue.model.ShardMap;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.ratis.protocol.RaftGroupId;
+import org.apache.ratis.server.RaftServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MultiGroupServerTest {
+    private static final List<String> SHARDS = List.of("shard-a", "shard-b", "shard-c");
+
+    @TempDir
+    File storageDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private List<String> peers;
+
+    @BeforeEach
+    void attachRegistry() throws Exception {
+        Metrics.addRegistry(meterRegistry);
+        peers = List.of("node1:localhost:" + freePort());
+    }
+
+    @AfterEach
+    void detachRegistry() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+
+    @Test
+    void oneServerHostsAGroupPerShardAcrossRestarts() throws Exception {
+        ShardMap ring = ShardMap.empty(128);
+        for (String shardId : SHARDS) {
+            ring = ring.withShard(shardId, peers);
+        }
+        ShardMap shardMap = ring;
+
+        RaftServer server = start();
+        try (KeyValueClient client = new KeyValueClient(() -> shardMap, RaftConfig.newClientProperties())) {
+            for (int i = 0; i < 30; i++) {
+                client.put("key:" + i, "v" + i).get(1, TimeUnit.MINUTES);
+            }
+            // Each group's state machine holds only the keys its shard owns
+            for (String shardId : SHARDS) {
+                long owned = IntStream.range(0, 30)
+                        .filter(i -> shardMap.shardFor("key:" + i).shardId().equals(shardId))
+                        .count();
+                assertEquals(owned, (long) entries(shardId));
+            }
+        } finally {
+            server.close();
+        }
+
+        // The groups come back from storage; adding them again is a no-op
+        server = start();
+        try (KeyValueClient client = new KeyValueClient(() -> shardMap, RaftConfig.newClientProperties())) {
+            Set<String> hosted = new HashSet<>();
+            for (RaftGroupId groupId : server.getGroupIds()) {
+                hosted.add(((KeyValueStateMachine) server.getDivision(groupId).getStateMachine()).getShardId());
+            }
+            assertEquals(Set.copyOf(SHARDS), hosted);
+            for (int i = 0; i < 30; i++) {
+                assertEquals("v" + i, client.get("key:" + i).get(1, TimeUnit.MINUTES));
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    private RaftServer start() throws Exception {
+        RaftServer server = RaftConfig.newRaftServer(SHARDS, "node1", peers, storageDir, "heap").build();
+        server.start();
+        RaftConfig.addGroups(server, SHARDS, peers);
+        return server;
+    }
+
+    private double entries(String shardId) {
+        return meterRegistry.find("kv.store.entries").tag("shard", shardId).gauges().stream()
+                .mapToDouble(Gauge::value)
+                .sum();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.distributedkeyvalue.controller;
+
+import com.example.distributedkeyvalue.model.ShardMap;
+import com.example.distributedkeyvalue.model.ShardRegistrationRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShardManagerControllerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keepsTheRingAndItsEpochAcrossRestarts() {
+        Path mapFile = dir.resolve("manager/shard-map.json");
+        ShardManagerController manager = new ShardManagerController(64, mapFile);
+        manager.registerShard(new ShardRegistrationRequest("shard1", List.of(), List.of("n1:n1:9870")));
+        manager.registerShard(new ShardRegistrationRequest("shard2", List.of(), List.of("n2:n2:9870")));
+        ShardMap before = manager.getShardMap();
+        assertEquals(2, before.epoch());
+
+        ShardManagerController restarted = new ShardManagerController(64, mapFile);
+        ShardMap after = restarted.getShardMap();
+        assertEquals(before.epoch(), after.epoch());
+        assertEquals(before.shardToNodes(), after.shardToNodes());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(before.shardIdFor("k" + i), after.shardIdFor("k" + i));
+        }
+
+        // Later changes continue from the saved epoch, so caches accept them
+        restarted.registerShard(new ShardRegistrationRequest("shard3", List.of(), List.of("n3:n3:9870")));
+        assertEquals(3, restarted.getShardMapEpoch());
+    }
+}
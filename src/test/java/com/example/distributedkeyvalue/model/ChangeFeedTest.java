@@ -0,0 +1,96 @@
+package com.example.distributedkeyvalue.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeFeedTest {
+
+    @Test
+    void cursorsStartAtTheRequestedIndex() {
+        ChangeFeed feed = new ChangeFeed(8);
+        ChangeFeed.Cursor fromNow = feed.cursor(null);
+        feed.publish("a", "1", 1);
+        feed.publish("b", null, 3);
+        feed.publish("a", "2", 3);  // One entry may change several keys
+        feed.publish("c", "1", 5);
+
+        assertEquals(List.of(1L, 3L, 3L, 5L), indexes(fromNow));
+        assertEquals(List.of(3L, 3L, 5L), indexes(feed.cursor(2L)));
+        assertEquals(List.of(3L, 3L, 5L), indexes(feed.cursor(3L)));
+        assertEquals(List.of(), indexes(feed.cursor(6L)));
+        assertEquals(List.of(), indexes(feed.cursor(null)));
+    }
+
+    @Test
+    void anEntryEndsOnceItsLastChangeIsReadAndItIsApplied() {
+        ChangeFeed feed = new ChangeFeed(8);
+        ChangeFeed.Cursor cursor = feed.cursor(null);
+        feed.publish("a", "1", 1);
+        feed.applied(1);
+        feed.publish("b", "1", 2);
+        feed.publish("c", "1", 2);
+
+        ChangeFeed.Change change = cursor.next();
+        assertTrue(cursor.endsEntry(change));
+        change = cursor.next();
+        assertFalse(cursor.endsEntry(change));  // c is still to come
+        change = cursor.next();
+        assertFalse(cursor.endsEntry(change));  // Entry 2 may still publish more
+        feed.applied(2);
+        assertTrue(cursor.endsEntry(change));
+    }
+
+    @Test
+    void readersThatFallARingBehindMustResync() {
+        ChangeFeed feed = new ChangeFeed(4);
+        ChangeFeed.Cursor slow = feed.cursor(null);
+        for (long index = 1; index <= 6; index++) {
+            feed.publish("k" + index, "v", index);
+            feed.applied(index);
+        }
+
+        assertNull(slow.next());
+        assertTrue(slow.isLapped());
+        // Indexes 1 and 2 were overwritten; 3 to 6 are still there
+        assertTrue(feed.cursor(2L).isLapped());
+        assertEquals(List.of(4L, 5L, 6L), indexes(feed.cursor(4L)));
+        assertEquals(7, feed.completeIndex() + 1);
+    }
+
+    @Test
+    void resetInvalidatesOpenCursors() {
+        ChangeFeed feed = new ChangeFeed(8);
+        AtomicInteger signals = new AtomicInteger();
+        feed.addListener(signals::incrementAndGet);
+        ChangeFeed.Cursor cursor = feed.cursor(null);
+        feed.publish("a", "1", 1);
+        feed.applied(1);
+        feed.applied(2);  // Nothing published, nobody woken
+        assertEquals(1, signals.get());
+
+        feed.reset(10);
+        assertEquals(2, signals.get());
+        assertNull(cursor.next());
+        assertTrue(cursor.isLapped());
+        assertTrue(feed.cursor(10L).isLapped());
+        assertFalse(feed.cursor(11L).isLapped());
+        assertEquals(10, feed.completeIndex());
+    }
+
+    private static List<Long> indexes(ChangeFeed.Cursor cursor) {
+        List<Long> indexes = new ArrayList<>();
+        for (ChangeFeed.Change change = cursor.next(); change != null; change = cursor.next()) {
+            indexes.add(change.index());
+        }
+        assertFalse(cursor.isLapped());
+        return indexes;
+    }
+}
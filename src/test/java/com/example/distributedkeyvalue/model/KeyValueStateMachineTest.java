@@ -0,0 +1,458 @@
+package com.example.distributedkeyvalue.model;
+
+import com.example.distributedkeyvalue.model.commands.AppendCommand;
+import com.example.distributedkeyvalue.model.commands.BatchCommand;
+import com.example.distributedkeyvalue.model.commands.CommandCodec;
+import com.example.distributedkeyvalue.model.commands.CommitUploadCommand;
+import com.example.distributedkeyvalue.model.commands.DeleteCommand;
+import com.example.distributedkeyvalue.model.commands.ExpireCommand;
+import com.example.distributedkeyvalue.model.commands.GetCommand;
+import com.example.distributedkeyvalue.model.commands.IncrementCommand;
+import com.example.distributedkeyvalue.model.commands.PutCommand;
+import com.example.distributedkeyvalue.model.commands.ScanCommand;
+import com.example.distributedkeyvalue.model.commands.UploadChunkCommand;
+import com.example.distributedkeyvalue.model.store.BitcaskKeyValueStore;
+import com.example.distributedkeyvalue.model.store.HeapKeyValueStore;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.proto.RaftProtos.RaftPeerRole;
+import org.apache.ratis.proto.RaftProtos.StateMachineLogEntryProto;
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.protocol.RaftGroupId;
+import org.apache.ratis.protocol.RaftPeerId;
+import org.apache.ratis.server.RaftServer;
+import org.apache.ratis.server.RaftServerConfigKeys;
+import org.apache.ratis.server.storage.FileInfo;
+import org.apache.ratis.server.storage.RaftStorage;
+import org.apache.ratis.statemachine.SnapshotInfo;
+import org.apache.ratis.statemachine.TransactionContext;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.apache.ratis.util.MD5FileUtil;
+import org.apache.ratis.util.SizeInBytes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class KeyValueStateMachineTest {
+    private static final RaftGroupId GROUP = RaftGroupId.randomId();
+
+    @Test
+    void staleReadWaitsUntilMinIndexIsApplied() throws Exception {
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine();
+        apply(stateMachine, 1, new PutCommand("k", "old"));
+
+        CompletableFuture<Message> read = stateMachine.queryStale(new GetCommand("k"), 3);
+        apply(stateMachine, 2, new PutCommand("other", "x"));
+        assertFalse(read.isDone());
+
+        apply(stateMachine, 3, new PutCommand("k", "new"));
+        assertEquals("new", read.get(5, TimeUnit.SECONDS).getContent().toStringUtf8());
+        // Already applied, so answered right away
+        assertEquals("new", stateMachine.queryStale(new GetCommand("k"), 2).getNow(null).getContent().toStringUtf8());
+        stateMachine.close();
+    }
+
+    @Test
+    void scansPagesInKeyOrder() throws Exception {
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine();
+        long index = 0;
+        for (String key : List.of("user:3", "order:1", "user:1", "user:10", "user:2", "userz")) {
+            apply(stateMachine, ++index, new PutCommand(key, "v-" + key));
+        }
+        apply(stateMachine, ++index, new DeleteCommand("user:2"));
+
+        List<String> keys = new ArrayList<>();
+        String token = null;
+        int pages = 0;
+        do {
+            ScanPage page = scan(stateMachine, ScanCommand.of("user:", null, null, token, 2));
+            page.entries().forEach(entry -> assertEquals("v-" + entry.key(), entry.value()));
+            page.entries().forEach(entry -> keys.add(entry.key()));
+            token = page.nextToken();
+            pages++;
+        } while (token != null);
+        assertEquals(List.of("user:1", "user:10", "user:3"), keys);
+        assertEquals(2, pages);
+
+        assertEquals(List.of("order:1", "user:1"), scan(stateMachine, ScanCommand.of(null, null, "user:10", null, 10))
+                .entries().stream().map(ScanPage.Entry::key).collect(Collectors.toList()));
+        stateMachine.close();
+    }
+
+    @Test
+    void expiresKeysOnlyThroughTheLog() throws Exception {
+        HeapKeyValueStore store = new HeapKeyValueStore();
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine(store);
+        apply(stateMachine, 1, new PutCommand("session", "s", 1_000));
+        apply(stateMachine, 2, new PutCommand("rewritten", "old", 1_000));
+        apply(stateMachine, 3, new PutCommand("rewritten", "new"));
+        apply(stateMachine, 4, new PutCommand("plain", "\0not a header"));
+
+        // Past its deadline, so hidden from reads, but still stored until the log says otherwise
+        assertEquals("", stateMachine.query(new GetCommand("session")).get(5, TimeUnit.SECONDS).getContent().toStringUtf8());
+        assertNull(stateMachine.get("session"));
+        assertEquals("\0not a header", stateMachine.get("plain"));
+        assertEquals(3, store.size());
+
+        // Replicas only drop keys whose deadline is before the time in the entry
+        apply(stateMachine, 5, new ExpireCommand(500, List.of("session")));
+        assertEquals(3, store.size());
+        apply(stateMachine, 6, new ExpireCommand(2_000, List.of("session", "rewritten")));
+        assertEquals(2, store.size());
+
+        assertEquals("new", stateMachine.query(new GetCommand("rewritten")).get(5, TimeUnit.SECONDS).getContent().toStringUtf8());
+        assertEquals("\0not a header", stateMachine.query(new GetCommand("plain")).get(5, TimeUnit.SECONDS).getContent().toStringUtf8());
+        stateMachine.close();
+    }
+
+    @Test
+    void conditionalWritesCheckTheVersionWhenApplied() throws Exception {
+        HeapKeyValueStore store = new HeapKeyValueStore();
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine(store);
+        assertEquals(new WriteResult(true, 1), write(stateMachine, 1, new PutCommand("k", "a")));
+        assertEquals(new VersionedValue("a", 1), versioned(stateMachine, "k"));
+
+        // Two writers read version 1; only the first one's write goes through
+        assertEquals(new WriteResult(true, 2), write(stateMachine, 2, new PutCommand("k", "b", 0, 1)));
+        assertEquals(new WriteResult(false, 2), write(stateMachine, 3, new PutCommand("k", "c", 0, 1)));
+        assertEquals(new VersionedValue("b", 2), versioned(stateMachine, "k"));
+
+        // Create-only
+        assertEquals(new WriteResult(false, 2), write(stateMachine, 4, new PutCommand("k", "d", 0, VersionedValue.ABSENT)));
+        assertEquals(new WriteResult(true, 5), write(stateMachine, 5, new PutCommand("new", "d", 0, VersionedValue.ABSENT)));
+
+        assertEquals(new WriteResult(false, 2), write(stateMachine, 6, new DeleteCommand("k", 1)));
+        assertEquals(new WriteResult(true, 7), write(stateMachine, 7, new DeleteCommand("k", 2)));
+        assertNull(versioned(stateMachine, "k"));
+        assertEquals(new WriteResult(false, VersionedValue.ABSENT), write(stateMachine, 8, new PutCommand("k", "e", 0, 2)));
+
+        // Written before versions existed: reads as version 0, yet exists, so create-only must fail
+        store.put("legacy", "x");
+        assertEquals(new VersionedValue("x", 0), versioned(stateMachine, "legacy"));
+        assertEquals(new WriteResult(false, 0), write(stateMachine, 9, new PutCommand("legacy", "y", 0, VersionedValue.ABSENT)));
+        stateMachine.close();
+    }
+
+    @Test
+    void conditionalWritesTreatExpiredKeysAsAbsent() throws Exception {
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine();
+        // Expires at 1000; the leader's ExpireCommand has not removed it yet
+        apply(stateMachine, 1, new PutCommand("k", "a", 1000));
+        apply(stateMachine, 2, new PutCommand("gone", "a", 1000));
+
+        // Before the deadline the key is there at version 1
+        assertEquals(new WriteResult(false, 1), write(stateMachine, 3, new PutCommand("k", "b", 0, VersionedValue.ABSENT, 999)));
+
+        // Past it, the key is absent: create-only succeeds and the old version no longer matches
+        assertEquals(new WriteResult(false, VersionedValue.ABSENT), write(stateMachine, 4, new DeleteCommand("gone", 2, 2000)));
+        assertEquals(new WriteResult(false, VersionedValue.ABSENT), write(stateMachine, 5, new PutCommand("gone", "b", 0, 2, 2000)));
+        assertEquals(new WriteResult(true, 6), write(stateMachine, 6, new PutCommand("k", "b", 0, VersionedValue.ABSENT, 2000)));
+        assertEquals(new VersionedValue("b", 6), versioned(stateMachine, "k"));
+
+        // The clock travels in the entry, so replicas decode the same decision
+        assertEquals(2000, ((PutCommand) CommandCodec.decode(new PutCommand("k", "c", 0, 6, 2000).getContent())).getNow());
+        assertEquals(2000, ((DeleteCommand) CommandCodec.decode(new DeleteCommand("k", 6, 2000).getContent())).getNow());
+        stateMachine.close();
+    }
+
+    @Test
+    void incrementsAndAppendsReadTheValueWhenApplied() throws Exception {
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine();
+        assertEquals(new VersionedValue("5", 1), update(stateMachine, 1, new IncrementCommand("hits", 5, 0)));
+        assertEquals(new VersionedValue("2", 2), update(stateMachine, 2, new IncrementCommand("hits", -3, 0)));
+
+        apply(stateMachine, 3, new PutCommand("name", "bob"));
+        assertNull(update(stateMachine, 4, new IncrementCommand("name", 1, 0)));
+        apply(stateMachine, 5, new PutCommand("max", Long.toString(Long.MAX_VALUE)));
+        assertNull(update(stateMachine, 6, new IncrementCommand("max", 1, 0)));
+        assertEquals(new VersionedValue("bob", 3), versioned(stateMachine, "name"));
+
+        assertEquals(new VersionedValue("a", 7), update(stateMachine, 7, new AppendCommand("log", "a", 0)));
+        assertEquals(new VersionedValue("a,b", 8), update(stateMachine, 8, new AppendCommand("log", ",b", 0)));
+
+        // A live key keeps its TTL; one past its deadline at the entry's time starts from scratch
+        apply(stateMachine, 9, new PutCommand("session", "10", 1_000));
+        assertEquals(new VersionedValue("11", 10), update(stateMachine, 10, new IncrementCommand("session", 1, 500)));
+        apply(stateMachine, 11, new ExpireCommand(2_000, List.of("session")));
+        assertNull(versioned(stateMachine, "session"));
+        apply(stateMachine, 12, new PutCommand("session", "10", 1_000));
+        assertEquals(new VersionedValue("1", 13), update(stateMachine, 13, new IncrementCommand("session", 1, 2_000)));
+        apply(stateMachine, 14, new ExpireCommand(2_000, List.of("session")));
+        assertEquals(new VersionedValue("1", 13), versioned(stateMachine, "session"));
+        stateMachine.close();
+    }
+
+    @Test
+    void reportsEveryKeyAnEntryChanges() throws Exception {
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine();
+        List<String> written = new ArrayList<>();
+        stateMachine.setWriteListener(written::add);
+        apply(stateMachine, 1, new PutCommand("a", "1"));
+        apply(stateMachine, 2, new PutCommand("a", "2", 0, 5));  // Version mismatch, nothing changes
+        apply(stateMachine, 3, new IncrementCommand("b", 1, 0));
+        apply(stateMachine, 4, new DeleteCommand("a"));
+        apply(stateMachine, 5, new BatchCommand(List.of(new PutCommand("c", "1"), new DeleteCommand("missing"))));
+        assertEquals(List.of("a", "b", "a", "c"), written);
+        stateMachine.close();
+    }
+
+    @Test
+    void appliesAllOfABatchOrNoneOfIt() throws Exception {
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine();
+        apply(stateMachine, 1, new PutCommand("gone", "x"));
+        apply(stateMachine, 2, new BatchCommand(List.of(
+                new PutCommand("a", "1"), new PutCommand("b", "2"), new DeleteCommand("gone"))));
+        assertEquals("1", versioned(stateMachine, "a").value());
+        assertEquals("2", versioned(stateMachine, "b").value());
+        assertNull(versioned(stateMachine, "gone"));
+
+        // Cut inside its last operation: the entry fails without touching the keys before the cut
+        ByteString whole = new BatchCommand(List.of(new PutCommand("a", "3"), new DeleteCommand("b"),
+                new PutCommand("c", "4"))).getContent();
+        LogEntryProto entry = LogEntryProto.newBuilder()
+                .setTerm(1)
+                .setIndex(3)
+                .setStateMachineLogEntry(StateMachineLogEntryProto.newBuilder()
+                        .setLogData(whole.substring(0, whole.size() - 1)))
+                .build();
+        assertThrows(CompletionException.class, () -> stateMachine.applyTransaction(TransactionContext.newBuilder()
+                .setServerRole(RaftPeerRole.FOLLOWER)
+                .setStateMachine(stateMachine)
+                .setLogEntry(entry)
+                .build()).join());
+        assertEquals("1", versioned(stateMachine, "a").value());
+        assertEquals("2", versioned(stateMachine, "b").value());
+        assertNull(versioned(stateMachine, "c"));
+        stateMachine.close();
+    }
+
+    @Test
+    void keepsCompressedValuesCompressedUntilRead() throws Exception {
+        HeapKeyValueStore store = new HeapKeyValueStore();
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine(store);
+        String json = "{\"id\":1,\"status\":\"active\",\"roles\":[\"admin\",\"user\"]}".repeat(200);
+        ChangeFeed.Cursor changes = stateMachine.getChangeFeed().cursor(null);
+        apply(stateMachine, 1, new PutCommand("doc", ValueCompression.compress(json), 0, VersionedValue.ANY));
+
+        assertTrue(store.dataBytes() < json.length() / 4);
+        assertEquals(new VersionedValue(json, 1), versioned(stateMachine, "doc"));
+        assertEquals(json, changes.next().value());
+        assertEquals(json, stateMachine.get("doc"));
+
+        // Appending reads the plain value and stores the result plain
+        assertEquals(new VersionedValue(json + "!", 2), update(stateMachine, 2, new AppendCommand("doc", "!", 0)));
+        assertEquals(json + "!", scan(stateMachine, ScanCommand.of("doc", null, null, null, 1)).entries().get(0).value());
+        stateMachine.close();
+    }
+
+    @Test
+    void stagesChunkedUploadsUntilTheirCommit(@TempDir File uploadDir) throws Exception {
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine();
+        stateMachine.openUploads(uploadDir);
+        apply(stateMachine, 1, chunk("u1", 0, "hello ", 0));
+        apply(stateMachine, 2, chunk("u1", 0, "hello ", 0));  // Proposed twice by a retrying client
+        apply(stateMachine, 3, chunk("u1", 6, "wörld", 0));
+        assertNull(versioned(stateMachine, "doc"));
+
+        assertEquals(new WriteResult(true, 4), write(stateMachine, 4, new CommitUploadCommand("doc", "u1", 12)));
+        assertEquals(new VersionedValue("hello wörld", 4), versioned(stateMachine, "doc"));
+        assertEquals(0, uploadDir.list().length);
+
+        // A lost chunk spoils the upload, so every replica turns its commit down alike
+        apply(stateMachine, 5, chunk("u2", 0, "a", 0));
+        apply(stateMachine, 6, chunk("u2", 5, "b", 0));
+        assertThrows(CompletionException.class, () -> apply(stateMachine, 7, new CommitUploadCommand("gap", "u2", 6)));
+        assertNull(versioned(stateMachine, "gap"));
+
+        // Uploads left unfinished are dropped by the clock in later chunks
+        apply(stateMachine, 8, chunk("u3", 0, "a", 0));
+        apply(stateMachine, 9, chunk("u4", 0, "b", 3_600_000));
+        assertThrows(CompletionException.class, () -> apply(stateMachine, 10, new CommitUploadCommand("old", "u3", 1)));
+        assertEquals(1, uploadDir.list().length);
+
+        // Commits can be conditional like any write; a rejected one frees its upload all the same
+        assertEquals(new WriteResult(false, 4),
+                write(stateMachine, 11, new CommitUploadCommand("doc", "u4", 1, 0, VersionedValue.ABSENT)));
+        assertEquals(0, uploadDir.list().length);
+        stateMachine.close();
+    }
+
+    @Test
+    void restoresKeysAndUploadsFromItsSnapshot(@TempDir File dir) throws Exception {
+        RaftStorage storage = storage(dir, RaftStorage.StartupOption.FORMAT);
+        KeyValueStateMachine leader = new KeyValueStateMachine();
+        leader.initialize(server(), GROUP, storage);
+        apply(leader, 1, new PutCommand("a", "1"));
+        apply(leader, 2, new PutCommand("b", "2"));
+        apply(leader, 3, chunk("up-1", 0, "hello ", 3));
+        assertEquals(3, leader.takeSnapshot());
+        leader.close();
+        // Only the snapshot and its checksum are left, no temporary file
+        File[] files = storage.getStorageDir().getStateMachineDir().listFiles();
+        assertEquals(List.of("snapshot.1_3", "snapshot.1_3.md5"),
+                Arrays.stream(files).map(File::getName).sorted().collect(Collectors.toList()));
+        // As a crash in the middle of the next snapshot would leave it
+        File torn = new File(storage.getStorageDir().getStateMachineDir(), "snapshot.1_9.tmp");
+        assertTrue(torn.createNewFile());
+        storage.close();
+
+        KeyValueStateMachine restarted = new KeyValueStateMachine();
+        RaftStorage reopened = storage(dir, RaftStorage.StartupOption.RECOVER);
+        restarted.initialize(server(), GROUP, reopened);
+        assertEquals(3, restarted.getLastAppliedTermIndex().getIndex());
+        assertFalse(torn.exists());
+        assertEquals(new VersionedValue("1", 1), versioned(restarted, "a"));
+        assertEquals(new VersionedValue("2", 2), versioned(restarted, "b"));
+        // The upload staged before the snapshot carries on after it
+        apply(restarted, 4, chunk("up-1", 6, "world", 4));
+        assertEquals(new WriteResult(true, 5), write(restarted, 5, new CommitUploadCommand("c", "up-1", 11)));
+        assertEquals("hello world", versioned(restarted, "c").value());
+        restarted.close();
+        reopened.close();
+    }
+
+    @Test
+    void linksDurableStoreFilesInsteadOfCopyingKeys(@TempDir File leaderDir, @TempDir File followerDir) throws Exception {
+        RaftStorage storage = storage(leaderDir, RaftStorage.StartupOption.FORMAT);
+        KeyValueStateMachine leader = new KeyValueStateMachine(new BitcaskKeyValueStore());
+        leader.initialize(server(), GROUP, storage);
+        apply(leader, 1, new PutCommand("a", "x".repeat(4096)));
+        apply(leader, 2, new PutCommand("b", "2"));
+        apply(leader, 3, chunk("up-1", 0, "hello ", 3));
+        assertEquals(3, leader.takeSnapshot());
+        SnapshotInfo snapshot = leader.getLatestSnapshot();
+        // Written after the snapshot, so a follower installing it must not see this
+        apply(leader, 4, new PutCommand("b", "after"));
+
+        // The snapshot file itself is a small manifest; the value lives in the linked store files
+        File manifest = snapshot.getFiles().get(0).getPath().toFile();
+        assertTrue(manifest.length() < 256, "snapshot copied the keys: " + manifest.length());
+        assertTrue(snapshot.getFiles().size() > 1);
+
+        // Install it on a follower the way Ratis does: every file, relative to the state machine dir
+        RaftStorage followerStorage = storage(followerDir, RaftStorage.StartupOption.FORMAT);
+        Path from = storage.getStorageDir().getStateMachineDir().toPath();
+        Path to = followerStorage.getStorageDir().getStateMachineDir().toPath();
+        for (FileInfo file : snapshot.getFiles()) {
+            Path target = to.resolve(from.relativize(file.getPath()));
+            Files.createDirectories(target.getParent());
+            Files.write(target, Arrays.copyOf(Files.readAllBytes(file.getPath()), (int) file.getFileSize()));
+            MD5FileUtil.computeAndSaveMd5ForFile(target.toFile());
+        }
+        KeyValueStateMachine follower = new KeyValueStateMachine(new BitcaskKeyValueStore());
+        follower.initialize(server(), GROUP, followerStorage);
+        assertEquals(3, follower.getLastAppliedTermIndex().getIndex());
+        assertEquals(new VersionedValue("x".repeat(4096), 1), versioned(follower, "a"));
+        assertEquals(new VersionedValue("2", 2), versioned(follower, "b"));
+        apply(follower, 4, new PutCommand("b", "after"));
+        apply(follower, 5, chunk("up-1", 6, "world", 5));
+        assertEquals(new WriteResult(true, 6), write(follower, 6, new CommitUploadCommand("c", "up-1", 11)));
+        assertEquals("hello world", versioned(follower, "c").value());
+        assertEquals(new VersionedValue("after", 4), versioned(follower, "b"));
+        follower.close();
+        followerStorage.close();
+        leader.close();
+        storage.close();
+    }
+
+    @Test
+    void readsVersionOneSnapshots(@TempDir File dir) throws Exception {
+        RaftStorage storage = storage(dir, RaftStorage.StartupOption.FORMAT);
+        // Written before uploads were added: no upload section ahead of the keys
+        File snapshot = new File(storage.getStorageDir().getStateMachineDir(), "snapshot.2_7");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(snapshot))) {
+            out.writeInt(0x4B565353);
+            out.writeByte(1);
+            out.writeInt(1);
+            byte[] key = "old".getBytes(StandardCharsets.UTF_8);
+            byte[] value = StoredValue.encode("v", 5, 0).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(value.length);
+            out.write(value);
+        }
+        MD5FileUtil.computeAndSaveMd5ForFile(snapshot);
+        storage.close();
+
+        KeyValueStateMachine stateMachine = new KeyValueStateMachine();
+        RaftStorage reopened = storage(dir, RaftStorage.StartupOption.RECOVER);
+        stateMachine.initialize(server(), GROUP, reopened);
+        assertEquals(7, stateMachine.getLastAppliedTermIndex().getIndex());
+        assertEquals(new VersionedValue("v", 5), versioned(stateMachine, "old"));
+        stateMachine.close();
+        reopened.close();
+    }
+
+    // Never leader, so the expiry proposer stays idle
+    private static RaftServer server() {
+        RaftServer server = mock(RaftServer.class, RETURNS_DEEP_STUBS);
+        when(server.getId()).thenReturn(RaftPeerId.valueOf("n1"));
+        return server;
+    }
+
+    private static RaftStorage storage(File dir, RaftStorage.StartupOption option) throws Exception {
+        RaftStorage storage = RaftStorage.newBuilder()
+                .setDirectory(dir)
+                .setOption(option)
+                .setStorageFreeSpaceMin(SizeInBytes.ZERO)
+                .setLogCorruptionPolicy(RaftServerConfigKeys.Log.CorruptionPolicy.EXCEPTION)
+                .build();
+        storage.initialize();
+        return storage;
+    }
+
+    private static UploadChunkCommand chunk(String uploadId, long offset, String data, long now) {
+        return new UploadChunkCommand(uploadId, offset, ByteString.copyFromUtf8(data), now);
+    }
+
+    private static VersionedValue update(KeyValueStateMachine stateMachine, long index, Message command) {
+        return CommandCodec.decodeVersionedValue(apply(stateMachine, index, command).getContent());
+    }
+
+    private static VersionedValue versioned(KeyValueStateMachine stateMachine, String key) throws Exception {
+        return CommandCodec.decodeVersionedValue(
+                stateMachine.query(new GetCommand(key, true)).get(5, TimeUnit.SECONDS).getContent());
+    }
+
+    private static ScanPage scan(KeyValueStateMachine stateMachine, ScanCommand command) throws Exception {
+        return CommandCodec.decodeScanPage(stateMachine.query(command).get(5, TimeUnit.SECONDS).getContent());
+    }
+
+    private static WriteResult write(KeyValueStateMachine stateMachine, long index, Message command) {
+        return CommandCodec.decodeWriteResult(apply(stateMachine, index, command).getContent());
+    }
+
+    private static Message apply(KeyValueStateMachine stateMachine, long index, Message command) {
+        LogEntryProto entry = LogEntryProto.newBuilder()
+                .setTerm(1)
+                .setIndex(index)
+                .setStateMachineLogEntry(StateMachineLogEntryProto.newBuilder().setLogData(command.getContent()))
+                .build();
+        return stateMachine.applyTransaction(TransactionContext.newBuilder()
+                .setServerRole(RaftPeerRole.FOLLOWER)
+                .setStateMachine(stateMachine)
+                .setLogEntry(entry)
+                .build()).join();
+    }
+}
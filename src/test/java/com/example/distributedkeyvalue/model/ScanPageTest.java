@@ -0,0 +1,37 @@
+package com.example.distributedkeyvalue.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ScanPageTest {
+
+    private static ScanPage page(String nextToken, String... keys) {
+        return new ScanPage(List.of(keys).stream().map(key -> new ScanPage.Entry(key, "v")).collect(Collectors.toList()),
+                nextToken);
+    }
+
+    private static List<String> keys(ScanPage page) {
+        return page.entries().stream().map(ScanPage.Entry::key).collect(Collectors.toList());
+    }
+
+    @Test
+    void mergesShardPagesInKeyOrder() {
+        ScanPage merged = ScanPage.merge(List.of(page(null, "b", "e"), page(ScanPage.tokenAfter("d"), "a", "d"),
+                page(null)), 3);
+        assertEquals(List.of("a", "b", "d"), keys(merged));
+        // Resumes after the last key returned, not after the last key any shard read
+        assertEquals("d\0", ScanPage.resumeFrom(merged.nextToken()));
+    }
+
+    @Test
+    void lastPageHasNoToken() {
+        ScanPage merged = ScanPage.merge(List.of(page(null, "b"), page(null, "a", "c")), 3);
+        assertEquals(List.of("a", "b", "c"), keys(merged));
+        assertNull(merged.nextToken());
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.distributedkeyvalue.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardMapTest {
+    private static final int KEYS = 1_000_000;
+
+    private static ShardMap ringOf(int shards, int virtualNodes) {
+        Map<String, List<String>> shardToNodes = new LinkedHashMap<>();
+        for (int i = 1; i <= shards; i++) {
+            shardToNodes.put("shard" + i, List.of("shard" + i + "-node1:shard" + i + "-node1:9870"));
+        }
+        return new ShardMap(1, virtualNodes, shardToNodes);
+    }
+
+    @Test
+    void spreadsKeysEvenlyAcrossShards() {
+        for (int virtualNodes : new int[]{1, 16, 128, 512}) {
+            ShardMap map = ringOf(8, virtualNodes);
+            Map<String, Integer> counts = new HashMap<>();
+            for (int i = 0; i < KEYS; i++) {
+                counts.merge(map.shardIdFor("user:" + i), 1, Integer::sum);
+            }
+            double mean = (double) KEYS / 8;
+            double skew = counts.values().stream().mapToInt(Integer::intValue).max().orElse(0) / mean;
+            if (virtualNodes >= 128) {
+                assertTrue(skew < 1.25, "Too much skew with " + virtualNodes + " virtual nodes: " + skew);
+            }
+        }
+    }
+
+    @Test
+    void rebuildsTheSameRingFromJson() throws Exception {
+        ShardMap map = ringOf(4, 64);
+        ObjectMapper mapper = new ObjectMapper();
+        ShardMap copy = mapper.readValue(mapper.writeValueAsString(map), ShardMap.class);
+
+        assertEquals(map.epoch(), copy.epoch());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(map.shardIdFor("k" + i), copy.shardIdFor("k" + i));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.distributedkeyvalue.model;
+
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UploadStagingTest {
+
+    @Test
+    void snapshotsCarryPendingUploads(@TempDir File leaderDir, @TempDir File followerDir) throws Exception {
+        UploadStaging leader = new UploadStaging();
+        leader.open(leaderDir);
+        leader.append("whole", 0, ByteString.copyFromUtf8("x".repeat(100_000)), 0);
+        leader.append("broken", 10, ByteString.copyFromUtf8("lost"), 0);
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(snapshot)) {
+            leader.writeTo(out);
+        }
+
+        // Whatever the follower staged before is replaced by the snapshot's uploads
+        UploadStaging follower = new UploadStaging();
+        follower.open(followerDir);
+        follower.append("stale", 0, ByteString.copyFromUtf8("old"), 0);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot.toByteArray()))) {
+            follower.readFrom(in);
+        }
+        assertEquals(2, follower.size());
+        follower.append("whole", 100_000, ByteString.copyFromUtf8("y"), 0);
+        assertEquals("x".repeat(100_000) + "y", new String(follower.take("whole", 100_001), StandardCharsets.UTF_8));
+        assertThrows(IllegalStateException.class, () -> follower.take("broken", 4));
+        assertThrows(IllegalStateException.class, () -> follower.take("stale", 3));
+        assertEquals(0, followerDir.list().length);
+    }
+
+    @Test
+    void rejectsIdsThatAreNotPlainNames(@TempDir File dir) throws Exception {
+        UploadStaging staging = new UploadStaging();
+        staging.open(dir);
+        assertThrows(IllegalArgumentException.class,
+                () -> staging.append("../kv-data/x", 0, ByteString.copyFromUtf8("a"), 0));
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.distributedkeyvalue.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ValueCompressionTest {
+
+    @Test
+    void packsEveryLengthIntoAsciiAndBack() {
+        Random random = new Random(42);
+        for (int length = 0; length < 64; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            String packed = ValueCompression.pack(bytes);
+            assertEquals((length * 8 + 6) / 7, packed.length());
+            assertTrue(packed.chars().allMatch(c -> c < 0x80));
+            assertArrayEquals(bytes, ValueCompression.unpack(packed));
+        }
+    }
+
+    @Test
+    void onlyKeepsCompressionThatPaysForItself() {
+        String json = "{\"city\":\"Zürich\",\"temps\":[12,14,13]}".repeat(50);
+        assertEquals(json, ValueCompression.decompressPacked(ValueCompression.pack(ValueCompression.compress(json))));
+
+        byte[] noise = new byte[4096];
+        new Random(7).nextBytes(noise);
+        assertNull(ValueCompression.compress(new String(noise, StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        byte[] compressed = ValueCompression.compress("abc".repeat(1_000));
+        compressed[0] = (byte) 0xff;  // Claims a different length than the block expands to
+        assertThrows(RuntimeException.class, () -> ValueCompression.decompress(compressed));
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.distributedkeyvalue.model.commands;
+
+import com.example.distributedkeyvalue.model.ScanPage;
+import com.example.distributedkeyvalue.model.ValueCompression;
+import com.example.distributedkeyvalue.model.VersionedValue;
+import com.example.distributedkeyvalue.model.WriteResult;
+import org.apache.ratis.protocol.Message;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandCodecTest {
+
+    @Test
+    void roundTripsKeysContainingSeparators() {
+        PutCommand put = PutCommand.from(new PutCommand("user:42:name", "a:b:c").getContent());
+        assertEquals("user:42:name", put.getKey());
+        assertEquals("a:b:c", put.getValue());
+
+        assertEquals("ns:key", DeleteCommand.from(new DeleteCommand("ns:key").getContent()).getKey());
+        assertEquals("ns:key", GetCommand.from(new GetCommand("ns:key").getContent()).getKey());
+    }
+
+    @Test
+    void roundTripsBatches() {
+        BatchCommand batch = BatchCommand.from(new BatchCommand(List.of(
+                new PutCommand("a", "1"), new DeleteCommand("b"), new PutCommand("c", ""))).getContent());
+
+        assertEquals(3, batch.getOperations().size());
+        assertEquals("1", ((PutCommand) batch.getOperations().get(0)).getValue());
+        assertEquals("b", ((DeleteCommand) batch.getOperations().get(1)).getKey());
+        assertEquals(List.of("OK", "NOT_FOUND"),
+                CommandCodec.decodeStrings(CommandCodec.encodeStrings(List.of("OK", "NOT_FOUND"))));
+    }
+
+    @Test
+    void roundTripsMultiGetAndMissingValues() {
+        assertEquals(List.of("a", "b:c"), MultiGetCommand.from(new MultiGetCommand(List.of("a", "b:c")).getContent()).getKeys());
+        assertEquals(Arrays.asList("x", null, ""),
+                CommandCodec.decodeNullableStrings(CommandCodec.encodeNullableStrings(Arrays.asList("x", null, ""))));
+    }
+
+    @Test
+    void roundTripsScansAndPages() {
+        ScanCommand scan = ScanCommand.from(new ScanCommand("a:", null, 50).getContent());
+        assertEquals("a:", scan.getStart());
+        assertNull(scan.getEnd());
+        assertEquals(50, scan.getLimit());
+        assertEquals("a;", ScanCommand.of("a:", null, null, null, 1).getEnd());
+        assertNull(ScanCommand.prefixEnd("\uffff"));
+
+        ScanPage page = new ScanPage(List.of(new ScanPage.Entry("a", "1"), new ScanPage.Entry("b", "")), "tok");
+        assertEquals(page, CommandCodec.decodeScanPage(CommandCodec.encodeScanPage(page)));
+        assertThrows(IllegalArgumentException.class, () -> new ScanCommand(null, null, 0));
+    }
+
+    @Test
+    void roundTripsExpiringPutsAndExpirations() {
+        PutCommand put = PutCommand.from(new PutCommand("session", "s", 1_700_000_000_000L).getContent());
+        assertEquals(1_700_000_000_000L, put.getExpireAt());
+        assertEquals("s", put.getValue());
+
+        BatchCommand batch = BatchCommand.from(new BatchCommand(List.of(
+                new PutCommand("a", "1", 42), new PutCommand("b", "2"))).getContent());
+        assertEquals(42, ((PutCommand) batch.getOperations().get(0)).getExpireAt());
+        assertEquals(0, ((PutCommand) batch.getOperations().get(1)).getExpireAt());
+
+        ExpireCommand expire = ExpireCommand.from(new ExpireCommand(99, List.of("a", "b")).getContent());
+        assertEquals(99, expire.getNow());
+        assertEquals(List.of("a", "b"), expire.getKeys());
+    }
+
+    @Test
+    void roundTripsConditionalWritesAndVersionedReplies() {
+        PutCommand put = PutCommand.from(new PutCommand("k", "v", 0, VersionedValue.ABSENT).getContent());
+        assertEquals(VersionedValue.ABSENT, put.getExpectedVersion());
+        assertEquals(VersionedValue.ANY, PutCommand.from(new PutCommand("k", "v").getContent()).getExpectedVersion());
+        assertEquals(17, DeleteCommand.from(new DeleteCommand("k", 17).getContent()).getExpectedVersion());
+        assertTrue(GetCommand.from(new GetCommand("k", true).getContent()).isVersioned());
+
+        // Entries from before the clock was carried end at the expected version and decode with now 0
+        ByteString withClock = new DeleteCommand("k", 17, 1234).getContent();
+        assertEquals(1234, DeleteCommand.from(withClock).getNow());
+        assertEquals(0, DeleteCommand.from(withClock.substring(0, withClock.size() - 2)).getNow());
+
+        assertEquals(new VersionedValue("v", 5), CommandCodec.decodeVersionedValue(
+                CommandCodec.encodeVersionedValue(new VersionedValue("v", 5))));
+        assertNull(CommandCodec.decodeVersionedValue(CommandCodec.encodeVersionedValue(null)));
+        assertEquals(new WriteResult(false, 9), CommandCodec.decodeWriteResult(
+                CommandCodec.encodeWriteResult(new WriteResult(false, 9))));
+        assertThrows(IllegalArgumentException.class,
+                () -> new BatchCommand(List.of(new DeleteCommand("k", 3))).getContent());
+    }
+
+    @Test
+    void roundTripsIncrementsAndAppends() {
+        IncrementCommand increment = IncrementCommand.from(new IncrementCommand("hits", -42, 1_700_000_000_000L).getContent());
+        assertEquals("hits", increment.getKey());
+        assertEquals(-42, increment.getDelta());
+        assertEquals(1_700_000_000_000L, increment.getNow());
+        assertEquals(Long.MIN_VALUE, IncrementCommand.from(new IncrementCommand("k", Long.MIN_VALUE, 0).getContent()).getDelta());
+
+        AppendCommand append = AppendCommand.from(new AppendCommand("log", "é,", 7).getContent());
+        assertEquals("log", append.getKey());
+        assertEquals("é,", append.getValue());
+        assertEquals(7, append.getNow());
+        assertThrows(IllegalArgumentException.class,
+                () -> new BatchCommand(List.of(new AppendCommand("k", "v", 0))).getContent());
+    }
+
+    @Test
+    void compressesValuesFromTheConfiguredThreshold() {
+        String json = "{\"name\":\"alice\",\"tags\":[\"a\",\"b\"]}".repeat(100);
+        assertFalse(PutCommand.from(new PutCommand("doc", json).getContent()).isCompressed());
+        assertFalse(PutCommand.from(new PutCommand("doc", json).compressAbove(json.length() + 1).getContent()).isCompressed());
+
+        PutCommand put = PutCommand.from(new PutCommand("doc", json).compressAbove(json.length()).getContent());
+        assertTrue(put.isCompressed());
+        assertEquals(json, put.getValue());
+    }
+
+    @Test
+    void roundTripsCompressedValues() {
+        String json = "{\"name\":\"alice\",\"tags\":[\"a\",\"b\"]}".repeat(100);
+        byte[] compressed = ValueCompression.compress(json);
+        ByteString content = new PutCommand("doc", compressed, 1_000, 7).getContent();
+        assertEquals((byte) (CommandCodec.OP_PUT_IF | CommandCodec.VALUE_COMPRESSED), content.byteAt(1));
+        assertTrue(content.size() < json.length() / 4);
+
+        PutCommand put = PutCommand.from(content);
+        assertTrue(put.isCompressed());
+        assertEquals(json, put.getValue());
+        assertEquals(1_000, put.getExpireAt());
+        assertEquals(7, put.getExpectedVersion());
+
+        BatchCommand batch = BatchCommand.from(new BatchCommand(List.of(
+                new PutCommand("a", compressed, 0, VersionedValue.ANY), new PutCommand("b", "1"),
+                new PutCommand("c", compressed, 5, VersionedValue.ANY))).getContent());
+        assertEquals(json, ((PutCommand) batch.getOperations().get(0)).getValue());
+        assertFalse(((PutCommand) batch.getOperations().get(1)).isCompressed());
+        assertEquals(5, ((PutCommand) batch.getOperations().get(2)).getExpireAt());
+        assertEquals(json, ((PutCommand) batch.getOperations().get(2)).getValue());
+    }
+
+    @Test
+    void roundTripsUploadChunksAndCommits() {
+        ByteString data = ByteString.copyFromUtf8("x".repeat(4096));
+        UploadChunkCommand chunk = UploadChunkCommand.from(new UploadChunkCommand("u-1", 8192, data, 1_000).getContent());
+        assertEquals("u-1", chunk.getUploadId());
+        assertEquals(8192, chunk.getOffset());
+        assertEquals(1_000, chunk.getNow());
+        assertEquals(data, chunk.getData());
+
+        CommitUploadCommand commit = CommitUploadCommand.from(
+                new CommitUploadCommand("doc", "u-1", 12288, 5_000, VersionedValue.ANY).getContent());
+        assertEquals("doc", commit.getKey());
+        assertEquals("u-1", commit.getUploadId());
+        assertEquals(12288, commit.getLength());
+        assertEquals(5_000, commit.getExpireAt());
+        assertEquals(VersionedValue.ANY, commit.getExpectedVersion());
+
+        // The chunk must run to the end of the entry
+        ByteString truncated = new UploadChunkCommand("u-1", 0, data, 1_000).getContent().substring(0, 100);
+        assertThrows(IllegalArgumentException.class, () -> CommandCodec.decode(truncated));
+    }
+
+    @Test
+    void decodesLegacyTextEntries() {
+        Message put = CommandCodec.decode(ByteString.copyFromUtf8("PUT:key:value:with:colons"));
+        assertInstanceOf(PutCommand.class, put);
+        assertEquals("key", ((PutCommand) put).getKey());
+        assertEquals("value:with:colons", ((PutCommand) put).getValue());
+
+        assertEquals("key", DeleteCommand.from(ByteString.copyFromUtf8("DELETE:key")).getKey());
+        assertEquals("a:b", GetCommand.from(ByteString.copyFromUtf8("GET:a:b")).getKey());
+    }
+
+    @Test
+    void rejectsUnknownOpcode() {
+        ByteString data = ByteString.copyFrom(new byte[]{CommandCodec.FORMAT_VERSION, 99});
+        assertThrows(IllegalArgumentException.class, () -> CommandCodec.decode(data));
+    }
+}
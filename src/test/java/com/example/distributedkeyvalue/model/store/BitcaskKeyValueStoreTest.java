@@ -0,0 +1,226 @@
+package com.example.distributedkeyvalue.model.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BitcaskKeyValueStoreTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void survivesReopenAfterRandomWritesAndMerges() throws Exception {
+        // Small files so the active file rolls often and background merges kick in
+        BitcaskKeyValueStore store = new BitcaskKeyValueStore(8192);
+        store.open(directory);
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 50_000; i++) {
+            store.setWriteIndex(i);
+            String key = "key-" + random.nextInt(500);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(key) != null, store.remove(key));
+            } else {
+                String value = "v".repeat(random.nextInt(200)) + i;
+                expected.put(key, value);
+                store.put(key, value);
+            }
+        }
+        assertContents(expected, store);
+        assertTrue(store.diskBytes() < 20 * (store.dataBytes() + 8192), "dead records were never merged");
+        store.close();
+
+        BitcaskKeyValueStore reopened = new BitcaskKeyValueStore(8192);
+        reopened.open(directory);
+        assertContents(expected, reopened);
+        assertEquals(49_999, reopened.appliedIndex());
+        reopened.close();
+    }
+
+    @Test
+    void dropsTornTailOnOpen() throws Exception {
+        BitcaskKeyValueStore store = new BitcaskKeyValueStore();
+        store.open(directory);
+        store.setWriteIndex(1);
+        store.put("a", "1");
+        store.setWriteIndex(2);
+        store.put("b", "2");
+        store.close();
+
+        // Cut the last record in half, as a crash during the write would
+        File dataFile = Arrays.stream(directory.listFiles()).filter(File::isFile)
+                .filter(file -> file.length() > 0).findFirst().orElseThrow();
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        BitcaskKeyValueStore reopened = new BitcaskKeyValueStore();
+        reopened.open(directory);
+        assertEquals("1", reopened.get("a"));
+        assertNull(reopened.get("b"));
+        assertEquals(1, reopened.appliedIndex());
+        reopened.close();
+    }
+
+    @Test
+    void dropsAnEntryCutOffMidBatch() throws Exception {
+        BitcaskKeyValueStore store = new BitcaskKeyValueStore();
+        store.open(directory);
+        store.setWriteIndex(1);
+        store.put("a", "1");
+        store.put("b", "1");
+        // A batch writes several records under one index
+        store.setWriteIndex(2);
+        store.put("a", "2");
+        store.put("c", "2");
+        store.remove("b");
+        store.close();
+
+        // Lose the tombstone and the commit marker after it, as a crash before the batch finished would
+        File dataFile = Arrays.stream(directory.listFiles()).filter(File::isFile)
+                .filter(file -> file.length() > 0).findFirst().orElseThrow();
+        long cut = (21 + 1) + 21;
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            file.setLength(file.length() - cut);
+        }
+
+        BitcaskKeyValueStore reopened = new BitcaskKeyValueStore();
+        reopened.open(directory);
+        assertEquals(1, reopened.appliedIndex());
+        assertEquals(Map.of("a", "1", "b", "1"), contents(reopened));
+
+        // Replaying the entry from the log completes it
+        reopened.setWriteIndex(2);
+        reopened.put("a", "2");
+        reopened.put("c", "2");
+        reopened.remove("b");
+        reopened.close();
+        BitcaskKeyValueStore replayed = new BitcaskKeyValueStore();
+        replayed.open(directory);
+        assertEquals(2, replayed.appliedIndex());
+        assertEquals(Map.of("a", "2", "c", "2"), contents(replayed));
+        replayed.close();
+    }
+
+    @Test
+    void doesNotTrustLaterFilesWhenASealedFileLostItsTail() throws Exception {
+        // Small files so the entries spread over several of them
+        BitcaskKeyValueStore store = new BitcaskKeyValueStore(256);
+        store.open(directory);
+        for (int i = 1; i <= 40; i++) {
+            store.setWriteIndex(i);
+            store.put("key-" + i, "value-" + i);
+        }
+        store.close();
+
+        // Lose the last entry of the first file, as a power loss before it reached the disk would
+        File[] dataFiles = directory.listFiles((dir, name) -> name.endsWith(".data"));
+        Arrays.sort(dataFiles);
+        assertTrue(dataFiles.length > 2);
+        try (RandomAccessFile file = new RandomAccessFile(dataFiles[0], "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        BitcaskKeyValueStore reopened = new BitcaskKeyValueStore(256);
+        reopened.open(directory);
+        long applied = reopened.appliedIndex();
+        assertTrue(applied > 0 && applied < 40, "applied index " + applied);
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 1; i <= applied; i++) {
+            expected.put("key-" + i, "value-" + i);
+        }
+        assertEquals(expected, contents(reopened));
+
+        // Replaying the log from the applied index restores everything, and stays that way on reopen
+        for (long i = applied + 1; i <= 40; i++) {
+            reopened.setWriteIndex(i);
+            reopened.put("key-" + i, "value-" + i);
+            expected.put("key-" + i, "value-" + i);
+        }
+        reopened.close();
+        BitcaskKeyValueStore replayed = new BitcaskKeyValueStore(256);
+        replayed.open(directory);
+        assertEquals(40, replayed.appliedIndex());
+        assertEquals(expected, contents(replayed));
+        replayed.close();
+    }
+
+    @Test
+    void finishesDeletingTheInputsOfAnInterruptedMerge() throws Exception {
+        BitcaskKeyValueStore store = new BitcaskKeyValueStore(256);
+        store.open(directory);
+        store.setWriteIndex(1);
+        store.put("deleted", "old");
+        for (int i = 2; i <= 20; i++) {
+            store.setWriteIndex(i);
+            store.put("key-" + i, "value-" + i);
+        }
+        store.setWriteIndex(21);
+        store.remove("deleted");
+        store.close();
+
+        // A merge of every file died after deleting the newest one, which held the tombstone
+        File[] dataFiles = directory.listFiles((dir, name) -> name.endsWith(".data"));
+        Arrays.sort(dataFiles);
+        StringBuilder inputs = new StringBuilder();
+        for (int i = 0; i < dataFiles.length; i++) {
+            inputs.append(i).append('\n');
+        }
+        Files.writeString(directory.toPath().resolve("merge-inputs"), inputs);
+        assertTrue(dataFiles[dataFiles.length - 1].delete());
+
+        BitcaskKeyValueStore reopened = new BitcaskKeyValueStore(256);
+        reopened.open(directory);
+        assertNull(reopened.get("deleted"));
+        assertFalse(new File(directory, "merge-inputs").exists());
+        reopened.close();
+    }
+
+    @Test
+    void checkpointCoversEntriesThatWroteNothing() throws Exception {
+        BitcaskKeyValueStore store = new BitcaskKeyValueStore();
+        store.open(directory);
+        store.setWriteIndex(-1);
+        store.put("loaded", "from snapshot");
+        assertEquals(-1, store.appliedIndex());
+        store.checkpoint(40);
+        store.close();
+
+        BitcaskKeyValueStore reopened = new BitcaskKeyValueStore();
+        reopened.open(directory);
+        assertEquals(40, reopened.appliedIndex());
+        assertEquals("from snapshot", reopened.get("loaded"));
+        reopened.close();
+    }
+
+    private static Map<String, String> contents(KeyValueStore store) {
+        Map<String, String> contents = new HashMap<>();
+        store.forEach(contents::put);
+        return contents;
+    }
+
+    private static void assertContents(Map<String, String> expected, KeyValueStore store) {
+        assertEquals(expected.size(), store.size());
+        expected.forEach((key, value) -> assertEquals(value, store.get(key)));
+        Map<String, String> iterated = new HashMap<>();
+        store.forEach(iterated::put);
+        assertEquals(expected, iterated);
+        assertEquals(new ArrayList<>(new TreeMap<>(expected).entrySet()), OffHeapKeyValueStoreTest.scan(store, null, null));
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.distributedkeyvalue.model.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapKeyValueStoreTest {
+
+    @Test
+    void matchesAHashMapUnderRandomWrites() {
+        // Small chunks and table so resizing, oversized records and compaction all happen
+        OffHeapKeyValueStore store = new OffHeapKeyValueStore(4096, 16);
+        NavigableMap<String, String> expected = new TreeMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            String key = "key-" + random.nextInt(5_000);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(key) != null, store.remove(key));
+            } else {
+                String value = "v".repeat(random.nextInt(random.nextInt(100) == 0 ? 10_000 : 50)) + i;
+                expected.put(key, value);
+                store.put(key, value);
+            }
+        }
+
+        assertEquals(expected.size(), store.size());
+        expected.forEach((key, value) -> assertEquals(value, store.get(key)));
+        Map<String, String> iterated = new HashMap<>();
+        store.forEach(iterated::put);
+        assertEquals(expected, iterated);
+        assertEquals(new ArrayList<>(expected.entrySet()), scan(store, null, null));
+        assertEquals(new ArrayList<>(expected.subMap("key-12", "key-3").entrySet()), scan(store, "key-12", "key-3"));
+        // Dead records have been compacted away; a record header with its links averages about 20 bytes
+        assertTrue(store.offHeapBytes() < 4 * (store.dataBytes() + 32L * store.size()) + 20_000);
+    }
+
+    @Test
+    void handlesUnicodeAndEmptyValues() {
+        OffHeapKeyValueStore store = new OffHeapKeyValueStore();
+        store.put("clé:ü", "");
+        store.put("", "日本");
+
+        assertEquals("", store.get("clé:ü"));
+        assertEquals("日本", store.get(""));
+        assertEquals(List.of(Map.entry("", "日本"), Map.entry("clé:ü", "")), scan(store, null, null));
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(List.of(), scan(store, null, null));
+        assertFalse(store.remove("clé:ü"));
+    }
+
+    @Test
+    void scansInStringOrderAcrossSupplementaryCharacters() {
+        // UTF-8 puts U+FF21 after U+1F600, UTF-16 (and String.compareTo) puts it first
+        OffHeapKeyValueStore store = new OffHeapKeyValueStore();
+        NavigableMap<String, String> expected = new TreeMap<>();
+        for (String key : List.of("a\uFF21", "a\uD83D\uDE00", "a\uE000z", "a\uD7FF", "a", "ab")) {
+            expected.put(key, key);
+            store.put(key, key);
+        }
+
+        assertEquals(new ArrayList<>(expected.entrySet()), scan(store, null, null));
+        assertEquals(new ArrayList<>(expected.subMap("a\uD83D\uDE00", "a\uFF21").entrySet()),
+                scan(store, "a\uD83D\uDE00", "a\uFF21"));
+    }
+
+    static List<Map.Entry<String, String>> scan(KeyValueStore store, String from, String to) {
+        List<Map.Entry<String, String>> entries = new ArrayList<>();
+        store.scan(from, to, (key, value) -> entries.add(Map.entry(key, value)));
+        return entries;
+    }
+}
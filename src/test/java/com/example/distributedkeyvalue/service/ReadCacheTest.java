@@ -0,0 +1,64 @@
+package com.example.distributedkeyvalue.service;
+
+import com.example.distributedkeyvalue.model.VersionedValue;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReadCacheTest {
+    private final AtomicLong nanos = new AtomicLong();
+
+    private ReadCache cache(String name, long maxBytes) {
+        return new ReadCache(name, maxBytes, Duration.ofSeconds(1), nanos::get, Runnable::run);
+    }
+
+    @Test
+    void keepsTheNewestVersion() {
+        ReadCache cache = cache("versions", 1 << 20);
+        cache.offer("k", new VersionedValue("new", 7));
+        cache.offer("k", new VersionedValue("old", 5));  // A lagging replica's answer
+        assertEquals(new VersionedValue("new", 7), cache.get("k"));
+
+        cache.offer("k", new VersionedValue("newer", 9));
+        assertEquals(new VersionedValue("newer", 9), cache.get("k"));
+        cache.invalidate("k");
+        assertNull(cache.get("k"));
+    }
+
+    @Test
+    void dropsEntriesOnceTheyAreTooStale() {
+        ReadCache cache = cache("staleness", 1 << 20);
+        cache.offer("k", new VersionedValue("v", 7));
+        nanos.addAndGet(Duration.ofMillis(600).toNanos());
+        // Keeping the entry against an older offer does not restart its clock
+        cache.offer("k", new VersionedValue("old", 5));
+        assertEquals(new VersionedValue("v", 7), cache.get("k"));
+
+        nanos.addAndGet(Duration.ofMillis(600).toNanos());
+        assertNull(cache.get("k"));
+    }
+
+    @Test
+    void staysWithinItsByteBudget() {
+        ReadCache cache = cache("budget", 64 * 1024);
+        String value = "v".repeat(1000);
+        IntStream.range(0, 1000).forEach(i -> cache.offer("key-" + i, new VersionedValue(value, i + 1)));
+        long cached = IntStream.range(0, 1000).filter(i -> cache.get("key-" + i) != null).count();
+        assertTrue(cached > 0 && cached <= 32, "cached " + cached + " entries of ~2 KB in 64 KB");
+    }
+
+    @Test
+    void doesNothingWhenDisabled() {
+        ReadCache cache = cache("disabled", 0);
+        assertFalse(cache.isEnabled());
+        cache.offer("k", new VersionedValue("v", 1));
+        assertNull(cache.get("k"));
+    }
+}